@@ -0,0 +1,125 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.IntSupplier;
+
+/**
+ * The operations the JMH benchmarks time, packaged as JDK functional interfaces.
+ *
+ * JMH refuses benchmark classes in the default package, and code in a named package cannot
+ * refer to the network's default-package classes, so the benchmarks in the benchmarks
+ * package look these factories up by reflection once per fixture and then only call
+ * run(), getAsInt() or call(). Each returned lambda is its own class, so every benchmark's
+ * call site stays monomorphic and inlines.
+ */
+public final class BenchmarkOperations {
+    private BenchmarkOperations() {
+    }
+
+    /**
+     * One forward and one backward step per layer, keyed c1Forward ... outputForward and
+     * f6Backward ... c1Backward, plus c1s2Forward and c3s4Forward for each conv layer
+     * together with its pooling layer: the fused kernels under FUSED_GEMM, otherwise the
+     * two separate steps. FUSED_GEMM's single-layer steps are the IM2COL_GEMM ones, and
+     * WINOGRAD's C5 steps are too. All steps share a Workspace that starts out holding a full
+     * forward and backward pass of one real MNIST test sample, so each sees the inputs it
+     * gets in training. The backward steps keep adding into the same Gradients,
+     * which changes the values but not the work.
+     */
+    public static Map<String, Runnable> layerSteps(String algorithm) {
+        Dataset sample = MnistFiles.testSamples(1);
+        ConvolutionAlgorithm convolutionAlgorithm = ConvolutionAlgorithm.valueOf(algorithm);
+        LeNet5 network = new LeNet5();
+        network.setConvolutionAlgorithm(convolutionAlgorithm);
+        Workspace ws = new Workspace();
+        Gradients g = new Gradients();
+        boolean gemm = convolutionAlgorithm != ConvolutionAlgorithm.DIRECT;
+        boolean fused = convolutionAlgorithm == ConvolutionAlgorithm.FUSED_GEMM;
+        boolean winograd = convolutionAlgorithm == ConvolutionAlgorithm.WINOGRAD;
+
+        Map<String, Runnable> steps = new LinkedHashMap<>();
+        steps.put("c1Forward", winograd ? () -> network.convLayerC1Winograd(ws)
+                : gemm ? () -> network.convLayerC1Gemm(ws) : () -> network.convLayerC1(ws.input, ws.c1Output));
+        steps.put("s2Forward", () -> network.poolLayerS2(ws.c1Output, ws.s2Output));
+        steps.put("c3Forward", winograd ? () -> network.convLayerC3Winograd(ws)
+                : gemm ? () -> network.convLayerC3Gemm(ws) : () -> network.convLayerC3(ws.s2Output, ws.c3Output));
+        steps.put("s4Forward", () -> network.poolLayerS4(ws.c3Output, ws.s4Output));
+        steps.put("c1s2Forward", fused ? () -> network.convPoolC1S2(ws) : () -> {
+            steps.get("c1Forward").run();
+            steps.get("s2Forward").run();
+        });
+        steps.put("c3s4Forward", fused ? () -> network.convPoolC3S4(ws) : () -> {
+            steps.get("c3Forward").run();
+            steps.get("s4Forward").run();
+        });
+        steps.put("c5Forward", gemm ? () -> network.convLayerC5Gemm(ws.s4Output, ws.c5Output) : () -> network.convLayerC5(ws.s4Output, ws.c5Output));
+        steps.put("f6Forward", () -> network.layerF6(ws.c5Output, ws.f6Output));
+        steps.put("outputForward", () -> network.layerOutput(ws.f6Output, ws.output));
+        steps.put("outputBackward", () -> network.computeOutputGradient(ws.output, sample.label(0), ws.dOutput));
+        steps.put("f6Backward", () -> network.computeF6Gradient(ws, ws.dOutput, g, ws.dF6));
+        steps.put("c5Backward", () -> network.computeC5Gradient(ws, ws.dF6, g, ws.dC5));
+        steps.put("s4Backward", gemm ? () -> network.computeS4GradientGemm(ws, ws.dC5, g, ws.dS4) : () -> network.computeS4Gradient(ws, ws.dC5, g, ws.dS4));
+        steps.put("c3Backward", () -> network.computeC3Gradient(ws, ws.dS4, ws.dC3));
+        steps.put("s2Backward", winograd ? () -> network.computeS2GradientWinograd(ws, ws.dC3, g, ws.dS2)
+                : gemm ? () -> network.computeS2GradientGemm(ws, ws.dC3, g, ws.dS2) : () -> network.computeS2Gradient(ws, ws.dC3, g, ws.dS2));
+        steps.put("c1Backward", winograd ? () -> network.backpropagateToC1Winograd(ws, ws.dS2, g)
+                : gemm ? () -> network.backpropagateToC1Gemm(ws, ws.dS2, g) : () -> network.backpropagateToC1(ws, ws.dS2, g));
+
+        network.forwardActivations(sample.image(0), ws);
+        for (Map.Entry<String, Runnable> step : steps.entrySet()) {
+            if (step.getKey().endsWith("Backward")) {
+                step.getValue().run();
+            }
+        }
+        return steps;
+    }
+
+    /** A single-threaded training step on the next of the first numSamples test samples per call. */
+    public static Runnable trainSample(String precision, String algorithm, int numSamples) {
+        Dataset samples = MnistFiles.testSamples(numSamples);
+        LeNet5 network = network(precision, algorithm);
+        Cursor cursor = new Cursor(samples.size());
+        return () -> network.trainSample(samples, cursor.next());
+    }
+
+    /** Classifies the next of the first numSamples test samples per call. */
+    public static IntSupplier classify(String precision, String algorithm, int numSamples) {
+        Dataset samples = MnistFiles.testSamples(numSamples);
+        LeNet5 network = network(precision, algorithm);
+        Cursor cursor = new Cursor(samples.size());
+        return () -> network.classify(samples, cursor.next());
+    }
+
+    public static Callable<Object> openTestImages() {
+        return () -> IdxFile.openImages(MnistFiles.testImages());
+    }
+
+    public static Callable<Object> loadTestSet(boolean paddedCache) {
+        return paddedCache
+                ? () -> Dataset.load(MnistFiles.testImages(), MnistFiles.testLabels()).withPaddedCache()
+                : () -> Dataset.load(MnistFiles.testImages(), MnistFiles.testLabels());
+    }
+
+    private static LeNet5 network(String precision, String algorithm) {
+        LeNet5 network = new LeNet5();
+        network.setNumThreads(1);
+        network.setConvolutionAlgorithm(ConvolutionAlgorithm.valueOf(algorithm));
+        network.setPrecision(Precision.valueOf(precision));
+        return network;
+    }
+
+    private static final class Cursor {
+        private final int size;
+        private int next;
+
+        Cursor(int size) {
+            this.size = size;
+        }
+
+        int next() {
+            int index = next;
+            next = index + 1 == size ? 0 : index + 1;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Locates the MNIST test set for the benchmark fixtures: t10k-images-idx3-ubyte and
+ * t10k-labels-idx1-ubyte, or their .gz versions, in the directory given by the mnist.dir
+ * system property (the working directory by default).
+ */
+final class MnistFiles {
+    private MnistFiles() {
+    }
+
+    static Path testImages() {
+        return find("t10k-images-idx3-ubyte");
+    }
+
+    static Path testLabels() {
+        return find("t10k-labels-idx1-ubyte");
+    }
+
+    /** The first count test samples, with the padded input cache built. */
+    static Dataset testSamples(int count) {
+        try {
+            Dataset test = Dataset.load(testImages(), testLabels());
+            return test.subset(0, Math.min(count, test.size())).withPaddedCache();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path find(String name) {
+        Path directory = Paths.get(System.getProperty("mnist.dir", "."));
+        Path plain = directory.resolve(name);
+        if (Files.exists(plain)) {
+            return plain;
+        }
+        Path compressed = directory.resolve(name + ".gz");
+        if (Files.exists(compressed)) {
+            return compressed;
+        }
+        throw new IllegalStateException("No " + name + " in " + directory.toAbsolutePath() + "; point -Dmnist.dir at the MNIST files");
+    }
+}
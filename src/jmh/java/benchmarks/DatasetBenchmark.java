@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of getting the 10,000-image MNIST test set from disk into memory. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatasetBenchmark {
+    private Callable<Object> openImages;
+    private Callable<Object> load;
+    private Callable<Object> loadWithPaddedCache;
+
+    @Setup
+    public void setUp() {
+        openImages = Operations.create("openTestImages");
+        load = Operations.create("loadTestSet", false);
+        loadWithPaddedCache = Operations.create("loadTestSet", true);
+    }
+
+    @Benchmark
+    public Object openImages() throws Exception {
+        return openImages.call();
+    }
+
+    @Benchmark
+    public Object load() throws Exception {
+        return load.call();
+    }
+
+    @Benchmark
+    public Object loadWithPaddedCache() throws Exception {
+        return loadWithPaddedCache.call();
+    }
+}
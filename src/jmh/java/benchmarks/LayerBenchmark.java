@@ -0,0 +1,146 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Each layer's forward and backward step on its own, for both convolution algorithms. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayerBenchmark {
+    @Param({"IM2COL_GEMM", "DIRECT", "FUSED_GEMM", "WINOGRAD"})
+    public String algorithm;
+
+    private Runnable c1Forward;
+    private Runnable s2Forward;
+    private Runnable c3Forward;
+    private Runnable s4Forward;
+    private Runnable c1s2Forward;
+    private Runnable c3s4Forward;
+    private Runnable c5Forward;
+    private Runnable f6Forward;
+    private Runnable outputForward;
+    private Runnable outputBackward;
+    private Runnable f6Backward;
+    private Runnable c5Backward;
+    private Runnable s4Backward;
+    private Runnable c3Backward;
+    private Runnable s2Backward;
+    private Runnable c1Backward;
+
+    @Setup
+    public void setUp() {
+        Map<String, Runnable> steps = Operations.create("layerSteps", algorithm);
+        c1Forward = steps.get("c1Forward");
+        s2Forward = steps.get("s2Forward");
+        c3Forward = steps.get("c3Forward");
+        s4Forward = steps.get("s4Forward");
+        c1s2Forward = steps.get("c1s2Forward");
+        c3s4Forward = steps.get("c3s4Forward");
+        c5Forward = steps.get("c5Forward");
+        f6Forward = steps.get("f6Forward");
+        outputForward = steps.get("outputForward");
+        outputBackward = steps.get("outputBackward");
+        f6Backward = steps.get("f6Backward");
+        c5Backward = steps.get("c5Backward");
+        s4Backward = steps.get("s4Backward");
+        c3Backward = steps.get("c3Backward");
+        s2Backward = steps.get("s2Backward");
+        c1Backward = steps.get("c1Backward");
+    }
+
+    @Benchmark
+    public void c1Forward() {
+        c1Forward.run();
+    }
+
+    @Benchmark
+    public void s2Forward() {
+        s2Forward.run();
+    }
+
+    @Benchmark
+    public void c3Forward() {
+        c3Forward.run();
+    }
+
+    @Benchmark
+    public void s4Forward() {
+        s4Forward.run();
+    }
+
+    @Benchmark
+    public void c1s2Forward() {
+        c1s2Forward.run();
+    }
+
+    @Benchmark
+    public void c3s4Forward() {
+        c3s4Forward.run();
+    }
+
+    @Benchmark
+    public void c5Forward() {
+        c5Forward.run();
+    }
+
+    @Benchmark
+    public void f6Forward() {
+        f6Forward.run();
+    }
+
+    @Benchmark
+    public void outputForward() {
+        outputForward.run();
+    }
+
+    @Benchmark
+    public void outputBackward() {
+        outputBackward.run();
+    }
+
+    @Benchmark
+    public void f6Backward() {
+        f6Backward.run();
+    }
+
+    @Benchmark
+    public void c5Backward() {
+        c5Backward.run();
+    }
+
+    @Benchmark
+    public void s4Backward() {
+        s4Backward.run();
+    }
+
+    @Benchmark
+    public void c3Backward() {
+        c3Backward.run();
+    }
+
+    @Benchmark
+    public void s2Backward() {
+        s2Backward.run();
+    }
+
+    @Benchmark
+    public void c1Backward() {
+        c1Backward.run();
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/** Calls the default-package BenchmarkOperations factories, which this package cannot name directly. */
+final class Operations {
+    private Operations() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T create(String factory, Object... arguments) {
+        try {
+            for (Method method : Class.forName("BenchmarkOperations").getMethods()) {
+                if (method.getName().equals(factory) && method.getParameterCount() == arguments.length) {
+                    return (T) method.invoke(null, arguments);
+                }
+            }
+            throw new IllegalArgumentException("No benchmark operation " + factory);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Benchmark fixture " + factory + " failed", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Benchmark fixture " + factory + " is not available", e);
+        }
+    }
+}
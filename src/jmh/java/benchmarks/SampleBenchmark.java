@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/** One full training step and one classification per call, cycling through real MNIST test samples. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBenchmark {
+    private static final int NUM_SAMPLES = 1000;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public String precision;
+
+    @Param({"IM2COL_GEMM", "DIRECT", "FUSED_GEMM", "WINOGRAD"})
+    public String algorithm;
+
+    private Runnable train;
+    private IntSupplier infer;
+
+    @Setup
+    public void setUp() {
+        train = Operations.create("trainSample", precision, algorithm, NUM_SAMPLES);
+        infer = Operations.create("classify", precision, algorithm, NUM_SAMPLES);
+    }
+
+    @Benchmark
+    public void train() {
+        train.run();
+    }
+
+    @Benchmark
+    public int infer() {
+        return infer.getAsInt();
+    }
+}
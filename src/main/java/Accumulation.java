@@ -0,0 +1,4 @@
+public enum Accumulation {
+    FLOAT,
+    DOUBLE
+}
@@ -0,0 +1,281 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Draws everything the network computes for one image as a single grayscale picture: the
+ * padded input on the first row, then one row per Layer with all of its feature maps side by
+ * side. C5, F6 and the output are vectors, each wrapped into one tile VECTOR_COLUMNS units
+ * wide. Every tile is magnified to about the size of the input drawn at scale pixels per
+ * pixel, and darker means a larger value, as in PixelGrid.
+ *
+ * Pixels are written straight into the image's byte raster, filling one magnified row and
+ * copying it down, so a picture costs less to draw than the forward pass costs to compute.
+ * Nothing here needs a display: exportPng renders and encodes PNGs on several threads with
+ * java.awt.headless set.
+ *
+ * Run with [checkpoint] [outputDirectory] [limit] [threads] [scale] to export the
+ * activations of up to limit misclassified test images.
+ */
+public final class ActivationRenderer {
+    public static final int DEFAULT_SCALE = 2;
+    private static final int VECTOR_COLUMNS = 12;
+    private static final byte BACKGROUND = (byte) 255;
+
+    // One row of tiles: maps tiles of rows x columns values, each value a square of
+    // magnification pixels, mapping low to white and high to black
+    private static final class Row {
+        final Layer layer;
+        final int maps;
+        final int rows;
+        final int columns;
+        final int magnification;
+        final double low;
+        final double high;
+        int y;
+
+        Row(Layer layer, int maps, int rows, int columns, int scale, double low, double high) {
+            this.layer = layer;
+            this.maps = maps;
+            this.rows = rows;
+            this.columns = columns;
+            this.magnification = Math.max(1, scale * LeNet5.INPUT_SIZE / columns);
+            this.low = low;
+            this.high = high;
+        }
+
+        // input for the first row, which has no layer
+        Tensor values(Workspace ws) {
+            if (layer == null) {
+                return ws.input;
+            }
+            switch (layer) {
+                case C1:
+                    return ws.c1Output;
+                case S2:
+                    return ws.s2Output;
+                case C3:
+                    return ws.c3Output;
+                case S4:
+                    return ws.s4Output;
+                case C5:
+                    return ws.c5Output;
+                case F6:
+                    return ws.f6Output;
+                default:
+                    return ws.output;
+            }
+        }
+    }
+
+    private final LeNet5 model;
+    private final Row[] layout;
+    private final int gap;
+    private final int width;
+    private final int height;
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    public ActivationRenderer(LeNet5 model) {
+        this(model, DEFAULT_SCALE);
+    }
+
+    public ActivationRenderer(LeNet5 model, int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale must be at least 1: " + scale);
+        }
+        this.model = model;
+        this.gap = 2 * scale;
+        // Activations are tanh outputs; the input is pixels scaled to [0, 1]
+        layout = new Row[] {
+                new Row(null, 1, LeNet5.INPUT_SIZE, LeNet5.INPUT_SIZE, scale, 0.0, 1.0),
+                new Row(Layer.C1, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, LeNet5.OUTPUT_SIZE_C1, scale, -1.0, 1.0),
+                new Row(Layer.S2, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.OUTPUT_SIZE_S2, scale, -1.0, 1.0),
+                new Row(Layer.C3, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, LeNet5.OUTPUT_SIZE_C3, scale, -1.0, 1.0),
+                new Row(Layer.S4, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_S4, LeNet5.OUTPUT_SIZE_S4, scale, -1.0, 1.0),
+                vectorRow(Layer.C5, LeNet5.NUM_FEATURE_MAPS_C5, scale),
+                vectorRow(Layer.F6, LeNet5.NUM_UNITS_F6, scale),
+                vectorRow(Layer.OUTPUT, LeNet5.NUM_OUTPUT_CLASSES, scale),
+        };
+
+        int maxWidth = 0;
+        int y = gap;
+        for (Row row : layout) {
+            row.y = y;
+            y += row.rows * row.magnification + gap;
+            maxWidth = Math.max(maxWidth, gap + row.maps * (row.columns * row.magnification + gap));
+        }
+        width = maxWidth;
+        height = y;
+    }
+
+    private static Row vectorRow(Layer layer, int units, int scale) {
+        int columns = Math.min(units, VECTOR_COLUMNS);
+        return new Row(layer, 1, (units + columns - 1) / columns, columns, scale, -1.0, 1.0);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public BufferedImage render(int[][] image) {
+        Workspace ws = workspaces.get();
+        model.forwardActivations(image, ws);
+        return render(ws);
+    }
+
+    public BufferedImage render(Dataset data, int index) {
+        Workspace ws = workspaces.get();
+        model.forwardActivations(data, index, ws);
+        return render(ws);
+    }
+
+    // Draws the activations a forward pass left in ws
+    BufferedImage render(Workspace ws) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        render(ws, image);
+        return image;
+    }
+
+    // Overwrites every pixel of image, which must be width x height TYPE_BYTE_GRAY
+    private void render(Workspace ws, BufferedImage image) {
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, BACKGROUND);
+        for (Row row : layout) {
+            Tensor values = row.values(ws);
+            int area = row.rows * row.columns;
+            int units = values.size() / row.maps;
+            int x = gap;
+            for (int map = 0; map < row.maps; map++) {
+                drawTile(pixels, row, values.data, map * units, Math.min(units, area), x);
+                x += row.columns * row.magnification + gap;
+            }
+        }
+    }
+
+    // Draws count values from data[offset] into the tile whose top left corner is (x, row.y)
+    private void drawTile(byte[] pixels, Row row, double[] data, int offset, int count, int x) {
+        int m = row.magnification;
+        double toGray = 255.0 / (row.high - row.low);
+        for (int r = 0; r < row.rows; r++) {
+            int first = (row.y + r * m) * width + x;
+            for (int c = 0; c < row.columns; c++) {
+                int k = r * row.columns + c;
+                byte gray = BACKGROUND;
+                if (k < count) {
+                    long shade = Math.round((data[offset + k] - row.low) * toGray);
+                    gray = (byte) (255 - Math.max(0, Math.min(255, shade)));
+                }
+                Arrays.fill(pixels, first + c * m, first + (c + 1) * m, gray);
+            }
+            for (int i = 1; i < m; i++) {
+                System.arraycopy(pixels, first, pixels, first + i * width, row.columns * m);
+            }
+        }
+    }
+
+    /**
+     * Renders data's images at indices and writes each to directory as
+     * index-label-predicted.png, numThreads at a time. Each thread reuses one workspace and
+     * one image, so memory does not grow with the number of images. Predictions come from the
+     * double-precision forward pass that produced the picture.
+     */
+    public void exportPng(Dataset data, int[] indices, Path directory, int numThreads) throws IOException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        Files.createDirectories(directory);
+        ThreadLocal<BufferedImage> images = ThreadLocal.withInitial(() -> new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY));
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>(indices.length);
+            for (int index : indices) {
+                tasks.add(pool.submit(() -> {
+                    Workspace ws = workspaces.get();
+                    model.forwardActivations(data, index, ws);
+                    BufferedImage image = images.get();
+                    render(ws, image);
+                    String name = String.format(Locale.ROOT, "%05d-%d-%d.png", index, data.label(index), prediction(ws));
+                    if (!ImageIO.write(image, "png", directory.resolve(name).toFile())) {
+                        throw new IOException("No PNG writer available");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Export worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int prediction(Workspace ws) {
+        double[] outputs = ws.output.data;
+        int best = 0;
+        for (int i = 1; i < outputs.length; i++) {
+            if (outputs[i] > outputs[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /** Indices of data's images that model classifies wrongly, in order. */
+    public static int[] misclassified(LeNet5 model, Dataset data) {
+        int[] indices = new int[data.size()];
+        int count = 0;
+        for (int i = 0; i < data.size(); i++) {
+            if (model.classify(data, i) != data.label(i)) {
+                indices[count++] = i;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Path checkpoint = Paths.get(args.length > 0 ? args[0] : "lenet5.ckpt");
+        Path directory = Paths.get(args.length > 1 ? args[1] : "activations");
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int scale = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SCALE;
+
+        LeNet5 leNet5 = LeNet5.load(checkpoint);
+        leNet5.setNumThreads(threads);
+        Dataset test = Dataset.load(Paths.get("t10k-images-idx3-ubyte"), Paths.get("t10k-labels-idx1-ubyte"));
+        int[] wrong = misclassified(leNet5, test);
+        int[] export = Arrays.copyOf(wrong, Math.min(limit, wrong.length));
+        System.out.println(wrong.length + " of " + test.size() + " test images misclassified, exporting " + export.length);
+
+        ActivationRenderer renderer = new ActivationRenderer(leNet5, scale);
+        long start = System.nanoTime();
+        renderer.exportPng(test, export, directory, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT, "Wrote %d %dx%d PNGs to %s in %.2f s (%.1f images/s)",
+                export.length, renderer.width(), renderer.height(), directory, seconds, export.length / seconds));
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+final class AdamOptimizer implements Optimizer {
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+    private Tensor[] firstMoments;
+    private Tensor[] secondMoments;
+    private long steps;
+
+    AdamOptimizer(double beta1, double beta2, double epsilon) {
+        if (!(beta1 >= 0.0 && beta1 < 1.0) || !(beta2 >= 0.0 && beta2 < 1.0)) {
+            throw new IllegalArgumentException("beta1 and beta2 must be in [0, 1): " + beta1 + ", " + beta2);
+        }
+        if (!(epsilon > 0.0)) {
+            throw new IllegalArgumentException("epsilon must be positive: " + epsilon);
+        }
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    public void step(Tensor[] parameters, Tensor[] gradients, double learningRate, int batchSize) {
+        if (firstMoments == null) {
+            firstMoments = Tensor.zerosLike(parameters);
+            secondMoments = Tensor.zerosLike(parameters);
+        }
+        steps++;
+        // Bias correction folded into the step size and epsilon, as in the Adam paper's
+        // efficient form, so the loop below needs no per-element division by it
+        double correction1 = 1.0 - Math.pow(beta1, steps);
+        double correction2 = Math.sqrt(1.0 - Math.pow(beta2, steps));
+        double stepSize = learningRate * correction2 / correction1;
+        double scaledEpsilon = epsilon * correction2;
+        double scale = 1.0 / batchSize;
+        for (int t = 0; t < parameters.length; t++) {
+            double[] p = parameters[t].data;
+            double[] g = gradients[t].data;
+            double[] m = firstMoments[t].data;
+            double[] v = secondMoments[t].data;
+            for (int i = 0; i < p.length; i++) {
+                double gradient = g[i] * scale;
+                double mi = beta1 * m[i] + (1.0 - beta1) * gradient;
+                double vi = beta2 * v[i] + (1.0 - beta2) * gradient * gradient;
+                m[i] = mi;
+                v[i] = vi;
+                p[i] -= stepSize * mi / (Math.sqrt(vi) + scaledEpsilon);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        firstMoments = null;
+        secondMoments = null;
+        steps = 0;
+    }
+
+    // The first moments, the second moments, then the step count as a one-element tensor
+    @Override
+    public Tensor[] state() {
+        if (firstMoments == null) {
+            return new Tensor[0];
+        }
+        int n = firstMoments.length;
+        Tensor[] state = new Tensor[2 * n + 1];
+        System.arraycopy(firstMoments, 0, state, 0, n);
+        System.arraycopy(secondMoments, 0, state, n, n);
+        state[2 * n] = new Tensor(1);
+        state[2 * n].data[0] = steps;
+        return state;
+    }
+
+    @Override
+    public void restoreState(Tensor[] parameters, Tensor[] state) {
+        if (state.length == 0) {
+            reset();
+            return;
+        }
+        int n = parameters.length;
+        if (state.length != 2 * n + 1 || state[2 * n].size() != 1
+                || !Tensor.shapesMatch(parameters, state, 0) || !Tensor.shapesMatch(parameters, state, n)) {
+            throw new IllegalArgumentException("Saved state does not fit " + this);
+        }
+        firstMoments = Arrays.copyOfRange(state, 0, n);
+        secondMoments = Arrays.copyOfRange(state, n, 2 * n);
+        steps = (long) state[2 * n].data[0];
+    }
+
+    @Override
+    public String toString() {
+        return "Adam(" + beta1 + ", " + beta2 + ", " + epsilon + ")";
+    }
+}
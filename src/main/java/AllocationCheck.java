@@ -0,0 +1,121 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that per-sample training and inference allocate nothing once warmed up, for every
+ * convolution algorithm in both precisions. Each case runs WARM_UP_ITERATIONS of trainSample
+ * and classify, then counts this thread's allocated bytes over ITERATIONS more; anything
+ * above one byte per iteration on average means something allocates on every sample, and
+ * the check exits with an exception listing the failing cases.
+ *
+ * The trainNetwork loops, per-sample and mini-batch, are checked in both precisions too.
+ * They run on several threads, so their cases read the bytes all threads allocated during
+ * the epoch from lastEpochMetrics(). Epochs over all NUM_IMAGES, over half of them, and over
+ * all of them in batches twice as large are compared, which separates the fixed cost of each
+ * epoch and of each batch from the cost of each sample. The first two are reported and
+ * divided out; only the bytes per sample must stay under one.
+ */
+public class AllocationCheck {
+    private static final int NUM_IMAGES = 256;
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 2000;
+    private static final int WARM_UP_EPOCHS = 3;
+    private static final int EPOCHS_PER_MEASUREMENT = 3;
+    private static final int BATCH_SIZE = 16;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("This JVM cannot count allocated bytes per thread");
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Dataset data = Dataset.synthetic(NUM_IMAGES, 42).withPaddedCache();
+
+        List<String> failures = new ArrayList<>();
+        for (Precision precision : Precision.values()) {
+            for (ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+                LeNet5 leNet5 = new LeNet5(1.0, 42);
+                leNet5.setNumThreads(1);
+                leNet5.setConvolutionAlgorithm(algorithm);
+                leNet5.setPrecision(precision);
+                String name = precision + " " + algorithm;
+                check(name + " trainSample", threads, failures, i -> leNet5.trainSample(data, i % NUM_IMAGES));
+                check(name + " classify", threads, failures, i -> leNet5.classify(data, i % NUM_IMAGES));
+            }
+        }
+        for (Precision precision : Precision.values()) {
+            LeNet5 leNet5 = new LeNet5(1.0, 42);
+            leNet5.setNumThreads(1);
+            leNet5.setProgressOutput(false);
+            leNet5.setPrecision(precision);
+            checkEpochs(precision + " trainNetwork per sample", leNet5, data, failures, (d, batchSize) -> leNet5.trainNetwork(1, d));
+            checkEpochs(precision + " trainNetwork batch " + BATCH_SIZE, leNet5, data, failures, (d, batchSize) -> leNet5.trainNetwork(1, batchSize, d, 42));
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Steady-state allocation in: " + String.join(", ", failures));
+        }
+        System.out.println("No steady-state allocation");
+    }
+
+    private interface Step {
+        void run(int iteration);
+    }
+
+    private interface Epoch {
+        void train(Dataset data, int batchSize);
+    }
+
+    private static void checkEpochs(String name, LeNet5 leNet5, Dataset data, List<String> failures, Epoch epoch) {
+        for (int i = 0; i < WARM_UP_EPOCHS; i++) {
+            epoch.train(data, BATCH_SIZE);
+        }
+        int halfImages = NUM_IMAGES / 2;
+        long full = epochBytes(leNet5, epoch, data, BATCH_SIZE);
+        long half = epochBytes(leNet5, epoch, data.subset(0, halfImages), BATCH_SIZE);
+        long doubled = epochBytes(leNet5, epoch, data, 2 * BATCH_SIZE);
+        // full and doubled see the same samples, half and doubled the same number of batches
+        int halfBatches = NUM_IMAGES / (2 * BATCH_SIZE);
+        double perBatch = (double) (full - doubled) / (NUM_IMAGES / BATCH_SIZE - halfBatches);
+        double perSample = (double) (doubled - half) / (NUM_IMAGES - halfImages);
+        long perEpoch = Math.round(half - perBatch * halfBatches - perSample * halfImages);
+        System.out.println(String.format("%-36s %10d bytes per epoch, %.1f per batch, %.2f per sample",
+                name, perEpoch, perBatch, perSample));
+        if (perSample > 1.0) {
+            failures.add(name);
+        }
+    }
+
+    // The fewest bytes any of EPOCHS_PER_MEASUREMENT epochs allocated; one-off costs such as a
+    // late compilation only ever add to an epoch, so the minimum is its steady-state cost
+    private static long epochBytes(LeNet5 leNet5, Epoch epoch, Dataset data, int batchSize) {
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < EPOCHS_PER_MEASUREMENT; i++) {
+            epoch.train(data, batchSize);
+            long bytes = leNet5.lastEpochMetrics().allocatedBytes();
+            if (bytes < 0) {
+                throw new IllegalStateException("This JVM cannot count allocated bytes per thread");
+            }
+            fewest = Math.min(fewest, bytes);
+        }
+        return fewest;
+    }
+
+    private static void check(String name, com.sun.management.ThreadMXBean threads, List<String> failures, Step step) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            step.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            step.run(i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        System.out.println(String.format("%-36s %10d bytes over %d iterations", name, allocated, ITERATIONS));
+        if (allocated > ITERATIONS) {
+            failures.add(name);
+        }
+    }
+}
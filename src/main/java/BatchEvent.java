@@ -0,0 +1,17 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lenet5.Batch")
+@Label("Training Batch")
+@Category("LeNet5")
+@Description("Forward, backward and update for one LeNet5 training batch")
+public class BatchEvent extends Event {
+    @Label("Epoch")
+    int epoch;
+
+    @Label("Batch Size")
+    int size;
+}
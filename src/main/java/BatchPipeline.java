@@ -0,0 +1,176 @@
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Background producer of training batches.
+ *
+ * A producer thread walks the dataset epoch by epoch, optionally in a fresh seeded
+ * shuffle each epoch, and copies each batch's padded 32x32 inputs and labels into one of
+ * a fixed set of reusable buffers. Filled buffers reach the training loop through a
+ * bounded queue, and the loop hands each one back with release() once its batch is
+ * trained. With the default two buffers the producer fills the next batch while the
+ * current one trains, and it blocks rather than running ahead of the consumer.
+ */
+public final class BatchPipeline implements AutoCloseable {
+    private static final int DEFAULT_BUFFERS = 2;
+    private static final int INPUT_AREA = LeNet5.INPUT_SIZE * LeNet5.INPUT_SIZE;
+
+    private final Dataset data;
+    private final int batchSize;
+    private final int epochs;
+    private final Random shuffle;
+    private final int firstEpoch;
+    private final int firstSample;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> filled;
+    private final Batch end = new Batch(0);
+    private final Thread producer;
+    private volatile Throwable failure;
+
+    public static final class Batch {
+        private final float[] inputs;
+        private final int[] labels;
+        private int size;
+        private int epoch;
+        private boolean endOfEpoch;
+
+        private Batch(int capacity) {
+            inputs = new float[capacity * INPUT_AREA];
+            labels = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Epoch this batch belongs to, starting at 1. */
+        public int epoch() {
+            return epoch;
+        }
+
+        public boolean endOfEpoch() {
+            return endOfEpoch;
+        }
+
+        public int label(int i) {
+            return labels[i];
+        }
+
+        /** Writes sample i's padded input into a row-major 32x32 array. */
+        public void copyInput(int i, double[] destination) {
+            int base = i * INPUT_AREA;
+            for (int k = 0; k < INPUT_AREA; k++) {
+                destination[k] = inputs[base + k];
+            }
+        }
+
+        public void copyInput(int i, float[] destination) {
+            System.arraycopy(inputs, i * INPUT_AREA, destination, 0, INPUT_AREA);
+        }
+    }
+
+    private BatchPipeline(Dataset data, int batchSize, int epochs, Random shuffle, int firstEpoch, int firstSample, int numBuffers) {
+        this.data = data;
+        this.batchSize = batchSize;
+        this.epochs = epochs;
+        this.shuffle = shuffle;
+        this.firstEpoch = firstEpoch;
+        this.firstSample = firstSample;
+        this.free = new ArrayBlockingQueue<>(numBuffers);
+        this.filled = new ArrayBlockingQueue<>(numBuffers + 1);
+        for (int b = 0; b < numBuffers; b++) {
+            free.add(new Batch(batchSize));
+        }
+        this.producer = new Thread(this::produce, "batch-producer");
+        this.producer.setDaemon(true);
+    }
+
+    /** Batches in dataset order every epoch. */
+    public static BatchPipeline start(Dataset data, int batchSize, int epochs) {
+        return start(data, batchSize, epochs, null);
+    }
+
+    /** Batches in a new order every epoch, drawn from shuffle; null keeps dataset order. */
+    public static BatchPipeline start(Dataset data, int batchSize, int epochs, Random shuffle) {
+        return start(data, batchSize, epochs, shuffle, 1, 0);
+    }
+
+    /**
+     * Picks a run up part way through: the first batch starts at sample firstSample of epoch
+     * firstEpoch. The shuffles of the skipped epochs are still drawn, so a seeded run sees
+     * the same order it would have seen without the interruption.
+     */
+    public static BatchPipeline start(Dataset data, int batchSize, int epochs, Random shuffle, int firstEpoch, int firstSample) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        if (firstEpoch < 1 || firstSample < 0 || firstSample > data.size()) {
+            throw new IllegalArgumentException("Cannot start at sample " + firstSample + " of epoch " + firstEpoch);
+        }
+        BatchPipeline pipeline = new BatchPipeline(data, batchSize, epochs, shuffle, firstEpoch, firstSample, DEFAULT_BUFFERS);
+        pipeline.producer.start();
+        return pipeline;
+    }
+
+    /**
+     * Blocks until the next batch is ready and returns it, or returns null once every epoch
+     * has been delivered. The batch must be given back with release() before the producer
+     * can reuse its buffer.
+     */
+    public Batch take() {
+        Batch batch;
+        try {
+            batch = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        }
+        if (batch == end) {
+            // Leave the marker in place so later calls also see the end
+            filled.add(end);
+            if (failure != null) {
+                throw new IllegalStateException("Batch producer failed", failure);
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    public void release(Batch batch) {
+        free.add(batch);
+    }
+
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+
+    private void produce() {
+        try {
+            for (int epoch = 1; epoch <= epochs; epoch++) {
+                Dataset order = shuffle != null ? data.shuffled(shuffle) : data;
+                if (epoch < firstEpoch) {
+                    continue;
+                }
+                for (int start = epoch == firstEpoch ? firstSample : 0; start < order.size(); start += batchSize) {
+                    int end = Math.min(start + batchSize, order.size());
+                    Batch batch = free.take();
+                    for (int i = start; i < end; i++) {
+                        order.copyPadded(i, batch.inputs, (i - start) * INPUT_AREA);
+                        batch.labels[i - start] = order.label(i);
+                    }
+                    batch.size = end - start;
+                    batch.epoch = epoch;
+                    batch.endOfEpoch = end == order.size();
+                    filled.put(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        filled.add(end);
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Binary checkpoint of a LeNet5: every parameter tensor, the learning rate, the position of
+ * the training run that wrote it and what that run needs to continue exactly: the
+ * optimizer's state and early stopping's best parameters so far.
+ *
+ * Layout, little-endian:
+ * <pre>
+ *   "LN5C"  int version  double learningRate
+ *   int epochsCompleted  int samplesIntoEpoch  int shuffled  long shuffleSeed
+ *   int length, UTF-8 optimizer name (its toString)
+ *   double bestAccuracy  int bestEpoch  int epochsWithoutImprovement
+ *   three tensor lists: the parameters, the optimizer state and the best parameters
+ *     (empty without early stopping), each int numTensors, then per tensor: int rank,
+ *     rank x int dimension
+ *   zero padding to a multiple of 8
+ *   the tensors' doubles, back to back in the same order
+ *   long CRC32 of everything before it
+ * </pre>
+ * The doubles are 8-byte aligned in the file, so read() maps it and bulk-copies each
+ * tensor straight out of the page cache.
+ */
+public final class Checkpoint {
+    private static final byte[] MAGIC = {'L', 'N', '5', 'C'};
+    // Version 2 stores C3's weights packed, connected map pairs only; version 3 adds the
+    // optimizer state and early stopping's best parameters
+    private static final int VERSION = 3;
+
+    final double learningRate;
+    final int epochsCompleted;
+    final int samplesIntoEpoch;
+    final boolean shuffled;
+    final long shuffleSeed;
+    final String optimizer;
+    final Tensor[] optimizerState;
+    // Null when the run had no early stopping or had not validated an epoch yet
+    final Tensor[] bestParameters;
+    final double bestAccuracy;
+    final int bestEpoch;
+    final int epochsWithoutImprovement;
+
+    Checkpoint(double learningRate, int epochsCompleted, int samplesIntoEpoch, boolean shuffled, long shuffleSeed,
+               String optimizer, Tensor[] optimizerState,
+               Tensor[] bestParameters, double bestAccuracy, int bestEpoch, int epochsWithoutImprovement) {
+        this.learningRate = learningRate;
+        this.epochsCompleted = epochsCompleted;
+        this.samplesIntoEpoch = samplesIntoEpoch;
+        this.shuffled = shuffled;
+        this.shuffleSeed = shuffleSeed;
+        this.optimizer = optimizer;
+        this.optimizerState = optimizerState;
+        this.bestParameters = bestParameters;
+        this.bestAccuracy = bestAccuracy;
+        this.bestEpoch = bestEpoch;
+        this.epochsWithoutImprovement = epochsWithoutImprovement;
+    }
+
+    /** Writes to a temporary file next to path and renames it over path, so a crash never leaves a torn checkpoint. */
+    static void write(Path path, Tensor[] parameters, Checkpoint state) throws IOException {
+        Tensor[] best = state.bestParameters != null ? state.bestParameters : new Tensor[0];
+        Tensor[][] lists = {parameters, state.optimizerState, best};
+        byte[] optimizer = state.optimizer.getBytes(StandardCharsets.UTF_8);
+        int headerSize = MAGIC.length + 4 + 8 + 4 + 4 + 4 + 8 + 4 + optimizer.length + 8 + 4 + 4;
+        long dataSize = 0;
+        for (Tensor[] list : lists) {
+            headerSize += 4;
+            for (Tensor t : list) {
+                headerSize += 4 + 4 * t.rank();
+                dataSize += 8L * t.size();
+            }
+        }
+        headerSize = (headerSize + 7) & ~7;
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) (headerSize + dataSize + 8)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(state.learningRate);
+        buffer.putInt(state.epochsCompleted);
+        buffer.putInt(state.samplesIntoEpoch);
+        buffer.putInt(state.shuffled ? 1 : 0);
+        buffer.putLong(state.shuffleSeed);
+        buffer.putInt(optimizer.length);
+        buffer.put(optimizer);
+        buffer.putDouble(state.bestAccuracy);
+        buffer.putInt(state.bestEpoch);
+        buffer.putInt(state.epochsWithoutImprovement);
+        for (Tensor[] list : lists) {
+            buffer.putInt(list.length);
+            for (Tensor t : list) {
+                buffer.putInt(t.rank());
+                for (int d = 0; d < t.rank(); d++) {
+                    buffer.putInt(t.dim(d));
+                }
+            }
+        }
+        buffer.position(headerSize);
+        for (Tensor[] list : lists) {
+            for (Tensor t : list) {
+                buffer.asDoubleBuffer().put(t.data);
+                buffer.position(buffer.position() + 8 * t.size());
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Fills parameters in place from the checkpoint at path, after checking shapes and
+     * checksum. The optimizer state and best parameters come back in the Checkpoint.
+     */
+    static Checkpoint read(Path path, Tensor[] parameters) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + ": checkpoint is too large");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (buffer.capacity() < 8 || !matchesMagic(buffer)) {
+            throw new IOException(path + ": not a LeNet5 checkpoint");
+        }
+        buffer.position(MAGIC.length);
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(path + ": unsupported checkpoint version " + version);
+        }
+
+        int[][][] shapes;
+        String optimizer;
+        double learningRate;
+        int epochsCompleted;
+        int samplesIntoEpoch;
+        boolean shuffled;
+        long shuffleSeed;
+        double bestAccuracy;
+        int bestEpoch;
+        int epochsWithoutImprovement;
+        try {
+            learningRate = buffer.getDouble();
+            epochsCompleted = buffer.getInt();
+            samplesIntoEpoch = buffer.getInt();
+            shuffled = buffer.getInt() != 0;
+            shuffleSeed = buffer.getLong();
+            int optimizerLength = buffer.getInt();
+            if (optimizerLength < 0 || optimizerLength > buffer.remaining()) {
+                throw new IOException(path + ": truncated header");
+            }
+            byte[] optimizerName = new byte[optimizerLength];
+            buffer.get(optimizerName);
+            optimizer = new String(optimizerName, StandardCharsets.UTF_8);
+            bestAccuracy = buffer.getDouble();
+            bestEpoch = buffer.getInt();
+            epochsWithoutImprovement = buffer.getInt();
+            shapes = new int[3][][];
+            for (int list = 0; list < shapes.length; list++) {
+                shapes[list] = readShapes(buffer, path);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(path + ": truncated header", e);
+        }
+
+        checkShapes(path, "parameter", parameters, shapes[0]);
+        if (shapes[2].length != 0) {
+            checkShapes(path, "best parameter", parameters, shapes[2]);
+        }
+        int headerSize = (buffer.position() + 7) & ~7;
+        long dataSize = 0;
+        for (int[][] list : shapes) {
+            for (int[] shape : list) {
+                dataSize += 8L * size(shape);
+            }
+        }
+        if (buffer.capacity() != headerSize + dataSize + 8) {
+            throw new IOException(path + ": expected " + (headerSize + dataSize + 8) + " bytes but the file has " + buffer.capacity());
+        }
+
+        int checksumOffset = (int) (headerSize + dataSize);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(checksumOffset));
+        if (crc.getValue() != buffer.getLong(checksumOffset)) {
+            throw new IOException(path + ": checksum mismatch, the checkpoint is corrupt");
+        }
+
+        Tensor[] optimizerState = allocate(shapes[1]);
+        Tensor[] best = shapes[2].length != 0 ? allocate(shapes[2]) : null;
+        buffer.position(headerSize);
+        for (Tensor[] list : new Tensor[][] {parameters, optimizerState, best != null ? best : new Tensor[0]}) {
+            for (Tensor t : list) {
+                buffer.asDoubleBuffer().get(t.data);
+                buffer.position(buffer.position() + 8 * t.size());
+            }
+        }
+        return new Checkpoint(learningRate, epochsCompleted, samplesIntoEpoch, shuffled, shuffleSeed,
+                optimizer, optimizerState, best, bestAccuracy, bestEpoch, epochsWithoutImprovement);
+    }
+
+    private static int[][] readShapes(ByteBuffer buffer, Path path) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IOException(path + ": bad tensor count " + count);
+        }
+        int[][] shapes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int rank = buffer.getInt();
+            if (rank < 1 || rank > buffer.remaining() / 4) {
+                throw new IOException(path + ": bad tensor rank " + rank);
+            }
+            shapes[i] = new int[rank];
+            for (int d = 0; d < rank; d++) {
+                shapes[i][d] = buffer.getInt();
+                if (shapes[i][d] < 1) {
+                    throw new IOException(path + ": bad tensor dimension " + shapes[i][d]);
+                }
+            }
+            if (size(shapes[i]) > Integer.MAX_VALUE / 8) {
+                throw new IOException(path + ": tensor " + i + " is too large");
+            }
+        }
+        return shapes;
+    }
+
+    private static void checkShapes(Path path, String kind, Tensor[] parameters, int[][] shapes) throws IOException {
+        if (shapes.length != parameters.length) {
+            throw new IOException(path + ": expected " + parameters.length + " " + kind + " tensors but found " + shapes.length);
+        }
+        for (int i = 0; i < shapes.length; i++) {
+            if (!Arrays.equals(shapes[i], parameters[i].shape)) {
+                throw new IOException(path + ": " + kind + " tensor " + i + " does not match the network's shape");
+            }
+        }
+    }
+
+    // Saturates rather than overflowing, for the size checks on untrusted shapes
+    private static long size(int[] shape) {
+        long size = 1;
+        for (int dimension : shape) {
+            size = Math.min(size * dimension, Long.MAX_VALUE / Integer.MAX_VALUE);
+        }
+        return size;
+    }
+
+    private static Tensor[] allocate(int[][] shapes) {
+        Tensor[] tensors = new Tensor[shapes.length];
+        for (int i = 0; i < shapes.length; i++) {
+            tensors[i] = new Tensor(shapes[i]);
+        }
+        return tensors;
+    }
+
+    private static boolean matchesMagic(ByteBuffer buffer) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
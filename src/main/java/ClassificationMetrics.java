@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Running loss, accuracy and confusion matrix over the samples of a training epoch, built
+ * from the outputs the training pass computes anyway. The weights change while an epoch
+ * runs, so these describe the network as it was at each sample rather than at the end.
+ */
+public final class ClassificationMetrics {
+    private static final int CLASSES = LeNet5.NUM_OUTPUT_CLASSES;
+
+    // counts[actual * CLASSES + predicted]
+    private final long[] counts = new long[CLASSES * CLASSES];
+    private double lossSum;
+    private long samples;
+
+    void record(int actual, int predicted, double loss) {
+        counts[actual * CLASSES + predicted]++;
+        lossSum += loss;
+        samples++;
+    }
+
+    void add(ClassificationMetrics other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        lossSum += other.lossSum;
+        samples += other.samples;
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        lossSum = 0.0;
+        samples = 0;
+    }
+
+    public long samples() {
+        return samples;
+    }
+
+    /** Mean over samples of the squared error between the outputs and their +1/-1 targets. */
+    public double meanLoss() {
+        return samples == 0 ? 0.0 : lossSum / samples;
+    }
+
+    public double accuracy() {
+        long correct = 0;
+        for (int c = 0; c < CLASSES; c++) {
+            correct += counts[c * CLASSES + c];
+        }
+        return samples == 0 ? 0.0 : (double) correct / samples;
+    }
+
+    /** Samples of class actual that the network classified as predicted. */
+    public long count(int actual, int predicted) {
+        return counts[actual * CLASSES + predicted];
+    }
+
+    /** Fraction of class c's samples classified as c. */
+    public double recall(int c) {
+        long total = 0;
+        for (int p = 0; p < CLASSES; p++) {
+            total += counts[c * CLASSES + p];
+        }
+        return total == 0 ? 0.0 : (double) counts[c * CLASSES + c] / total;
+    }
+
+    /** Fraction of the samples classified as c that were c. */
+    public double precision(int c) {
+        long total = 0;
+        for (int a = 0; a < CLASSES; a++) {
+            total += counts[a * CLASSES + c];
+        }
+        return total == 0 ? 0.0 : (double) counts[c * CLASSES + c] / total;
+    }
+
+    /** The confusion matrix as text, actual classes down and predicted across. */
+    public String confusionMatrix() {
+        StringBuilder text = new StringBuilder("actual\\predicted");
+        for (int p = 0; p < CLASSES; p++) {
+            text.append(String.format("%7d", p));
+        }
+        text.append('\n');
+        for (int a = 0; a < CLASSES; a++) {
+            text.append(String.format("%16d", a));
+            for (int p = 0; p < CLASSES; p++) {
+                text.append(String.format("%7d", counts[a * CLASSES + p]));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("loss %.4f, accuracy %.2f%% over %d samples", meanLoss(), 100.0 * accuracy(), samples);
+    }
+}
@@ -0,0 +1,11 @@
+public enum ConvolutionAlgorithm {
+    DIRECT,
+    IM2COL_GEMM,
+    // im2col + GEMM fused with tanh and 2x2 average pooling for C1->S2 and C3->S4: a band of
+    // conv rows at a time is computed into a small buffer and pooled straight into S2/S4, so
+    // the full C1 and C3 maps are never written
+    FUSED_GEMM,
+    // Winograd F(2x2, 5x5) for C1 and C3, with the filter transforms cached between weight
+    // updates. C5 has one output per filter, so it runs as IM2COL_GEMM.
+    WINOGRAD
+}
@@ -0,0 +1,93 @@
+public class ConvolutionBenchmark {
+    private static final int NUM_IMAGES = 2000;
+    private static final int ROUNDS = 5;
+    private static final int GRADIENT_CHECK_SAMPLES = 100;
+
+    public static void main(String[] args) {
+        Dataset data = Dataset.synthetic(NUM_IMAGES, 42).withPaddedCache();
+        LeNet5 leNet5 = new LeNet5();
+        leNet5.setNumThreads(1);
+
+        System.out.println("Kernels: " + Kernels.INSTANCE.name());
+        for (ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+            if (algorithm == ConvolutionAlgorithm.DIRECT) {
+                continue;
+            }
+            double maxDifference = 0.0;
+            for (int n = 0; n < data.size(); n++) {
+                int[][] image = data.image(n);
+                leNet5.setConvolutionAlgorithm(ConvolutionAlgorithm.DIRECT);
+                double[] expected = leNet5.predict(image);
+                leNet5.setConvolutionAlgorithm(algorithm);
+                double[] actual = leNet5.predict(image);
+                for (int i = 0; i < expected.length; i++) {
+                    maxDifference = Math.max(maxDifference, Math.abs(expected[i] - actual[i]));
+                }
+            }
+            System.out.println("Max output difference, " + algorithm + " vs DIRECT: " + maxDifference);
+            System.out.println("Max parameter difference after " + GRADIENT_CHECK_SAMPLES + " training steps, " + algorithm + " vs DIRECT: "
+                    + trainingDifference(leNet5, data.subset(0, GRADIENT_CHECK_SAMPLES), algorithm));
+        }
+
+        for (ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+            leNet5.setConvolutionAlgorithm(algorithm);
+            measure(algorithm.toString(), leNet5, data);
+        }
+
+        leNet5.setPrecision(Precision.FLOAT, Accumulation.DOUBLE);
+        measure("FLOAT (double accumulation)", leNet5, data);
+        leNet5.setPrecision(Precision.FLOAT, Accumulation.FLOAT);
+        measure("FLOAT (float accumulation)", leNet5, data);
+    }
+
+    // Trains the same samples from the same starting weights with DIRECT and with algorithm,
+    // then restores the weights and returns the largest parameter difference between the runs
+    private static double trainingDifference(LeNet5 leNet5, Dataset samples, ConvolutionAlgorithm algorithm) {
+        Tensor[] parameters = leNet5.parameters();
+        double[][] initial = new double[parameters.length][];
+        for (int i = 0; i < parameters.length; i++) {
+            initial[i] = parameters[i].data.clone();
+        }
+
+        double[][] expected = new double[parameters.length][];
+        leNet5.setConvolutionAlgorithm(ConvolutionAlgorithm.DIRECT);
+        leNet5.trainNetwork(1, 1, samples);
+        for (int i = 0; i < parameters.length; i++) {
+            expected[i] = parameters[i].data.clone();
+            System.arraycopy(initial[i], 0, parameters[i].data, 0, initial[i].length);
+        }
+
+        leNet5.setConvolutionAlgorithm(algorithm);
+        leNet5.trainNetwork(1, 1, samples);
+        double maxDifference = 0.0;
+        for (int i = 0; i < parameters.length; i++) {
+            double[] actual = parameters[i].data;
+            for (int k = 0; k < actual.length; k++) {
+                maxDifference = Math.max(maxDifference, Math.abs(expected[i][k] - actual[k]));
+            }
+            System.arraycopy(initial[i], 0, actual, 0, actual.length);
+        }
+        return maxDifference;
+    }
+
+    private static void measure(String name, LeNet5 leNet5, Dataset data) {
+        double inferenceRate = 0.0;
+        double trainingRate = 0.0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int checksum = 0;
+            for (int i = 0; i < data.size(); i++) {
+                checksum += leNet5.classify(data, i);
+            }
+            inferenceRate = Math.max(inferenceRate, NUM_IMAGES / ((System.nanoTime() - start) / 1e9));
+
+            start = System.nanoTime();
+            leNet5.trainNetwork(1, 1, data);
+            trainingRate = Math.max(trainingRate, NUM_IMAGES / ((System.nanoTime() - start) / 1e9));
+            if (checksum < 0) {
+                System.out.println(checksum);
+            }
+        }
+        System.out.println(name + ": inference " + Math.round(inferenceRate) + " images/s, training " + Math.round(trainingRate) + " images/s");
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Images and labels in flat primitive arrays: one contiguous block of unsigned pixel bytes
+ * and one byte per label.
+ *
+ * shuffled, subset and shard return views that share the underlying arrays and only carry
+ * an index table, so reshuffling an epoch or splitting a batch across workers copies
+ * nothing. withPaddedCache() additionally keeps every image pre-padded to the network's
+ * 32x32 input as floats, shared by all views. Network inputs are the pixels times
+ * LeNet5.PIXEL_SCALE; image() and pixel() still return the raw 0..255 values.
+ */
+public final class Dataset {
+    private static final int PADDED_SIZE = LeNet5.INPUT_SIZE;
+
+    private final Storage storage;
+    // Positions in storage for each item of this view; null for the identity over [0, size)
+    private final int[] indices;
+    private final int size;
+
+    private static final class Storage {
+        final int rows;
+        final int columns;
+        final byte[] pixels;
+        final byte[] labels;
+        volatile float[] padded;
+
+        Storage(int rows, int columns, byte[] pixels, byte[] labels) {
+            this.rows = rows;
+            this.columns = columns;
+            this.pixels = pixels;
+            this.labels = labels;
+        }
+    }
+
+    private Dataset(Storage storage, int[] indices, int size) {
+        this.storage = storage;
+        this.indices = indices;
+        this.size = size;
+    }
+
+    public static Dataset load(Path imagesPath, Path labelsPath) throws IOException {
+        IdxFile images = IdxFile.openImages(imagesPath);
+        IdxFile labels = IdxFile.openLabels(labelsPath);
+        if (images.count() != labels.count()) {
+            throw new IOException(imagesPath + " has " + images.count() + " images but " + labelsPath + " has " + labels.count() + " labels");
+        }
+
+        byte[] pixels = new byte[images.count() * images.itemSize()];
+        images.data().get(pixels);
+        byte[] labelBytes = new byte[labels.count()];
+        labels.data().get(labelBytes);
+        return new Dataset(new Storage(images.dimension(1), images.dimension(2), pixels, labelBytes), null, labelBytes.length);
+    }
+
+    public static Dataset of(List<int[][]> images, List<Integer> labels) {
+        if (images.size() != labels.size()) {
+            throw new IllegalArgumentException(images.size() + " images but " + labels.size() + " labels");
+        }
+        if (images.isEmpty()) {
+            return new Dataset(new Storage(LeNet5.IMAGE_SIZE, LeNet5.IMAGE_SIZE, new byte[0], new byte[0]), null, 0);
+        }
+
+        int rows = images.get(0).length;
+        int columns = images.get(0)[0].length;
+        byte[] pixels = new byte[images.size() * rows * columns];
+        byte[] labelBytes = new byte[labels.size()];
+        int position = 0;
+        for (int n = 0; n < images.size(); n++) {
+            int[][] image = images.get(n);
+            if (image.length != rows || image[0].length != columns) {
+                throw new IllegalArgumentException("Image " + n + " is " + image.length + "x" + image[0].length + ", expected " + rows + "x" + columns);
+            }
+            for (int[] row : image) {
+                for (int value : row) {
+                    if (value < 0 || value > 255) {
+                        throw new IllegalArgumentException("Image " + n + " has pixel value " + value + " outside 0..255");
+                    }
+                    pixels[position++] = (byte) value;
+                }
+            }
+            int label = labels.get(n);
+            if (label < 0 || label > 255) {
+                throw new IllegalArgumentException("Label " + n + " is " + label + ", outside 0..255");
+            }
+            labelBytes[n] = (byte) label;
+        }
+        return new Dataset(new Storage(rows, columns, pixels, labelBytes), null, labelBytes.length);
+    }
+
+    // count random 28x28 images, a quarter of their pixels lit at random intensities, with
+    // random labels: enough for the checks and benchmarks that need no real digits
+    static Dataset synthetic(int count, long seed) {
+        Random random = new Random(seed);
+        int area = LeNet5.IMAGE_SIZE * LeNet5.IMAGE_SIZE;
+        byte[] pixels = new byte[count * area];
+        byte[] labels = new byte[count];
+        for (int n = 0; n < count; n++) {
+            for (int i = n * area; i < (n + 1) * area; i++) {
+                pixels[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 0);
+            }
+            labels[n] = (byte) random.nextInt(LeNet5.NUM_OUTPUT_CLASSES);
+        }
+        return new Dataset(new Storage(LeNet5.IMAGE_SIZE, LeNet5.IMAGE_SIZE, pixels, labels), null, count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int rows() {
+        return storage.rows;
+    }
+
+    public int columns() {
+        return storage.columns;
+    }
+
+    public int label(int i) {
+        return storage.labels[position(i)] & 0xFF;
+    }
+
+    public int pixel(int i, int row, int column) {
+        return storage.pixels[position(i) * storage.rows * storage.columns + row * storage.columns + column] & 0xFF;
+    }
+
+    public int[][] image(int i) {
+        int base = position(i) * storage.rows * storage.columns;
+        int[][] image = new int[storage.rows][storage.columns];
+        for (int row = 0; row < storage.rows; row++) {
+            for (int column = 0; column < storage.columns; column++) {
+                image[row][column] = storage.pixels[base++] & 0xFF;
+            }
+        }
+        return image;
+    }
+
+    /** A view of this dataset in a random order drawn from random. */
+    public Dataset shuffled(Random random) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = position(i);
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return new Dataset(storage, order, size);
+    }
+
+    /** A view of items [from, to) of this dataset. */
+    public Dataset subset(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Subset [" + from + ", " + to + ") out of range for " + size + " items");
+        }
+        int[] selected = new int[to - from];
+        for (int i = from; i < to; i++) {
+            selected[i - from] = position(i);
+        }
+        return new Dataset(storage, selected, selected.length);
+    }
+
+    /** Contiguous shard number shard of numShards, with sizes differing by at most one. */
+    public Dataset shard(int shard, int numShards) {
+        if (numShards < 1 || shard < 0 || shard >= numShards) {
+            throw new IllegalArgumentException("Shard " + shard + " of " + numShards);
+        }
+        return subset((int) ((long) size * shard / numShards), (int) ((long) size * (shard + 1) / numShards));
+    }
+
+    /** A view selecting items of this dataset by index. */
+    public Dataset select(int[] selection) {
+        int[] selected = new int[selection.length];
+        for (int i = 0; i < selection.length; i++) {
+            selected[i] = position(selection[i]);
+        }
+        return new Dataset(storage, selected, selected.length);
+    }
+
+    /**
+     * Builds, once per underlying dataset, the 32x32 zero-padded float copy of every image
+     * that copyPadded then reads from. Costs 4 KB per image.
+     */
+    public Dataset withPaddedCache() {
+        Storage s = storage;
+        if (s.padded == null) {
+            synchronized (s) {
+                if (s.padded == null) {
+                    checkInputSize();
+                    int count = s.labels.length;
+                    int imageArea = s.rows * s.columns;
+                    int paddedArea = PADDED_SIZE * PADDED_SIZE;
+                    float[] padded = new float[count * paddedArea];
+                    for (int n = 0; n < count; n++) {
+                        for (int row = 0; row < s.rows; row++) {
+                            int src = n * imageArea + row * s.columns;
+                            int dst = n * paddedArea + (row + LeNet5.PADDING) * PADDED_SIZE + LeNet5.PADDING;
+                            for (int column = 0; column < s.columns; column++) {
+                                padded[dst + column] = (s.pixels[src + column] & 0xFF) * LeNet5.PIXEL_SCALE;
+                            }
+                        }
+                    }
+                    s.padded = padded;
+                }
+            }
+        }
+        return this;
+    }
+
+    public boolean hasPaddedCache() {
+        return storage.padded != null;
+    }
+
+    /**
+     * Writes item i into a row-major 32x32 network input. Without the padded cache only the
+     * 28x28 interior is written, so the destination's border must already be zero.
+     */
+    public void copyPadded(int i, double[] destination) {
+        checkInputSize();
+        int position = position(i);
+        float[] padded = storage.padded;
+        if (padded != null) {
+            int base = position * PADDED_SIZE * PADDED_SIZE;
+            for (int k = 0; k < PADDED_SIZE * PADDED_SIZE; k++) {
+                destination[k] = padded[base + k];
+            }
+            return;
+        }
+
+        padImage(storage.pixels, position * LeNet5.IMAGE_SIZE * LeNet5.IMAGE_SIZE, destination);
+    }
+
+    /** Float counterpart of copyPadded(int, double[]). */
+    public void copyPadded(int i, float[] destination) {
+        copyPadded(i, destination, 0);
+    }
+
+    /** Same as copyPadded(int, float[]) with the 32x32 input starting at destinationOffset. */
+    public void copyPadded(int i, float[] destination, int destinationOffset) {
+        checkInputSize();
+        int position = position(i);
+        float[] padded = storage.padded;
+        if (padded != null) {
+            System.arraycopy(padded, position * PADDED_SIZE * PADDED_SIZE, destination, destinationOffset, PADDED_SIZE * PADDED_SIZE);
+            return;
+        }
+
+        padImage(storage.pixels, position * LeNet5.IMAGE_SIZE * LeNet5.IMAGE_SIZE, destination, destinationOffset);
+    }
+
+    /**
+     * Writes the 28x28 image of unsigned bytes at pixels[offset] into the interior of a
+     * row-major 32x32 network input. The destination's border must already be zero.
+     */
+    static void padImage(byte[] pixels, int offset, double[] destination) {
+        for (int row = 0; row < LeNet5.IMAGE_SIZE; row++) {
+            int src = offset + row * LeNet5.IMAGE_SIZE;
+            int dst = (row + LeNet5.PADDING) * PADDED_SIZE + LeNet5.PADDING;
+            for (int column = 0; column < LeNet5.IMAGE_SIZE; column++) {
+                destination[dst + column] = (pixels[src + column] & 0xFF) * LeNet5.PIXEL_SCALE;
+            }
+        }
+    }
+
+    static void padImage(byte[] pixels, int offset, float[] destination, int destinationOffset) {
+        for (int row = 0; row < LeNet5.IMAGE_SIZE; row++) {
+            int src = offset + row * LeNet5.IMAGE_SIZE;
+            int dst = destinationOffset + (row + LeNet5.PADDING) * PADDED_SIZE + LeNet5.PADDING;
+            for (int column = 0; column < LeNet5.IMAGE_SIZE; column++) {
+                destination[dst + column] = (pixels[src + column] & 0xFF) * LeNet5.PIXEL_SCALE;
+            }
+        }
+    }
+
+    private void checkInputSize() {
+        if (storage.rows != LeNet5.IMAGE_SIZE || storage.columns != LeNet5.IMAGE_SIZE) {
+            throw new IllegalArgumentException("Expected " + LeNet5.IMAGE_SIZE + "x" + LeNet5.IMAGE_SIZE + " images but got " + storage.rows + "x" + storage.columns);
+        }
+    }
+
+    private int position(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Item " + i + " out of range for " + size + " items");
+        }
+        return indices == null ? i : indices[i];
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scaling report for trainDistributed: runs the same training job on 1, 2, 4, ... worker
+ * JVMs on this machine, joined by a RingAllReduce over localhost, and prints throughput,
+ * speedup and scaling efficiency (speedup / workers) against the single worker.
+ *
+ * Arguments: [maxWorkers] [samples] [epochs] [batchSize] [NONE|FLOAT]. batchSize is per
+ * worker, so the global batch grows with the worker count. Each worker gets an equal share
+ * of this machine's cores and times only its training, not JVM start-up or data loading.
+ * Run with "worker rank size basePort threads samples epochs batchSize compression" to
+ * start one worker by hand, on this or another host.
+ */
+public class DistributedTraining {
+    private static final int DEFAULT_MAX_WORKERS = 4;
+    private static final int DEFAULT_SAMPLES = 12000;
+    private static final int DEFAULT_EPOCHS = 1;
+    private static final int DEFAULT_BATCH_SIZE = 16;
+    private static final int BASE_PORT = 29500;
+    private static final String RESULT = "RESULT";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("worker")) {
+            worker(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]), GradientCompression.valueOf(args[8]));
+            return;
+        }
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_WORKERS;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SAMPLES;
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_EPOCHS;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE;
+        GradientCompression compression = args.length > 4 ? GradientCompression.valueOf(args[4]) : GradientCompression.NONE;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Training " + epochs + " epoch(s) of " + samples + " images, batch " + batchSize
+                + " per worker, " + compression + " compression, " + cores + " cores");
+        System.out.println("workers   seconds   images/s   speedup   efficiency   MB sent/worker   test accuracy");
+        double baseRate = 0.0;
+        int port = BASE_PORT;
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+            int threads = Math.max(1, cores / workers);
+            String[] result = run(workers, port, threads, samples, epochs, batchSize, compression);
+            // Fresh ports every round, so sockets lingering from the last one cannot collide
+            port += workers;
+            double seconds = Double.parseDouble(result[1]);
+            double rate = (double) (samples / workers * workers) * epochs / seconds;
+            if (workers == 1) {
+                baseRate = rate;
+            }
+            double speedup = rate / baseRate;
+            System.out.println(String.format(Locale.ROOT, "%7d %9.2f %10.1f %9.2f %11.1f%% %16.2f %14.2f%%",
+                    workers, seconds, rate, speedup, 100.0 * speedup / workers,
+                    Long.parseLong(result[2]) / 1e6, 100.0 * Double.parseDouble(result[3])));
+        }
+    }
+
+    // Starts workers JVMs and returns rank 0's result line, split on spaces
+    private static String[] run(int workers, int basePort, int threads, int samples, int epochs, int batchSize,
+                                GradientCompression compression) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>(workers);
+        try {
+            for (int rank = 0; rank < workers; rank++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        DistributedTraining.class.getName(), "worker", Integer.toString(rank), Integer.toString(workers),
+                        Integer.toString(basePort), Integer.toString(threads), Integer.toString(samples),
+                        Integer.toString(epochs), Integer.toString(batchSize), compression.name());
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                if (rank != 0) {
+                    builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                }
+                processes.add(builder.start());
+            }
+
+            String[] result = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(processes.get(0).getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(RESULT + " ")) {
+                        result = line.split(" ");
+                    }
+                }
+            }
+            for (int rank = 0; rank < workers; rank++) {
+                int exit = processes.get(rank).waitFor();
+                if (exit != 0) {
+                    throw new IllegalStateException("Worker " + rank + " of " + workers + " exited with " + exit);
+                }
+            }
+            if (result == null) {
+                throw new IllegalStateException("Worker 0 of " + workers + " reported no result");
+            }
+            return result;
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static void worker(int rank, int size, int basePort, int threads, int samples, int epochs, int batchSize,
+                               GradientCompression compression) throws IOException {
+        Dataset train = Dataset.load(Paths.get("train-images-idx3-ubyte"), Paths.get("train-labels-idx1-ubyte"));
+        train = train.subset(0, Math.min(samples, train.size())).withPaddedCache();
+
+        LeNet5 leNet5 = new LeNet5();
+        leNet5.setNumThreads(threads);
+        leNet5.setProgressOutput(false);
+        try (RingAllReduce ring = RingAllReduce.localhost(rank, size, basePort, compression)) {
+            long start = System.nanoTime();
+            leNet5.trainDistributed(epochs, batchSize, train, 42, ring);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (rank == 0) {
+                Dataset test = Dataset.load(Paths.get("t10k-images-idx3-ubyte"), Paths.get("t10k-labels-idx1-ubyte"));
+                double accuracy = leNet5.testNetwork(test);
+                System.out.println(RESULT + " " + seconds + " " + ring.bytesSent() + " " + accuracy);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Watches validation accuracy at the end of each epoch and keeps a copy of the parameters
+ * from the best one. Training should stop once patience epochs in a row have not improved
+ * on it, and the best parameters be put back.
+ */
+final class EarlyStopping {
+    private final Dataset validation;
+    private final int patience;
+    private Tensor[] best;
+    private double bestAccuracy;
+    private int bestEpoch;
+    private int epochsWithoutImprovement;
+
+    EarlyStopping(Dataset validation, int patience) {
+        if (patience < 1) {
+            throw new IllegalArgumentException("patience must be at least 1: " + patience);
+        }
+        if (validation.size() == 0) {
+            throw new IllegalArgumentException("The validation set is empty");
+        }
+        this.validation = validation;
+        this.patience = patience;
+    }
+
+    Dataset validation() {
+        return validation;
+    }
+
+    void reset() {
+        best = null;
+        bestAccuracy = 0.0;
+        bestEpoch = 0;
+        epochsWithoutImprovement = 0;
+    }
+
+    /** Records epoch's validation accuracy and returns whether training should stop. */
+    boolean update(int epoch, double accuracy, Tensor[] parameters) {
+        if (best == null || accuracy > bestAccuracy) {
+            if (best == null) {
+                best = Tensor.zerosLike(parameters);
+            }
+            for (int i = 0; i < parameters.length; i++) {
+                System.arraycopy(parameters[i].data, 0, best[i].data, 0, parameters[i].size());
+            }
+            bestAccuracy = accuracy;
+            bestEpoch = epoch;
+            epochsWithoutImprovement = 0;
+            return false;
+        }
+        return ++epochsWithoutImprovement >= patience;
+    }
+
+    void restoreBest(Tensor[] parameters) {
+        for (int i = 0; i < parameters.length; i++) {
+            System.arraycopy(best[i].data, 0, parameters[i].data, 0, parameters[i].size());
+        }
+    }
+
+    /**
+     * Continues from a checkpoint's record of an earlier part of the run. A null best, from
+     * a run that had not yet validated an epoch, is the same as reset().
+     */
+    void restore(Tensor[] best, double bestAccuracy, int bestEpoch, int epochsWithoutImprovement) {
+        this.best = best;
+        this.bestAccuracy = best != null ? bestAccuracy : 0.0;
+        this.bestEpoch = best != null ? bestEpoch : 0;
+        this.epochsWithoutImprovement = best != null ? epochsWithoutImprovement : 0;
+    }
+
+    /** The best parameters so far, or null before the first update. */
+    Tensor[] best() {
+        return best;
+    }
+
+    int epochsWithoutImprovement() {
+        return epochsWithoutImprovement;
+    }
+
+    double bestAccuracy() {
+        return bestAccuracy;
+    }
+
+    int bestEpoch() {
+        return bestEpoch;
+    }
+}
@@ -0,0 +1,25 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lenet5.Epoch")
+@Label("Training Epoch")
+@Category("LeNet5")
+@Description("One epoch of LeNet5 training")
+public class EpochEvent extends Event {
+    @Label("Epoch")
+    int epoch;
+
+    @Label("Samples")
+    int samples;
+
+    @Label("Samples per Second")
+    double samplesPerSecond;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
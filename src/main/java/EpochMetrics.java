@@ -0,0 +1,78 @@
+/** What one training epoch cost and how well it trained, as handed to a TrainingListener. */
+public final class EpochMetrics {
+    private final int epoch;
+    private final int samples;
+    private final long elapsedNanos;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+    private final LayerTimings layerTimings;
+    private final ClassificationMetrics training;
+    private final Evaluation testEstimate;
+
+    EpochMetrics(int epoch, int samples, long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis, LayerTimings layerTimings,
+                 ClassificationMetrics training, Evaluation testEstimate) {
+        this.epoch = epoch;
+        this.samples = samples;
+        this.elapsedNanos = elapsedNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+        this.layerTimings = layerTimings;
+        this.training = training;
+        this.testEstimate = testEstimate;
+    }
+
+    /** Epoch number, starting at 1. */
+    public int epoch() {
+        return epoch;
+    }
+
+    /** Samples trained in this epoch; fewer than the training set when a run resumed mid-epoch. */
+    public int samples() {
+        return samples;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double samplesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : samples / (elapsedNanos / 1e9);
+    }
+
+    /** Bytes allocated on the heap by all live threads during the epoch, or -1 if the JVM cannot tell. */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long gcCount() {
+        return gcCount;
+    }
+
+    /** Accumulated collection time of all garbage collectors during the epoch. */
+    public long gcMillis() {
+        return gcMillis;
+    }
+
+    public LayerTimings layerTimings() {
+        return layerTimings;
+    }
+
+    /** Running loss, accuracy and confusion matrix of the epoch's training samples. */
+    public ClassificationMetrics training() {
+        return training;
+    }
+
+    /** Test accuracy on the sample set with setTestSampling, or null if there is none. */
+    public Evaluation testEstimate() {
+        return testEstimate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Epoch %d: %d samples in %.2fs (%.1f samples/s), %d bytes allocated, %d GCs taking %dms, training %s",
+                epoch, samples, elapsedNanos / 1e9, samplesPerSecond(), allocatedBytes, gcCount, gcMillis, training)
+                + (testEstimate != null ? ", test " + testEstimate : "");
+    }
+}
@@ -0,0 +1,172 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Measures a training run epoch by epoch for JFR and an optional TrainingListener.
+ *
+ * Per epoch it reads the clock, the heap allocation counters of all live threads and the
+ * collectors' totals once at each end, so the cost does not depend on the number of
+ * samples. Batches cost two clock reads and one reused JFR event, which is dropped unless
+ * a recording enables it, so the per-batch bookkeeping allocates nothing. Per-layer timing is switched on only when there is a listener:
+ * the given workspaces get LayerTimings for the forward and backward passes to record
+ * into, and close() takes them away again. The workspaces' training metrics are merged at
+ * the end of each epoch and cleared for the next.
+ */
+final class EpochRecorder implements AutoCloseable {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final TrainingListener listener;
+    private final Supplier<Evaluation> testEvaluation;
+    private final Workspace[] workspaces;
+    private EpochEvent event;
+    // Reused for every batch, so timing a batch allocates nothing
+    private final BatchEvent batchEvent = new BatchEvent();
+    private int samples;
+    private long startNanos;
+    // Heap bytes allocated so far by each live thread at the start of the epoch
+    private final Map<Long, Long> startAllocated = new HashMap<>();
+    private long startGcCount;
+    private long startGcMillis;
+
+    // testEvaluation runs once per epoch after the clock has stopped and may return null
+    EpochRecorder(TrainingListener listener, Supplier<Evaluation> testEvaluation, Workspace... workspaces) {
+        this.listener = listener;
+        this.testEvaluation = testEvaluation;
+        this.workspaces = workspaces;
+        if (listener != null) {
+            for (Workspace ws : workspaces) {
+                ws.timings = new LayerTimings();
+            }
+        }
+    }
+
+    void startEpoch() {
+        event = new EpochEvent();
+        event.begin();
+        samples = 0;
+        for (Workspace ws : workspaces) {
+            ws.trainingMetrics.clear();
+        }
+        startAllocated.clear();
+        com.sun.management.ThreadMXBean threads = allocationCounters();
+        if (threads != null) {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int t = 0; t < ids.length; t++) {
+                if (bytes[t] >= 0) {
+                    startAllocated.put(ids[t], bytes[t]);
+                }
+            }
+        }
+        startGcCount = 0;
+        startGcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            startGcCount += Math.max(gc.getCollectionCount(), 0);
+            startGcMillis += Math.max(gc.getCollectionTime(), 0);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /** Start time to pass to batchCompleted. */
+    long batchStarted() {
+        batchEvent.begin();
+        return System.nanoTime();
+    }
+
+    void batchCompleted(int epoch, int size, long start) {
+        long elapsed = System.nanoTime() - start;
+        samples += size;
+        batchEvent.end();
+        if (batchEvent.shouldCommit()) {
+            batchEvent.epoch = epoch;
+            batchEvent.size = size;
+            batchEvent.commit();
+        }
+        if (listener != null) {
+            listener.batchCompleted(epoch, size, elapsed);
+        }
+    }
+
+    // Ends the epoch; the next one is measured from the caller's next startEpoch()
+    EpochMetrics epochCompleted(int epoch) {
+        long elapsed = System.nanoTime() - startNanos;
+        event.end();
+        long allocated = allocatedSinceStart();
+        long gcCount = -startGcCount;
+        long gcMillis = -startGcMillis;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+        }
+
+        ClassificationMetrics training = new ClassificationMetrics();
+        for (Workspace ws : workspaces) {
+            training.add(ws.trainingMetrics);
+        }
+        EpochMetrics metrics = new EpochMetrics(epoch, samples, elapsed, allocated, gcCount, gcMillis, mergeTimings(),
+                training, testEvaluation.get());
+        if (event.shouldCommit()) {
+            event.epoch = epoch;
+            event.samples = samples;
+            event.samplesPerSecond = metrics.samplesPerSecond();
+            event.allocatedBytes = allocated;
+            event.commit();
+        }
+        if (listener != null) {
+            listener.epochCompleted(metrics);
+        }
+        return metrics;
+    }
+
+    private LayerTimings mergeTimings() {
+        if (listener == null) {
+            return null;
+        }
+        LayerTimings merged = new LayerTimings();
+        for (Workspace ws : workspaces) {
+            merged.add(ws.timings);
+            ws.timings.clear();
+        }
+        return merged;
+    }
+
+    @Override
+    public void close() {
+        for (Workspace ws : workspaces) {
+            ws.timings = null;
+        }
+    }
+
+    // Bytes allocated since startEpoch() by threads that are still alive, or -1 where the JVM
+    // does not count them. Threads that ended during the epoch drop out of the total.
+    private long allocatedSinceStart() {
+        com.sun.management.ThreadMXBean threads = allocationCounters();
+        if (threads == null) {
+            return -1;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        long total = 0;
+        for (int t = 0; t < ids.length; t++) {
+            if (bytes[t] >= 0) {
+                total += bytes[t] - startAllocated.getOrDefault(ids[t], 0L);
+            }
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounters() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return threads;
+    }
+}
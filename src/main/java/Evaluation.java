@@ -0,0 +1,53 @@
+/**
+ * Accuracy measured on a random sample of a test set, with a 95% Wilson score interval
+ * for the accuracy on the whole set. A sample that covers the whole set is exact and its
+ * interval collapses to the accuracy itself.
+ */
+public final class Evaluation {
+    private static final double Z_95 = 1.959963984540054;
+
+    private final int correct;
+    private final int samples;
+    private final int population;
+
+    Evaluation(int correct, int samples, int population) {
+        this.correct = correct;
+        this.samples = samples;
+        this.population = population;
+    }
+
+    public int samples() {
+        return samples;
+    }
+
+    /** Size of the test set the sample was drawn from. */
+    public int population() {
+        return population;
+    }
+
+    public double accuracy() {
+        return (double) correct / samples;
+    }
+
+    public double lower() {
+        return samples >= population ? accuracy() : wilson(-1.0);
+    }
+
+    public double upper() {
+        return samples >= population ? accuracy() : wilson(1.0);
+    }
+
+    private double wilson(double sign) {
+        double n = samples;
+        double p = accuracy();
+        double z2 = Z_95 * Z_95;
+        double centre = p + z2 / (2.0 * n);
+        double spread = Z_95 * Math.sqrt(p * (1.0 - p) / n + z2 / (4.0 * n * n));
+        return (centre + sign * spread) / (1.0 + z2 / n);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f%% (95%% CI %.2f-%.2f%%, %d of %d images)", 100.0 * accuracy(), 100.0 * lower(), 100.0 * upper(), samples, population);
+    }
+}
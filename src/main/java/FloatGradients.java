@@ -0,0 +1,31 @@
+public class FloatGradients {
+    final FloatTensor weightsC1 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.FILTER_SIZE_C1, LeNet5.FILTER_SIZE_C1);
+    final FloatTensor weightsC3 = new FloatTensor(LeNet5.NUM_CONNECTIONS_C3, LeNet5.FILTER_SIZE_C3, LeNet5.FILTER_SIZE_C3);
+    final FloatTensor weightsC5 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.FILTER_SIZE_C5, LeNet5.FILTER_SIZE_C5);
+    final FloatTensor weightsF6 = new FloatTensor(LeNet5.NUM_UNITS_F6, LeNet5.NUM_FEATURE_MAPS_C5);
+    final FloatTensor weightsOutput = new FloatTensor(LeNet5.NUM_OUTPUT_CLASSES, LeNet5.NUM_UNITS_F6);
+    final FloatTensor biasesC1 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1);
+    final FloatTensor biasesC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3);
+    final FloatTensor biasesC5 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    final FloatTensor biasesF6 = new FloatTensor(LeNet5.NUM_UNITS_F6);
+
+    private final FloatTensor[] all = {
+            weightsC1, weightsC3, weightsC5, weightsF6, weightsOutput,
+            biasesC1, biasesC3, biasesC5, biasesF6
+    };
+
+    public void clear() {
+        for (FloatTensor t : all) {
+            t.fill(0.0f);
+        }
+    }
+
+    // Adds these gradients into the double buffers and resets them to zero
+    public void flushInto(Gradients target) {
+        Tensor[] tensors = target.tensors();
+        for (int i = 0; i < all.length; i++) {
+            all[i].addTo(tensors[i]);
+            all[i].fill(0.0f);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+public class FloatPipeline {
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    private static final float POOL_DERIVATIVE = 0.25f;
+
+    private final Accumulation accumulation;
+
+    private final FloatTensor weightsC1 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.FILTER_SIZE_C1, LeNet5.FILTER_SIZE_C1);
+    // Dense 16x150 matrix unpacked from the master's packed C3 weights, with zeros for the map
+    // pairs C3_CONNECTIVITY leaves out
+    private final FloatTensor weightsC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.FILTER_SIZE_C3, LeNet5.FILTER_SIZE_C3);
+    private final FloatTensor weightsC5 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.FILTER_SIZE_C5, LeNet5.FILTER_SIZE_C5);
+    private final FloatTensor weightsF6 = new FloatTensor(LeNet5.NUM_UNITS_F6, LeNet5.NUM_FEATURE_MAPS_C5);
+    private final FloatTensor weightsOutput = new FloatTensor(LeNet5.NUM_OUTPUT_CLASSES, LeNet5.NUM_UNITS_F6);
+    private final FloatTensor biasesC1 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1);
+    private final FloatTensor biasesC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3);
+    private final FloatTensor biasesC5 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    private final FloatTensor biasesF6 = new FloatTensor(LeNet5.NUM_UNITS_F6);
+
+    private final FloatTensor[] parameters = {
+            weightsC1, weightsC3, weightsC5, weightsF6, weightsOutput,
+            biasesC1, biasesC3, biasesC5, biasesF6
+    };
+
+    public FloatPipeline(Accumulation accumulation) {
+        this.accumulation = accumulation;
+    }
+
+    public Accumulation getAccumulation() {
+        return accumulation;
+    }
+
+    public void refresh(Tensor[] masterParameters) {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] != weightsC3) {
+                parameters[i].copyFrom(masterParameters[i]);
+            }
+        }
+
+        // The master C3 weights are packed; unpack them into the dense matrix, whose
+        // unconnected pairs were zeroed at construction and are never written
+        double[] packed = masterParameters[1].data;
+        int filterArea = LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3;
+        for (int f = 0; f < LeNet5.NUM_FEATURE_MAPS_C3; f++) {
+            for (int k = LeNet5.C3_FIRST_CONNECTION[f]; k < LeNet5.C3_FIRST_CONNECTION[f + 1]; k++) {
+                int dst = weightsC3.offset(f, LeNet5.C3_INPUT_MAP[k]);
+                for (int p = 0; p < filterArea; p++) {
+                    weightsC3.data[dst + p] = (float) packed[k * filterArea + p];
+                }
+            }
+        }
+    }
+
+    public float[] forward(int[][] image, FloatWorkspace ws) {
+        loadImage(image, ws);
+        return forward(ws);
+    }
+
+    static void loadImage(int[][] image, FloatWorkspace ws) {
+        if (image.length != LeNet5.IMAGE_SIZE || image[0].length != LeNet5.IMAGE_SIZE) {
+            throw new IllegalArgumentException("Expected a " + LeNet5.IMAGE_SIZE + "x" + LeNet5.IMAGE_SIZE + " image but got " + image.length + "x" + image[0].length);
+        }
+        for (int i = 0; i < LeNet5.IMAGE_SIZE; i++) {
+            int row = ws.input.offset(i + LeNet5.PADDING, LeNet5.PADDING);
+            for (int j = 0; j < LeNet5.IMAGE_SIZE; j++) {
+                ws.input.data[row + j] = image[i][j] * LeNet5.PIXEL_SCALE;
+            }
+        }
+    }
+
+    // Runs the network on the padded image already in ws.input
+    public float[] forward(FloatWorkspace ws) {
+        int filterAreaC1 = LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1;
+        int areaC1 = LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1;
+        Im2Col.im2col(ws.input.data, 1, LeNet5.INPUT_SIZE, LeNet5.FILTER_SIZE_C1, ws.colsC1.data);
+        ws.c1Output.fill(0.0f);
+        Gemm.multiply(LeNet5.NUM_FEATURE_MAPS_C1, areaC1, filterAreaC1, weightsC1.data, 0, filterAreaC1, ws.colsC1.data, 0, areaC1, ws.c1Output.data, 0, areaC1);
+        biasAndActivate(ws.c1Output, biasesC1);
+        averagePool(ws.c1Output, ws.s2Output);
+
+        int rowsC3 = ws.colsC3.dim(0);
+        int areaC3 = LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3;
+        Im2Col.im2col(ws.s2Output.data, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.FILTER_SIZE_C3, ws.colsC3.data);
+        ws.c3Output.fill(0.0f);
+        Gemm.multiply(LeNet5.NUM_FEATURE_MAPS_C3, areaC3, rowsC3, weightsC3.data, 0, rowsC3, ws.colsC3.data, 0, areaC3, ws.c3Output.data, 0, areaC3);
+        biasAndActivate(ws.c3Output, biasesC3);
+        averagePool(ws.c3Output, ws.s4Output);
+
+        dense(weightsC5, biasesC5, ws.s4Output, ws.c5Output);
+        dense(weightsF6, biasesF6, ws.c5Output, ws.f6Output);
+        dense(weightsOutput, null, ws.f6Output, ws.output);
+        return ws.output.data;
+    }
+
+    public void accumulateGradients(FloatWorkspace ws, int targetNumber, FloatGradients g) {
+        float[] out = ws.output.data;
+        for (int i = 0; i < LeNet5.NUM_OUTPUT_CLASSES; i++) {
+            float target = i == targetNumber ? 1.0f : -1.0f;
+            ws.dOutput.data[i] = 2 * (out[i] - target) * tanhDerivative(out[i]);
+        }
+
+        denseBackward(weightsOutput, ws.dOutput, ws.f6Output, ws.dF6, g.weightsOutput, null);
+        for (int i = 0; i < ws.dF6.size(); i++) {
+            ws.dF6.data[i] *= tanhDerivative(ws.f6Output.data[i]);
+        }
+
+        denseBackward(weightsF6, ws.dF6, ws.c5Output, ws.dC5, g.weightsF6, g.biasesF6);
+        for (int i = 0; i < ws.dC5.size(); i++) {
+            ws.dC5.data[i] *= tanhDerivative(ws.c5Output.data[i]);
+        }
+
+        denseBackward(weightsC5, ws.dC5, ws.s4Output, ws.dS4, g.weightsC5, g.biasesC5);
+        for (int i = 0; i < ws.dS4.size(); i++) {
+            ws.dS4.data[i] *= POOL_DERIVATIVE;
+        }
+
+        upsamplePoolGradient(ws.dS4, ws.dC3);
+        int rowsC3 = ws.colsC3.dim(0);
+        int areaC3 = ws.colsC3.dim(1);
+        int filterAreaC3 = LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3;
+        FloatTensor dW = ws.dWeightsC3Matrix;
+        dW.fill(0.0f);
+        Gemm.multiplyTransposedB(LeNet5.NUM_FEATURE_MAPS_C3, rowsC3, areaC3, ws.dC3.data, 0, areaC3, ws.colsC3.data, 0, areaC3, dW.data, 0, rowsC3, accumulation);
+        for (int f = 0; f < LeNet5.NUM_FEATURE_MAPS_C3; f++) {
+            for (int k = LeNet5.C3_FIRST_CONNECTION[f]; k < LeNet5.C3_FIRST_CONNECTION[f + 1]; k++) {
+                int src = dW.offset(f, LeNet5.C3_INPUT_MAP[k] * filterAreaC3);
+                int dst = g.weightsC3.offset(k);
+                for (int p = 0; p < filterAreaC3; p++) {
+                    g.weightsC3.data[dst + p] += dW.data[src + p];
+                }
+            }
+            g.biasesC3.data[f] += sum(ws.dC3.data, ws.dC3.offset(f), areaC3);
+        }
+
+        ws.dColsC3.fill(0.0f);
+        Gemm.multiplyTransposedA(rowsC3, areaC3, LeNet5.NUM_FEATURE_MAPS_C3, weightsC3.data, 0, rowsC3, ws.dC3.data, 0, areaC3, ws.dColsC3.data, 0, areaC3);
+        ws.dS2.fill(0.0f);
+        Im2Col.col2im(ws.dColsC3.data, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.FILTER_SIZE_C3, ws.dS2.data);
+
+        upsamplePoolGradient(ws.dS2, ws.dC1);
+        int filterAreaC1 = LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1;
+        int areaC1 = ws.colsC1.dim(1);
+        Gemm.multiplyTransposedB(LeNet5.NUM_FEATURE_MAPS_C1, filterAreaC1, areaC1, ws.dC1.data, 0, areaC1, ws.colsC1.data, 0, areaC1, g.weightsC1.data, 0, filterAreaC1, accumulation);
+        for (int f = 0; f < LeNet5.NUM_FEATURE_MAPS_C1; f++) {
+            g.biasesC1.data[f] += sum(ws.dC1.data, ws.dC1.offset(f), areaC1);
+        }
+    }
+
+    private void dense(FloatTensor weights, FloatTensor biases, FloatTensor input, FloatTensor output) {
+        int inputSize = input.size();
+        for (int i = 0; i < output.size(); i++) {
+            int row = weights.offset(i);
+            float sum = accumulation == Accumulation.DOUBLE
+                    ? (float) KERNELS.dotAccurate(weights.data, row, input.data, 0, inputSize)
+                    : KERNELS.dot(weights.data, row, input.data, 0, inputSize);
+            if (biases != null) {
+                sum += biases.data[i];
+            }
+            output.data[i] = tanh(sum);
+        }
+    }
+
+    // dInput = W^T * dOutput, dWeights += dOutput x input, dBiases += dOutput
+    private void denseBackward(FloatTensor weights, FloatTensor dOutput, FloatTensor input, FloatTensor dInput,
+                               FloatTensor dWeights, FloatTensor dBiases) {
+        int inputSize = input.size();
+        dInput.fill(0.0f);
+        for (int j = 0; j < dOutput.size(); j++) {
+            float delta = dOutput.data[j];
+            KERNELS.axpy(delta, weights.data, weights.offset(j), dInput.data, 0, inputSize);
+            KERNELS.axpy(delta, input.data, 0, dWeights.data, dWeights.offset(j), inputSize);
+            if (dBiases != null) {
+                dBiases.data[j] += delta;
+            }
+        }
+    }
+
+    private void biasAndActivate(FloatTensor featureMaps, FloatTensor biases) {
+        int numFeatureMaps = featureMaps.dim(0);
+        int area = featureMaps.size() / numFeatureMaps;
+        float[] out = featureMaps.data;
+
+        for (int f = 0; f < numFeatureMaps; f++) {
+            float bias = biases.data[f];
+            int base = f * area;
+            for (int p = 0; p < area; p++) {
+                out[base + p] = tanh(out[base + p] + bias);
+            }
+        }
+    }
+
+    private static void averagePool(FloatTensor inputFeatureMaps, FloatTensor outputFeatureMaps) {
+        int numFeatureMaps = inputFeatureMaps.dim(0);
+        int inputSize = inputFeatureMaps.dim(1);
+        int outputSize = outputFeatureMaps.dim(1);
+        float[] in = inputFeatureMaps.data;
+        float[] out = outputFeatureMaps.data;
+
+        for (int f = 0; f < numFeatureMaps; f++) {
+            int inBase = inputFeatureMaps.offset(f);
+            int outBase = outputFeatureMaps.offset(f);
+            for (int i = 0; i < outputSize; i++) {
+                int top = inBase + 2 * i * inputSize;
+                int bottom = top + inputSize;
+                for (int j = 0; j < outputSize; j++) {
+                    int left = 2 * j;
+                    out[outBase + i * outputSize + j] = (in[top + left] + in[top + left + 1] + in[bottom + left] + in[bottom + left + 1]) * 0.25f;
+                }
+            }
+        }
+    }
+
+    private static void upsamplePoolGradient(FloatTensor dPooled, FloatTensor dFeatureMaps) {
+        int numFilters = dFeatureMaps.dim(0);
+        int featureSize = dFeatureMaps.dim(1);
+        int pooledSize = dPooled.dim(1);
+        float[] src = dPooled.data;
+        float[] dst = dFeatureMaps.data;
+
+        for (int f = 0; f < numFilters; f++) {
+            int srcBase = dPooled.offset(f);
+            int dstBase = dFeatureMaps.offset(f);
+            for (int i = 0; i < featureSize; i++) {
+                int srcRow = srcBase + (i / 2) * pooledSize;
+                int dstRow = dstBase + i * featureSize;
+                for (int j = 0; j < featureSize; j++) {
+                    dst[dstRow + j] = src[srcRow + j / 2] * POOL_DERIVATIVE;
+                }
+            }
+        }
+    }
+
+    private float sum(float[] values, int offset, int length) {
+        if (accumulation == Accumulation.DOUBLE) {
+            double sum = 0.0;
+            for (int i = 0; i < length; i++) {
+                sum += values[offset + i];
+            }
+            return (float) sum;
+        }
+
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += values[offset + i];
+        }
+        return sum;
+    }
+
+    // Math.tanh is computed in double through StrictMath; exp is an intrinsic and float
+    // precision is all this path keeps, so use tanh(x) = 1 - 2 / (exp(2x) + 1).
+    static float tanh(float x) {
+        if (x > 9.0f) {
+            return 1.0f;
+        }
+        if (x < -9.0f) {
+            return -1.0f;
+        }
+        return 1.0f - 2.0f / ((float) Math.exp(2.0f * x) + 1.0f);
+    }
+
+    private static float tanhDerivative(float y) {
+        return 1 - y * y;
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.Arrays;
+
+public final class FloatTensor {
+    public final float[] data;
+    final int[] shape;
+    final int[] strides;
+
+    public FloatTensor(int... shape) {
+        this.shape = shape.clone();
+        this.strides = new int[shape.length];
+
+        int size = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            if (shape[d] < 1) {
+                throw new IllegalArgumentException("Invalid tensor shape: " + Arrays.toString(shape));
+            }
+            strides[d] = size;
+            size *= shape[d];
+        }
+
+        this.data = new float[size];
+    }
+
+    public int dim(int d) {
+        return shape[d];
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public int offset(int i) {
+        return i * strides[0];
+    }
+
+    public int offset(int i, int j) {
+        return i * strides[0] + j * strides[1];
+    }
+
+    public int offset(int i, int j, int k) {
+        return i * strides[0] + j * strides[1] + k * strides[2];
+    }
+
+    public void fill(float value) {
+        Arrays.fill(data, value);
+    }
+
+    public void copyFrom(Tensor source) {
+        checkSameShape(source);
+        double[] src = source.data;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) src[i];
+        }
+    }
+
+    public void addTo(Tensor target) {
+        checkSameShape(target);
+        double[] dst = target.data;
+        for (int i = 0; i < data.length; i++) {
+            dst[i] += data[i];
+        }
+    }
+
+    private void checkSameShape(Tensor other) {
+        if (!Arrays.equals(shape, other.shape)) {
+            throw new IllegalArgumentException("Shape mismatch: " + Arrays.toString(shape) + " vs " + Arrays.toString(other.shape));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FloatTensor" + Arrays.toString(shape);
+    }
+}
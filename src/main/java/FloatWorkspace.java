@@ -0,0 +1,23 @@
+public class FloatWorkspace {
+    final FloatTensor input = new FloatTensor(LeNet5.INPUT_SIZE, LeNet5.INPUT_SIZE);
+    final FloatTensor c1Output = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, LeNet5.OUTPUT_SIZE_C1);
+    final FloatTensor s2Output = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.OUTPUT_SIZE_S2);
+    final FloatTensor c3Output = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, LeNet5.OUTPUT_SIZE_C3);
+    final FloatTensor s4Output = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_S4, LeNet5.OUTPUT_SIZE_S4);
+    final FloatTensor c5Output = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    final FloatTensor f6Output = new FloatTensor(LeNet5.NUM_UNITS_F6);
+    final FloatTensor output = new FloatTensor(LeNet5.NUM_OUTPUT_CLASSES);
+
+    final FloatTensor dOutput = new FloatTensor(LeNet5.NUM_OUTPUT_CLASSES);
+    final FloatTensor dF6 = new FloatTensor(LeNet5.NUM_UNITS_F6);
+    final FloatTensor dC5 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    final FloatTensor dS4 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_S4, LeNet5.OUTPUT_SIZE_S4);
+    final FloatTensor dC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, LeNet5.OUTPUT_SIZE_C3);
+    final FloatTensor dS2 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.OUTPUT_SIZE_S2);
+    final FloatTensor dC1 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, LeNet5.OUTPUT_SIZE_C1);
+
+    final FloatTensor colsC1 = new FloatTensor(LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1, LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1);
+    final FloatTensor colsC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3, LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3);
+    final FloatTensor dColsC3 = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3, LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3);
+    final FloatTensor dWeightsC3Matrix = new FloatTensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3);
+}
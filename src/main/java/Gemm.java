@@ -0,0 +1,180 @@
+public final class Gemm {
+    private static final int BLOCK_K = 64;
+    private static final int BLOCK_N = 256;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    private Gemm() {
+    }
+
+    // C[m x n] += A[m x k] * B[k x n]
+    public static void multiply(int m, int n, int k,
+                                double[] a, int aOffset, int lda,
+                                double[] b, int bOffset, int ldb,
+                                double[] c, int cOffset, int ldc) {
+        for (int kk = 0; kk < k; kk += BLOCK_K) {
+            int kEnd = Math.min(kk + BLOCK_K, k);
+            for (int jj = 0; jj < n; jj += BLOCK_N) {
+                int jEnd = Math.min(jj + BLOCK_N, n);
+
+                int i = 0;
+                for (; i + 4 <= m; i += 4) {
+                    int a0 = aOffset + i * lda;
+                    int a1 = a0 + lda;
+                    int a2 = a1 + lda;
+                    int a3 = a2 + lda;
+                    int c0 = cOffset + i * ldc;
+                    int c1 = c0 + ldc;
+                    int c2 = c1 + ldc;
+                    int c3 = c2 + ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy4(a[a0 + p], a[a1 + p], a[a2 + p], a[a3 + p], b, bOffset + p * ldb + jj,
+                                c, c0 + jj, c1 + jj, c2 + jj, c3 + jj, jEnd - jj);
+                    }
+                }
+
+                for (; i < m; i++) {
+                    int aRow = aOffset + i * lda;
+                    int cRow = cOffset + i * ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy(a[aRow + p], b, bOffset + p * ldb + jj, c, cRow + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    // C[m x n] += A[k x m]^T * B[k x n]
+    public static void multiplyTransposedA(int m, int n, int k,
+                                           double[] a, int aOffset, int lda,
+                                           double[] b, int bOffset, int ldb,
+                                           double[] c, int cOffset, int ldc) {
+        for (int kk = 0; kk < k; kk += BLOCK_K) {
+            int kEnd = Math.min(kk + BLOCK_K, k);
+            for (int jj = 0; jj < n; jj += BLOCK_N) {
+                int jEnd = Math.min(jj + BLOCK_N, n);
+
+                int i = 0;
+                for (; i + 4 <= m; i += 4) {
+                    int c0 = cOffset + i * ldc;
+                    int c1 = c0 + ldc;
+                    int c2 = c1 + ldc;
+                    int c3 = c2 + ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        int aCol = aOffset + p * lda + i;
+                        KERNELS.axpy4(a[aCol], a[aCol + 1], a[aCol + 2], a[aCol + 3], b, bOffset + p * ldb + jj,
+                                c, c0 + jj, c1 + jj, c2 + jj, c3 + jj, jEnd - jj);
+                    }
+                }
+
+                for (; i < m; i++) {
+                    int cRow = cOffset + i * ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy(a[aOffset + p * lda + i], b, bOffset + p * ldb + jj, c, cRow + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    // C[m x n] += A[m x k] * B[n x k]^T
+    public static void multiplyTransposedB(int m, int n, int k,
+                                           double[] a, int aOffset, int lda,
+                                           double[] b, int bOffset, int ldb,
+                                           double[] c, int cOffset, int ldc) {
+        for (int i = 0; i < m; i++) {
+            int aRow = aOffset + i * lda;
+            int cRow = cOffset + i * ldc;
+            for (int j = 0; j < n; j++) {
+                c[cRow + j] += KERNELS.dot(a, aRow, b, bOffset + j * ldb, k);
+            }
+        }
+    }
+
+    // C[m x n] += A[m x k] * B[k x n]
+    public static void multiply(int m, int n, int k,
+                                float[] a, int aOffset, int lda,
+                                float[] b, int bOffset, int ldb,
+                                float[] c, int cOffset, int ldc) {
+        for (int kk = 0; kk < k; kk += BLOCK_K) {
+            int kEnd = Math.min(kk + BLOCK_K, k);
+            for (int jj = 0; jj < n; jj += BLOCK_N) {
+                int jEnd = Math.min(jj + BLOCK_N, n);
+
+                int i = 0;
+                for (; i + 4 <= m; i += 4) {
+                    int a0 = aOffset + i * lda;
+                    int a1 = a0 + lda;
+                    int a2 = a1 + lda;
+                    int a3 = a2 + lda;
+                    int c0 = cOffset + i * ldc;
+                    int c1 = c0 + ldc;
+                    int c2 = c1 + ldc;
+                    int c3 = c2 + ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy4(a[a0 + p], a[a1 + p], a[a2 + p], a[a3 + p], b, bOffset + p * ldb + jj,
+                                c, c0 + jj, c1 + jj, c2 + jj, c3 + jj, jEnd - jj);
+                    }
+                }
+
+                for (; i < m; i++) {
+                    int aRow = aOffset + i * lda;
+                    int cRow = cOffset + i * ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy(a[aRow + p], b, bOffset + p * ldb + jj, c, cRow + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    // C[m x n] += A[k x m]^T * B[k x n]
+    public static void multiplyTransposedA(int m, int n, int k,
+                                           float[] a, int aOffset, int lda,
+                                           float[] b, int bOffset, int ldb,
+                                           float[] c, int cOffset, int ldc) {
+        for (int kk = 0; kk < k; kk += BLOCK_K) {
+            int kEnd = Math.min(kk + BLOCK_K, k);
+            for (int jj = 0; jj < n; jj += BLOCK_N) {
+                int jEnd = Math.min(jj + BLOCK_N, n);
+
+                int i = 0;
+                for (; i + 4 <= m; i += 4) {
+                    int c0 = cOffset + i * ldc;
+                    int c1 = c0 + ldc;
+                    int c2 = c1 + ldc;
+                    int c3 = c2 + ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        int aCol = aOffset + p * lda + i;
+                        KERNELS.axpy4(a[aCol], a[aCol + 1], a[aCol + 2], a[aCol + 3], b, bOffset + p * ldb + jj,
+                                c, c0 + jj, c1 + jj, c2 + jj, c3 + jj, jEnd - jj);
+                    }
+                }
+
+                for (; i < m; i++) {
+                    int cRow = cOffset + i * ldc;
+                    for (int p = kk; p < kEnd; p++) {
+                        KERNELS.axpy(a[aOffset + p * lda + i], b, bOffset + p * ldb + jj, c, cRow + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    // C[m x n] += A[m x k] * B[n x k]^T
+    public static void multiplyTransposedB(int m, int n, int k,
+                                           float[] a, int aOffset, int lda,
+                                           float[] b, int bOffset, int ldb,
+                                           float[] c, int cOffset, int ldc, Accumulation accumulation) {
+        for (int i = 0; i < m; i++) {
+            int aRow = aOffset + i * lda;
+            int cRow = cOffset + i * ldc;
+            for (int j = 0; j < n; j++) {
+                if (accumulation == Accumulation.DOUBLE) {
+                    c[cRow + j] += (float) KERNELS.dotAccurate(a, aRow, b, bOffset + j * ldb, k);
+                } else {
+                    c[cRow + j] += KERNELS.dot(a, aRow, b, bOffset + j * ldb, k);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+public enum GradientCompression {
+    NONE,
+    // Gradients cross the wire as floats, half the bytes of a double. The reduced result is
+    // rounded to float on every replica alike, so the replicas stay identical.
+    FLOAT
+}
@@ -0,0 +1,70 @@
+public class Gradients {
+    final Tensor weightsC1;
+    final Tensor weightsC3;
+    final Tensor weightsC5;
+    final Tensor weightsF6;
+    final Tensor weightsOutput;
+    final Tensor biasesC1;
+    final Tensor biasesC3;
+    final Tensor biasesC5;
+    final Tensor biasesF6;
+
+    private final Tensor[] all;
+
+    public Gradients() {
+        this(new Tensor[] {
+                new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.FILTER_SIZE_C1, LeNet5.FILTER_SIZE_C1),
+                new Tensor(LeNet5.NUM_CONNECTIONS_C3, LeNet5.FILTER_SIZE_C3, LeNet5.FILTER_SIZE_C3),
+                new Tensor(LeNet5.NUM_FEATURE_MAPS_C5, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.FILTER_SIZE_C5, LeNet5.FILTER_SIZE_C5),
+                new Tensor(LeNet5.NUM_UNITS_F6, LeNet5.NUM_FEATURE_MAPS_C5),
+                new Tensor(LeNet5.NUM_OUTPUT_CLASSES, LeNet5.NUM_UNITS_F6),
+                new Tensor(LeNet5.NUM_FEATURE_MAPS_C1),
+                new Tensor(LeNet5.NUM_FEATURE_MAPS_C3),
+                new Tensor(LeNet5.NUM_FEATURE_MAPS_C5),
+                new Tensor(LeNet5.NUM_UNITS_F6),
+        });
+    }
+
+    // Gradients held in tensors, in the order of tensors(). Given a network's parameters, a
+    // backward pass adds into the parameters themselves.
+    Gradients(Tensor[] tensors) {
+        weightsC1 = tensors[0];
+        weightsC3 = tensors[1];
+        weightsC5 = tensors[2];
+        weightsF6 = tensors[3];
+        weightsOutput = tensors[4];
+        biasesC1 = tensors[5];
+        biasesC3 = tensors[6];
+        biasesC5 = tensors[7];
+        biasesF6 = tensors[8];
+        all = tensors.clone();
+    }
+
+    private FloatGradients floatGradients;
+
+    FloatGradients floats() {
+        if (floatGradients == null) {
+            floatGradients = new FloatGradients();
+        }
+        return floatGradients;
+    }
+
+    public Tensor[] tensors() {
+        return all;
+    }
+
+    public void clear() {
+        for (Tensor t : all) {
+            t.fill(0.0);
+        }
+        if (floatGradients != null) {
+            floatGradients.clear();
+        }
+    }
+
+    public void add(Gradients other) {
+        for (int i = 0; i < all.length; i++) {
+            all[i].add(other.all[i]);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Compares Hogwild training with synchronous mini-batch training on MNIST. Both start from
+ * the same seeded initialization and use the same threads; after every epoch the report
+ * prints the cumulative training time, the epoch's throughput and the test accuracy.
+ *
+ * Arguments: [epochs] [threads] [batchSize] [trainSamples]. batchSize applies to the
+ * synchronous run only; Hogwild updates after every sample.
+ */
+public class HogwildReport {
+    private static final int DEFAULT_EPOCHS = 3;
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws IOException {
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EPOCHS;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+
+        Dataset all = Dataset.load(Paths.get("train-images-idx3-ubyte"), Paths.get("train-labels-idx1-ubyte"));
+        int trainSamples = args.length > 3 ? Math.min(Integer.parseInt(args[3]), all.size()) : all.size();
+        Dataset train = all.subset(0, trainSamples).withPaddedCache();
+        Dataset test = Dataset.load(Paths.get("t10k-images-idx3-ubyte"), Paths.get("t10k-labels-idx1-ubyte"));
+
+        System.out.println(train.size() + " training images, " + threads + " threads");
+        System.out.println("mode                epoch   seconds   images/s   test accuracy");
+        report("mini-batch " + batchSize, epochs, threads, train, test, (network, epoch) -> network.trainNetwork(1, batchSize, train, SEED + epoch));
+        report("Hogwild", epochs, threads, train, test, (network, epoch) -> network.trainHogwild(1, train, SEED + epoch));
+    }
+
+    private interface Trainer {
+        void trainEpoch(LeNet5 network, int epoch);
+    }
+
+    private static void report(String mode, int epochs, int threads, Dataset train, Dataset test, Trainer trainer) {
+        LeNet5 network = new LeNet5(1.0, SEED);
+        network.setNumThreads(threads);
+        network.setProgressOutput(false);
+        double seconds = 0.0;
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            long start = System.nanoTime();
+            trainer.trainEpoch(network, epoch);
+            double epochSeconds = (System.nanoTime() - start) / 1e9;
+            seconds += epochSeconds;
+            double accuracy = network.testNetwork(test);
+            System.out.println(String.format(Locale.ROOT, "%-18s %6d %9.2f %10.1f %14.2f%%",
+                    mode, epoch, seconds, train.size() / epochSeconds, 100.0 * accuracy));
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains many LeNet5 configurations at once and prunes the weak ones with asynchronous
+ * successive halving (ASHA). Every trial first trains for minEpochs and is scored on a
+ * fixed random sample of the validation set. Rung k holds the trials scored after
+ * minEpochs * reductionFactor^k epochs; whenever a worker frees up, it promotes a trial
+ * from the top 1/reductionFactor of some rung to the next one, or starts a new trial if
+ * no trial qualifies. Trials below the cut simply never get more epochs.
+ *
+ * Each trial trains on one thread and one worker runs per thread, so the search keeps
+ * numThreads cores busy without oversubscribing them. All trials read the same training
+ * and validation Dataset storage; only the parameters and workspaces are per trial.
+ */
+public final class HyperparameterSearch {
+    /** One point in the search space. epochs caps how far the trial can be promoted. */
+    public static final class Config {
+        private final double learningRate;
+        private final double initScale;
+        private final int batchSize;
+        private final int epochs;
+
+        public Config(double learningRate, double initScale, int batchSize, int epochs) {
+            if (!(learningRate > 0.0) || !(initScale > 0.0)) {
+                throw new IllegalArgumentException("learningRate and initScale must be positive: " + learningRate + ", " + initScale);
+            }
+            if (batchSize < 1 || epochs < 1) {
+                throw new IllegalArgumentException("batchSize and epochs must be at least 1: " + batchSize + ", " + epochs);
+            }
+            this.learningRate = learningRate;
+            this.initScale = initScale;
+            this.batchSize = batchSize;
+            this.epochs = epochs;
+        }
+
+        public double learningRate() {
+            return learningRate;
+        }
+
+        public double initScale() {
+            return initScale;
+        }
+
+        public int batchSize() {
+            return batchSize;
+        }
+
+        public int epochs() {
+            return epochs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "lr %.4g, init scale %.3g, batch %d, up to %d epochs", learningRate, initScale, batchSize, epochs);
+        }
+    }
+
+    /** A configuration's network and how far the search took it. */
+    public static final class Trial {
+        private final int id;
+        private final Config config;
+        private final LeNet5 network;
+        // Both written under the search's lock as each stretch of training finishes
+        private int epochsTrained;
+        private double accuracy;
+
+        private Trial(int id, Config config, long seed) {
+            this.id = id;
+            this.config = config;
+            this.network = new LeNet5(config.initScale, seed);
+            network.setLearningRate(config.learningRate);
+            network.setNumThreads(1);
+            network.setProgressOutput(false);
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public Config config() {
+            return config;
+        }
+
+        public LeNet5 network() {
+            return network;
+        }
+
+        public int epochsTrained() {
+            return epochsTrained;
+        }
+
+        /** Validation accuracy after epochsTrained epochs, on the search's sample. */
+        public double accuracy() {
+            return accuracy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Trial %d (%s): %.2f%% after %d epochs", id, config, accuracy * 100.0, epochsTrained);
+        }
+    }
+
+    // A trial to train up to rung's epoch budget
+    private static final class Job {
+        final Trial trial;
+        final int rung;
+
+        Job(Trial trial, int rung) {
+            this.trial = trial;
+            this.rung = rung;
+        }
+    }
+
+    // A trial's score on reaching a rung. Kept apart from the trial, whose accuracy moves
+    // on as it is promoted and trained further.
+    private static final class Score {
+        final Trial trial;
+        final double accuracy;
+
+        Score(Trial trial, double accuracy) {
+            this.trial = trial;
+            this.accuracy = accuracy;
+        }
+    }
+
+    private final Dataset train;
+    private final Dataset validation;
+    private int validationSamples = 5000;
+    private int reductionFactor = 3;
+    private int minEpochs = 1;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long seed = 1;
+    private boolean progressOutput = true;
+
+    // Scheduler state, guarded by this
+    private List<Config> pending;
+    private int nextConfig;
+    private List<Trial> trials;
+    private List<List<Score>> rungs;
+    private List<List<Trial>> promoted;
+    private int running;
+    private boolean failed;
+
+    public HyperparameterSearch(Dataset train, Dataset validation) {
+        this.train = train;
+        this.validation = validation;
+    }
+
+    /** Each trial is scored on this many validation images, the same sample for all trials. */
+    public void setValidationSamples(int validationSamples) {
+        if (validationSamples < 1) {
+            throw new IllegalArgumentException("validationSamples must be at least 1: " + validationSamples);
+        }
+        this.validationSamples = validationSamples;
+    }
+
+    /** Keep the top 1/reductionFactor of every rung and multiply the budget by it per rung. */
+    public void setReductionFactor(int reductionFactor) {
+        if (reductionFactor < 2) {
+            throw new IllegalArgumentException("reductionFactor must be at least 2: " + reductionFactor);
+        }
+        this.reductionFactor = reductionFactor;
+    }
+
+    /** Epochs every trial trains before its first score. */
+    public void setMinEpochs(int minEpochs) {
+        if (minEpochs < 1) {
+            throw new IllegalArgumentException("minEpochs must be at least 1: " + minEpochs);
+        }
+        this.minEpochs = minEpochs;
+    }
+
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    /** Seeds the validation sample, every trial's initialization and every shuffle. */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /** Whether run prints its progress to System.out; on by default. */
+    public void setProgressOutput(boolean enabled) {
+        this.progressOutput = enabled;
+    }
+
+    /**
+     * count configurations drawn from random: learning rate log-uniform in [1e-3, 1e-1],
+     * init scale log-uniform in [0.5, 2], batch size from 1 to 64 in powers of two and an
+     * epoch cap between half of maxEpochs and maxEpochs.
+     */
+    public static List<Config> sample(int count, int maxEpochs, Random random) {
+        if (maxEpochs < 1) {
+            throw new IllegalArgumentException("maxEpochs must be at least 1: " + maxEpochs);
+        }
+        List<Config> configs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double learningRate = Math.pow(10.0, -3.0 + 2.0 * random.nextDouble());
+            double initScale = Math.pow(2.0, -1.0 + 2.0 * random.nextDouble());
+            int batchSize = 1 << random.nextInt(7);
+            int epochs = Math.max(1, maxEpochs - random.nextInt(Math.max(1, maxEpochs / 2)));
+            configs.add(new Config(learningRate, initScale, batchSize, epochs));
+        }
+        return configs;
+    }
+
+    /**
+     * Runs the search over configs and returns every trial, the furthest trained first and
+     * by validation accuracy within the same number of epochs.
+     */
+    public List<Trial> run(List<Config> configs) {
+        if (configs.isEmpty()) {
+            throw new IllegalArgumentException("No configurations to search");
+        }
+        // Pad once here, not once per trial: views share their dataset's cache
+        Dataset trainData = train.hasPaddedCache() ? train : train.withPaddedCache();
+        Dataset validationSample = validation.shuffled(new Random(seed)).subset(0, Math.min(validationSamples, validation.size()));
+
+        synchronized (this) {
+            pending = new ArrayList<>(configs);
+            nextConfig = 0;
+            trials = new ArrayList<>();
+            rungs = new ArrayList<>();
+            promoted = new ArrayList<>();
+            running = 0;
+            failed = false;
+        }
+
+        int numWorkers = Math.max(1, Math.min(numThreads, configs.size()));
+        progress("Searching " + configs.size() + " configurations on " + numWorkers + " threads");
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+        try {
+            List<Future<?>> workers = new ArrayList<>(numWorkers);
+            for (int w = 0; w < numWorkers; w++) {
+                workers.add(pool.submit(() -> work(trainData, validationSample)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Trial> result;
+        synchronized (this) {
+            result = new ArrayList<>(trials);
+        }
+        // ASHA's answer is the best of the furthest-trained trials; a lucky score on a low rung
+        // is not comparable with one that survived more epochs of pruning
+        result.sort(Comparator.comparingInt(Trial::epochsTrained).thenComparingDouble(Trial::accuracy).reversed());
+        progress("Search complete, best: " + result.get(0));
+        return result;
+    }
+
+    private void work(Dataset trainData, Dataset validationSample) {
+        Job job;
+        while ((job = nextJob()) != null) {
+            Trial trial = job.trial;
+            int epochs;
+            synchronized (this) {
+                epochs = budget(trial, job.rung) - trial.epochsTrained;
+            }
+            boolean succeeded = false;
+            double accuracy = 0.0;
+            try {
+                // A different shuffle for every stretch, so a promoted trial does not replay
+                // the order it has already seen
+                trial.network.trainNetwork(epochs, trial.config.batchSize, trainData, seed + 31L * trial.id + budget(trial, job.rung));
+                accuracy = trial.network.testNetwork(validationSample);
+                succeeded = true;
+            } finally {
+                finish(job, epochs, accuracy, succeeded);
+            }
+        }
+    }
+
+    // Epochs trial should have trained for once it reaches rung
+    private int budget(Trial trial, int rung) {
+        long epochs = minEpochs;
+        for (int k = 0; k < rung && epochs < trial.config.epochs; k++) {
+            epochs *= reductionFactor;
+        }
+        return (int) Math.min(epochs, trial.config.epochs);
+    }
+
+    // The next promotion, highest rung first, else a new trial. Blocks while neither is
+    // available but running trials may still make one; null once the search is over.
+    private synchronized Job nextJob() {
+        while (!failed) {
+            for (int k = rungs.size() - 1; k >= 0; k--) {
+                List<Score> ranked = new ArrayList<>(rungs.get(k));
+                ranked.sort(Comparator.comparingDouble((Score score) -> score.accuracy).reversed());
+                int keep = ranked.size() / reductionFactor;
+                for (int i = 0; i < keep; i++) {
+                    Trial trial = ranked.get(i).trial;
+                    if (!promoted.get(k).contains(trial) && budget(trial, k + 1) > trial.epochsTrained) {
+                        promoted.get(k).add(trial);
+                        running++;
+                        return new Job(trial, k + 1);
+                    }
+                }
+            }
+            if (nextConfig < pending.size()) {
+                int id = nextConfig++;
+                Trial trial = new Trial(id, pending.get(id), seed + id);
+                trials.add(trial);
+                running++;
+                return new Job(trial, 0);
+            }
+            if (running == 0) {
+                return null;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Search interrupted", e);
+            }
+        }
+        return null;
+    }
+
+    private synchronized void finish(Job job, int epochs, double accuracy, boolean succeeded) {
+        running--;
+        if (succeeded) {
+            Trial trial = job.trial;
+            trial.epochsTrained += epochs;
+            trial.accuracy = accuracy;
+            while (rungs.size() <= job.rung) {
+                rungs.add(new ArrayList<>());
+                promoted.add(new ArrayList<>());
+            }
+            rungs.get(job.rung).add(new Score(trial, accuracy));
+            progress("Rung " + job.rung + ": " + trial);
+        } else {
+            failed = true;
+        }
+        notifyAll();
+    }
+
+    private void progress(String message) {
+        if (progressOutput) {
+            System.out.println(message);
+        }
+    }
+}
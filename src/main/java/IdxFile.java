@@ -0,0 +1,207 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read-only view of an IDX file of unsigned bytes, the format the MNIST files ship in.
+ *
+ * Plain files are memory-mapped, so opening one costs a header parse and every item is a
+ * zero-copy view into the page cache. Files ending in .gz are stream-decoded once into a
+ * direct buffer, which keeps the decoded data off the Java heap as well.
+ */
+public final class IdxFile {
+    private static final int UNSIGNED_BYTE = 0x08;
+    private static final int MAX_DIMENSIONS = 3;
+
+    private final Path path;
+    private final int[] dimensions;
+    private final int itemSize;
+    private final ByteBuffer data;
+
+    private IdxFile(Path path, int[] dimensions, ByteBuffer data) {
+        this.path = path;
+        this.dimensions = dimensions;
+        int size = 1;
+        for (int d = 1; d < dimensions.length; d++) {
+            size *= dimensions[d];
+        }
+        this.itemSize = size;
+        this.data = data;
+    }
+
+    public static IdxFile open(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(".gz")) {
+            return decompress(path);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, 4 + 4L * MAX_DIMENSIONS));
+            int[] dimensions = readHeader(path, header);
+            long headerSize = 4 + 4L * dimensions.length;
+            long dataSize = dataSize(path, dimensions);
+            if (fileSize != headerSize + dataSize) {
+                throw new IOException(path + ": expected " + (headerSize + dataSize) + " bytes but the file has " + fileSize);
+            }
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, dataSize);
+            return new IdxFile(path, dimensions, data);
+        }
+    }
+
+    public static IdxFile openImages(Path path) throws IOException {
+        IdxFile file = open(path);
+        if (file.dimensions.length != 3) {
+            throw new IOException(path + ": expected an image file with 3 dimensions but found " + file.dimensions.length);
+        }
+        return file;
+    }
+
+    public static IdxFile openLabels(Path path) throws IOException {
+        IdxFile file = open(path);
+        if (file.dimensions.length != 1) {
+            throw new IOException(path + ": expected a label file with 1 dimension but found " + file.dimensions.length);
+        }
+        return file;
+    }
+
+    private static IdxFile decompress(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 1 << 16)) {
+            int numDimensions = checkMagic(path, ByteBuffer.wrap(readFully(path, in, 4)).getInt());
+            int[] dimensions = readDimensions(path, ByteBuffer.wrap(readFully(path, in, 4 * numDimensions)), numDimensions);
+
+            long dataSize = dataSize(path, dimensions);
+            ByteBuffer data = ByteBuffer.allocateDirect((int) dataSize);
+            byte[] chunk = new byte[1 << 16];
+            while (data.hasRemaining()) {
+                int n = in.read(chunk, 0, Math.min(chunk.length, data.remaining()));
+                if (n < 0) {
+                    throw new EOFException(path + ": data ends " + data.remaining() + " bytes early");
+                }
+                data.put(chunk, 0, n);
+            }
+            if (in.read() >= 0) {
+                throw new IOException(path + ": trailing data after " + dataSize + " bytes");
+            }
+            data.flip();
+            return new IdxFile(path, dimensions, data.asReadOnlyBuffer());
+        }
+    }
+
+    private static byte[] readFully(Path path, InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException(path + ": truncated IDX header");
+        }
+        return bytes;
+    }
+
+    // Magic number: two zero bytes, the element type, then the number of dimensions
+    private static int checkMagic(Path path, int magic) throws IOException {
+        if ((magic >>> 16) != 0) {
+            throw new IOException(path + ": not an IDX file (magic number 0x" + Integer.toHexString(magic) + ")");
+        }
+        int type = (magic >>> 8) & 0xFF;
+        if (type != UNSIGNED_BYTE) {
+            throw new IOException(path + ": unsupported IDX element type 0x" + Integer.toHexString(type) + ", only unsigned bytes are supported");
+        }
+        int numDimensions = magic & 0xFF;
+        if (numDimensions < 1 || numDimensions > MAX_DIMENSIONS) {
+            throw new IOException(path + ": unsupported number of IDX dimensions " + numDimensions);
+        }
+        return numDimensions;
+    }
+
+    // The magic number followed by one big-endian int per dimension
+    private static int[] readHeader(Path path, ByteBuffer header) throws IOException {
+        if (header.remaining() < 4) {
+            throw new EOFException(path + ": truncated IDX header");
+        }
+        int numDimensions = checkMagic(path, header.getInt());
+        if (header.remaining() < 4 * numDimensions) {
+            throw new EOFException(path + ": truncated IDX header");
+        }
+        return readDimensions(path, header, numDimensions);
+    }
+
+    private static int[] readDimensions(Path path, ByteBuffer header, int numDimensions) throws IOException {
+        int[] dimensions = new int[numDimensions];
+        for (int d = 0; d < numDimensions; d++) {
+            dimensions[d] = header.getInt();
+            if (dimensions[d] < 0) {
+                throw new IOException(path + ": negative size " + dimensions[d] + " for dimension " + d);
+            }
+        }
+        return dimensions;
+    }
+
+    private static long dataSize(Path path, int[] dimensions) throws IOException {
+        long size = 1;
+        for (int dimension : dimensions) {
+            size *= dimension;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + ": " + size + " bytes is too large for one buffer");
+        }
+        return size;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int numDimensions() {
+        return dimensions.length;
+    }
+
+    public int dimension(int d) {
+        return dimensions[d];
+    }
+
+    /** Number of items along the first dimension: images in an image file, labels in a label file. */
+    public int count() {
+        return dimensions[0];
+    }
+
+    /** Bytes per item: rows * columns for images, 1 for labels. */
+    public int itemSize() {
+        return itemSize;
+    }
+
+    /** The whole data section as a read-only buffer positioned at the first item. */
+    public ByteBuffer data() {
+        return data.duplicate();
+    }
+
+    /** Zero-copy read-only view of one item's bytes. */
+    public ByteBuffer item(int index) {
+        checkIndex(index);
+        return data.slice(index * itemSize, itemSize);
+    }
+
+    /** Byte offset of an item within data(). */
+    public int offset(int index) {
+        checkIndex(index);
+        return index * itemSize;
+    }
+
+    /** The unsigned byte at position within an item. */
+    public int get(int index, int position) {
+        return data.get(offset(index) + position) & 0xFF;
+    }
+
+    public void copyItem(int index, byte[] destination, int destinationOffset) {
+        data.get(offset(index), destination, destinationOffset, itemSize);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= dimensions[0]) {
+            throw new IndexOutOfBoundsException("Item " + index + " out of range for " + dimensions[0] + " items in " + path);
+        }
+    }
+}
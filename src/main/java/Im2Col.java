@@ -0,0 +1,133 @@
+public final class Im2Col {
+    private Im2Col() {
+    }
+
+    // cols[(c * kernel + fi) * kernel + fj][i * outputSize + j] = input[c][i + fi][j + fj]
+    public static void im2col(double[] input, int channels, int inputSize, int kernel, double[] cols) {
+        int outputSize = inputSize - kernel + 1;
+        int outputArea = outputSize * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * outputArea;
+                    for (int i = 0; i < outputSize; i++) {
+                        System.arraycopy(input, channelBase + (i + fi) * inputSize + fj, cols, colBase + i * outputSize, outputSize);
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    // im2col restricted to output rows [firstRow, firstRow + numRows):
+    // cols[(c * kernel + fi) * kernel + fj][(i - firstRow) * outputSize + j] = input[c][i + fi][j + fj]
+    public static void im2colRows(double[] input, int channels, int inputSize, int kernel, int firstRow, int numRows, double[] cols) {
+        int outputSize = inputSize - kernel + 1;
+        int bandArea = numRows * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * bandArea;
+                    for (int i = 0; i < numRows; i++) {
+                        System.arraycopy(input, channelBase + (firstRow + i + fi) * inputSize + fj, cols, colBase + i * outputSize, outputSize);
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    // output[c][i + fi][j + fj] += cols[(c * kernel + fi) * kernel + fj][i * outputSize + j]
+    public static void col2im(double[] cols, int channels, int inputSize, int kernel, double[] output) {
+        int outputSize = inputSize - kernel + 1;
+        int outputArea = outputSize * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * outputArea;
+                    for (int i = 0; i < outputSize; i++) {
+                        int outRow = channelBase + (i + fi) * inputSize + fj;
+                        int colRow = colBase + i * outputSize;
+                        for (int j = 0; j < outputSize; j++) {
+                            output[outRow + j] += cols[colRow + j];
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    // cols[(c * kernel + fi) * kernel + fj][i * outputSize + j] = input[c][i + fi][j + fj]
+    public static void im2col(float[] input, int channels, int inputSize, int kernel, float[] cols) {
+        int outputSize = inputSize - kernel + 1;
+        int outputArea = outputSize * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * outputArea;
+                    for (int i = 0; i < outputSize; i++) {
+                        System.arraycopy(input, channelBase + (i + fi) * inputSize + fj, cols, colBase + i * outputSize, outputSize);
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    // output[c][i + fi][j + fj] += cols[(c * kernel + fi) * kernel + fj][i * outputSize + j]
+    public static void col2im(float[] cols, int channels, int inputSize, int kernel, float[] output) {
+        int outputSize = inputSize - kernel + 1;
+        int outputArea = outputSize * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * outputArea;
+                    for (int i = 0; i < outputSize; i++) {
+                        int outRow = channelBase + (i + fi) * inputSize + fj;
+                        int colRow = colBase + i * outputSize;
+                        for (int j = 0; j < outputSize; j++) {
+                            output[outRow + j] += cols[colRow + j];
+                        }
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+
+    // cols[(c * kernel + fi) * kernel + fj][i * outputSize + j] = input[c][i + fi][j + fj]
+    public static void im2col(int[] input, int channels, int inputSize, int kernel, int[] cols) {
+        int outputSize = inputSize - kernel + 1;
+        int outputArea = outputSize * outputSize;
+
+        int row = 0;
+        for (int c = 0; c < channels; c++) {
+            int channelBase = c * inputSize * inputSize;
+            for (int fi = 0; fi < kernel; fi++) {
+                for (int fj = 0; fj < kernel; fj++) {
+                    int colBase = row * outputArea;
+                    for (int i = 0; i < outputSize; i++) {
+                        System.arraycopy(input, channelBase + (i + fi) * inputSize + fj, cols, colBase + i * outputSize, outputSize);
+                    }
+                    row++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP front end for a trained LeNet5 on localhost.
+ *
+ * POST /classify takes one 28x28 image as 784 unsigned bytes, row-major as in the IDX
+ * files, and answers {"digit": d, "outputs": [...]}. GET /metrics reports request counts,
+ * batch sizes, p50/p99/max latency and the current and peak queue depth.
+ *
+ * Each connection is handled on its own virtual thread where the JDK has them (21+) and on
+ * a cached platform thread otherwise. Handlers only enqueue their request and wait; one
+ * batcher thread takes the first waiting request, keeps collecting until it has
+ * maxBatchSize of them or maxWait has passed since the first arrived, and splits the batch
+ * over a fixed pool of compute threads. Under light load a request waits at most maxWait;
+ * under heavy load batches fill at once and the compute threads never oversubscribe the
+ * CPU. When the queue is full, requests are turned away with 503 instead of piling up.
+ *
+ * With a PredictionCache, an image already answered under the current model version is
+ * answered again on its handler thread without queueing; /metrics then also reports the
+ * cache's hits, misses, evictions and size.
+ */
+public final class InferenceServer implements AutoCloseable {
+    private static final int IMAGE_BYTES = LeNet5.IMAGE_SIZE * LeNet5.IMAGE_SIZE;
+    private static final int QUEUE_BATCHES = 64;
+
+    private final LeNet5 model;
+    private final PredictionCache cache;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int numThreads;
+    private final BlockingQueue<Request> queue;
+    private final ExecutorService connections;
+    private final ExecutorService compute;
+    private final Thread batcher;
+    private final HttpServer server;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batched = new AtomicLong();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private volatile boolean running = true;
+
+    private static final class Request {
+        final byte[] pixels;
+        final long arrivalNanos;
+        // Read before the cache lookup, so a miss is stored under the version it was looked up at
+        final long modelVersion;
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+        Request(byte[] pixels, long arrivalNanos, long modelVersion) {
+            this.pixels = pixels;
+            this.arrivalNanos = arrivalNanos;
+            this.modelVersion = modelVersion;
+        }
+    }
+
+    private InferenceServer(LeNet5 model, int port, int maxBatchSize, long maxWaitMicros, int numThreads, int cacheSize) throws IOException {
+        this.model = model;
+        this.cache = cacheSize > 0 ? new PredictionCache(model, cacheSize) : null;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.numThreads = numThreads;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_BATCHES * maxBatchSize);
+        this.connections = connectionExecutor();
+        this.compute = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "inference-compute");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batcher = new Thread(this::batchLoop, "inference-batcher");
+        this.batcher.setDaemon(true);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(connections);
+        this.server.createContext("/classify", this::classify);
+        this.server.createContext("/metrics", this::metrics);
+    }
+
+    /**
+     * Serves model on localhost:port, 0 for any free port. maxBatchSize caps how many
+     * requests one batch coalesces and maxWaitMicros how long the first request of a batch
+     * waits for company; numThreads compute threads run each batch.
+     */
+    public static InferenceServer start(LeNet5 model, int port, int maxBatchSize, long maxWaitMicros, int numThreads) throws IOException {
+        return start(model, port, maxBatchSize, maxWaitMicros, numThreads, 0);
+    }
+
+    /** As above, caching the outputs of up to cacheSize distinct images; 0 disables the cache. */
+    public static InferenceServer start(LeNet5 model, int port, int maxBatchSize, long maxWaitMicros, int numThreads, int cacheSize) throws IOException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+        }
+        if (maxWaitMicros < 0) {
+            throw new IllegalArgumentException("maxWaitMicros must not be negative: " + maxWaitMicros);
+        }
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+        }
+        InferenceServer inferenceServer = new InferenceServer(model, port, maxBatchSize, maxWaitMicros, numThreads, cacheSize);
+        inferenceServer.batcher.start();
+        inferenceServer.server.start();
+        return inferenceServer;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** The prediction cache, or null when the server runs without one. */
+    public PredictionCache cache() {
+        return cache;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /** p50, p99 and max request latency from arrival to result so far, in nanoseconds. */
+    public long[] latencyNanos() {
+        synchronized (latency) {
+            return new long[]{latency.quantileNanos(0.5), latency.quantileNanos(0.99), latency.maxNanos()};
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        server.stop(0);
+        batcher.interrupt();
+        compute.shutdownNow();
+        connections.shutdownNow();
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Server closed"));
+        }
+    }
+
+    private void classify(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"error\": \"POST a 28x28 image as " + IMAGE_BYTES + " bytes\"}");
+                return;
+            }
+            byte[] pixels;
+            try (InputStream body = exchange.getRequestBody()) {
+                pixels = body.readNBytes(IMAGE_BYTES + 1);
+            }
+            if (pixels.length != IMAGE_BYTES) {
+                respond(exchange, 400, "{\"error\": \"expected " + IMAGE_BYTES + " bytes but got " + (pixels.length > IMAGE_BYTES ? "more" : pixels.length) + "\"}");
+                return;
+            }
+
+            long arrivalNanos = System.nanoTime();
+            long modelVersion = model.modelVersion();
+            double[] outputs = cache != null ? cache.lookup(pixels, 0) : null;
+            if (outputs != null) {
+                requests.incrementAndGet();
+                recordLatency(arrivalNanos);
+            } else {
+                Request request = new Request(pixels, arrivalNanos, modelVersion);
+                if (!running || !queue.offer(request)) {
+                    rejected.incrementAndGet();
+                    respond(exchange, 503, "{\"error\": \"queue full\"}");
+                    return;
+                }
+                requests.incrementAndGet();
+                peakQueueDepth.accumulateAndGet(queue.size(), Math::max);
+
+                try {
+                    outputs = request.result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    respond(exchange, 503, "{\"error\": \"interrupted\"}");
+                    return;
+                } catch (ExecutionException e) {
+                    respond(exchange, 500, "{\"error\": \"" + e.getCause() + "\"}");
+                    return;
+                }
+            }
+
+            StringBuilder json = new StringBuilder("{\"digit\": ").append(argmax(outputs)).append(", \"outputs\": [");
+            for (int i = 0; i < outputs.length; i++) {
+                json.append(i == 0 ? "" : ", ").append(outputs[i]);
+            }
+            respond(exchange, 200, json.append("]}").toString());
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long count;
+            double mean;
+            long[] quantiles = latencyNanos();
+            synchronized (latency) {
+                count = latency.count();
+                mean = latency.meanNanos();
+            }
+            long batchCount = batches.get();
+            String json = String.format("{\"requests\": %d, \"completed\": %d, \"rejected\": %d, \"batches\": %d, \"meanBatchSize\": %.2f, "
+                            + "\"latencyMeanMicros\": %.1f, \"latencyP50Micros\": %.1f, \"latencyP99Micros\": %.1f, \"latencyMaxMicros\": %.1f, "
+                            + "\"queueDepth\": %d, \"peakQueueDepth\": %d, \"maxBatchSize\": %d, \"maxWaitMicros\": %d",
+                    requests.get(), count, rejected.get(), batchCount, batchCount == 0 ? 0.0 : (double) batched.get() / batchCount,
+                    mean / 1e3, quantiles[0] / 1e3, quantiles[1] / 1e3, quantiles[2] / 1e3,
+                    queue.size(), peakQueueDepth.get(), maxBatchSize, TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+            if (cache != null) {
+                json += String.format(", \"cacheHits\": %d, \"cacheMisses\": %d, \"cacheEvictions\": %d, \"cacheInvalidations\": %d, "
+                                + "\"cacheSize\": %d, \"cacheCapacity\": %d",
+                        cache.hits(), cache.misses(), cache.evictions(), cache.invalidations(), cache.size(), cache.capacity());
+            }
+            respond(exchange, 200, json + "}");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void batchLoop() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = first.arrivalNanos + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    // Take whatever is already waiting, then wait out the rest of maxWait
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                runBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(new IllegalStateException("Server closed"));
+            }
+        }
+    }
+
+    private void runBatch(List<Request> batch) throws InterruptedException {
+        batches.incrementAndGet();
+        batched.addAndGet(batch.size());
+        int numShards = Math.min(numThreads, batch.size());
+        int shardSize = (batch.size() + numShards - 1) / numShards;
+        List<Callable<Void>> shards = new ArrayList<>(numShards);
+        for (int start = 0; start < batch.size(); start += shardSize) {
+            List<Request> shard = batch.subList(start, Math.min(start + shardSize, batch.size()));
+            shards.add(() -> {
+                for (Request request : shard) {
+                    try {
+                        double[] outputs = model.predict(request.pixels, 0);
+                        if (cache != null) {
+                            cache.store(request.pixels, 0, request.modelVersion, outputs);
+                        }
+                        recordLatency(request.arrivalNanos);
+                        request.result.complete(outputs);
+                    } catch (RuntimeException e) {
+                        request.result.completeExceptionally(e);
+                    }
+                }
+                return null;
+            });
+        }
+        compute.invokeAll(shards);
+    }
+
+    private void recordLatency(long arrivalNanos) {
+        long elapsed = System.nanoTime() - arrivalNanos;
+        synchronized (latency) {
+            latency.record(elapsed);
+        }
+    }
+
+    private static int argmax(double[] outputs) {
+        int best = 0;
+        for (int i = 1; i < outputs.length; i++) {
+            if (outputs[i] > outputs[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Virtual threads are final in JDK 21; looked up reflectively so this still builds for 17
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "inference-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Usage: InferenceServer [checkpoint [port [maxBatchSize [maxWaitMicros [cacheSize]]]]] */
+    public static void main(String[] args) throws IOException {
+        Path checkpoint = Paths.get(args.length > 0 ? args[0] : "lenet5.ckpt");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        long maxWaitMicros = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+        int cacheSize = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+
+        LeNet5 model = LeNet5.load(checkpoint);
+        InferenceServer server = start(model, port, maxBatchSize, maxWaitMicros, Runtime.getRuntime().availableProcessors(), cacheSize);
+        System.out.println("Serving " + checkpoint + " on http://localhost:" + server.port() + "/classify (batches of up to "
+                + maxBatchSize + ", waiting at most " + maxWaitMicros + "us, caching up to " + cacheSize + " images)");
+    }
+}
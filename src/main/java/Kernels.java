@@ -0,0 +1,40 @@
+public interface Kernels {
+    Kernels INSTANCE = select();
+
+    String name();
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    // y[j] += alpha * x[j]
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    // y_r[j] += alpha_r * x[j] for the four rows starting at y0..y3
+    void axpy4(double alpha0, double alpha1, double alpha2, double alpha3, double[] x, int xOffset,
+               double[] y, int y0, int y1, int y2, int y3, int length);
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    // Same as dot but accumulates the float products in double precision
+    double dotAccurate(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    void axpy4(float alpha0, float alpha1, float alpha2, float alpha3, float[] x, int xOffset,
+               float[] y, int y0, int y1, int y2, int y3, int length);
+
+    void axpy(int alpha, int[] x, int xOffset, int[] y, int yOffset, int length);
+
+    // Same as axpy but widens the int8 x to int before the multiply
+    void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length);
+
+    private static Kernels select() {
+        if (!"scalar".equals(System.getProperty("lenet5.kernels"))) {
+            try {
+                return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Built without the vector profile or run without --add-modules jdk.incubator.vector
+            }
+        }
+        return new ScalarKernels();
+    }
+}
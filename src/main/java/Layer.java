@@ -0,0 +1,9 @@
+public enum Layer {
+    C1,
+    S2,
+    C3,
+    S4,
+    C5,
+    F6,
+    OUTPUT
+}
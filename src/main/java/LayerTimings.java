@@ -0,0 +1,90 @@
+/**
+ * Forward and backward latency histograms for every layer, plus whole-pass histograms.
+ *
+ * The double pipeline records each layer; S2's backward step runs inside C1's, so its
+ * backward histogram stays empty, and under FUSED_GEMM so do the S2 and S4 forward
+ * histograms. The float pipeline only records whole passes.
+ */
+public final class LayerTimings {
+    private static final Layer[] LAYERS = Layer.values();
+
+    private final LatencyHistogram[] forward = new LatencyHistogram[LAYERS.length];
+    private final LatencyHistogram[] backward = new LatencyHistogram[LAYERS.length];
+    private final LatencyHistogram forwardPass = new LatencyHistogram();
+    private final LatencyHistogram backwardPass = new LatencyHistogram();
+
+    public LayerTimings() {
+        for (int l = 0; l < LAYERS.length; l++) {
+            forward[l] = new LatencyHistogram();
+            backward[l] = new LatencyHistogram();
+        }
+    }
+
+    public LatencyHistogram forward(Layer layer) {
+        return forward[layer.ordinal()];
+    }
+
+    public LatencyHistogram backward(Layer layer) {
+        return backward[layer.ordinal()];
+    }
+
+    public LatencyHistogram forwardPass() {
+        return forwardPass;
+    }
+
+    public LatencyHistogram backwardPass() {
+        return backwardPass;
+    }
+
+    // The record methods take the step's start time and return the current time, which is
+    // the next step's start
+    long recordForward(Layer layer, long start) {
+        long now = System.nanoTime();
+        forward[layer.ordinal()].record(now - start);
+        return now;
+    }
+
+    long recordBackward(Layer layer, long start) {
+        long now = System.nanoTime();
+        backward[layer.ordinal()].record(now - start);
+        return now;
+    }
+
+    void recordForwardPass(long start) {
+        forwardPass.record(System.nanoTime() - start);
+    }
+
+    void recordBackwardPass(long start) {
+        backwardPass.record(System.nanoTime() - start);
+    }
+
+    public void add(LayerTimings other) {
+        for (int l = 0; l < LAYERS.length; l++) {
+            forward[l].add(other.forward[l]);
+            backward[l].add(other.backward[l]);
+        }
+        forwardPass.add(other.forwardPass);
+        backwardPass.add(other.backwardPass);
+    }
+
+    public void clear() {
+        for (int l = 0; l < LAYERS.length; l++) {
+            forward[l].clear();
+            backward[l].clear();
+        }
+        forwardPass.clear();
+        backwardPass.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("forward pass  ").append(forwardPass).append('\n');
+        sb.append("backward pass ").append(backwardPass).append('\n');
+        for (Layer layer : LAYERS) {
+            sb.append(String.format("%-6s fwd ", layer)).append(forward(layer)).append('\n');
+            sb.append(String.format("%-6s bwd ", layer)).append(backward(layer)).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -1,175 +1,932 @@
-import java.util.Arrays;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LeNet5 {
-    private static final int PADDING = 2;
-    private static final int NUM_FEATURE_MAPS_C1 = 6;
-    private static final int FILTER_SIZE_C1 = 5;
-    private static final int POOL_SIZE_S2 = 2;
-    private static final int STRIDE_S2 = 2;
-    private static final int NUM_FEATURE_MAPS_C3 = 16;
-    private static final int FILTER_SIZE_C3 = 5;
-    private static final int POOL_SIZE_S4 = 2;
-    private static final int STRIDE_S4 = 2;
-    private static final int NUM_FEATURE_MAPS_C5 = 120;
-    private static final int FILTER_SIZE_C5 = 5;
-    private static final int NUM_UNITS_F6 = 84;
-    private static final int NUM_OUTPUT_CLASSES = 10;
-
-    private double[][][] weightsC1 = new double[NUM_FEATURE_MAPS_C1][FILTER_SIZE_C1][FILTER_SIZE_C1];
-    private double[][][][] weightsC3 = new double[NUM_FEATURE_MAPS_C3][NUM_FEATURE_MAPS_C1][FILTER_SIZE_C3][FILTER_SIZE_C3];
-    private double[][][][] weightsC5 = new double[NUM_FEATURE_MAPS_C5][NUM_FEATURE_MAPS_C3][FILTER_SIZE_C5][FILTER_SIZE_C5];
-    private double[][] weightsF6 = new double[NUM_UNITS_F6][NUM_FEATURE_MAPS_C5];
-    private double[][] weightsOutput = new double[NUM_OUTPUT_CLASSES][NUM_UNITS_F6];
-    private double[] biasesC1 = new double[NUM_FEATURE_MAPS_C1];
-    private double[] biasesC3 = new double[NUM_FEATURE_MAPS_C3];
-    private double[] biasesC5 = new double[NUM_FEATURE_MAPS_C5];
-    private double[] biasesF6 = new double[NUM_UNITS_F6];
-
-    private int[][] input;
-    private double[][][] c1Output;
-    private double[][][] s2Output;
-    private double[][][] c3Output;
-    private double[][][] s4Output;
-    private double[] c5Output;
-    private double[] f6Output;
+    static final int PADDING = 2;
+    static final int NUM_FEATURE_MAPS_C1 = 6;
+    static final int FILTER_SIZE_C1 = 5;
+    static final int POOL_SIZE_S2 = 2;
+    static final int STRIDE_S2 = 2;
+    static final int NUM_FEATURE_MAPS_C3 = 16;
+    static final int FILTER_SIZE_C3 = 5;
+    static final int POOL_SIZE_S4 = 2;
+    static final int STRIDE_S4 = 2;
+    static final int NUM_FEATURE_MAPS_C5 = 120;
+    static final int FILTER_SIZE_C5 = 5;
+    static final int NUM_UNITS_F6 = 84;
+    static final int NUM_OUTPUT_CLASSES = 10;
+    static final int IMAGE_SIZE = 28;
+    static final int INPUT_SIZE = IMAGE_SIZE + 2 * PADDING;
+    // Pixels enter the network as value * PIXEL_SCALE, in [0, 1]. Computed in float on every
+    // path, so the double and float pipelines and the padded cache all see the same inputs.
+    static final float PIXEL_SCALE = 1.0f / 255.0f;
+    static final int OUTPUT_SIZE_C1 = INPUT_SIZE - FILTER_SIZE_C1 + 1;
+    static final int OUTPUT_SIZE_S2 = OUTPUT_SIZE_C1 / POOL_SIZE_S2;
+    static final int OUTPUT_SIZE_C3 = OUTPUT_SIZE_S2 - FILTER_SIZE_C3 + 1;
+    static final int OUTPUT_SIZE_S4 = OUTPUT_SIZE_C3 / POOL_SIZE_S4;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    static final int[][] C3_CONNECTIVITY = {
+            {0, 1, 2},
+            {1, 2, 3},
+            {2, 3, 4},
+            {3, 4, 5},
+            {4, 5, 0},
+            {5, 0, 1}, // First 6
+            {0, 1, 2, 3},
+            {1, 2, 3, 4},
+            {2, 3, 4, 5},
+            {3, 4, 5, 0},
+            {4, 5, 0, 1},
+            {5, 0, 1, 2}, // Second 6
+            {0, 1, 3, 4},
+            {1, 2, 4, 5},
+            {2, 3, 5, 0}, // Next 3
+            {0, 1, 2, 3, 4, 5} // Last
+    };
+    // C3_CONNECTIVITY flattened for the packed C3 weights, which store only connected map
+    // pairs: filter f owns connections C3_FIRST_CONNECTION[f] up to C3_FIRST_CONNECTION[f + 1],
+    // and connection k applies the 5x5 filter at weightsC3.offset(k) to input map C3_INPUT_MAP[k]
+    static final int[] C3_FIRST_CONNECTION = firstConnections(C3_CONNECTIVITY);
+    static final int NUM_CONNECTIONS_C3 = C3_FIRST_CONNECTION[NUM_FEATURE_MAPS_C3];
+    static final int[] C3_INPUT_MAP = inputMaps(C3_CONNECTIVITY);
+    private static final int FILTER_AREA_C3 = FILTER_SIZE_C3 * FILTER_SIZE_C3;
+    private static final int TEST_SPLIT_THRESHOLD = 256;
+    // S2/S4 rows produced per band by the FUSED_GEMM kernels; must divide OUTPUT_SIZE_S2/S4.
+    // Half of C1 per band keeps its columns in L2; C3 is small enough to do in one.
+    static final int POOLED_ROWS_PER_BAND_C1 = 7;
+    static final int POOLED_ROWS_PER_BAND_C3 = 5;
+
+    private final Tensor weightsC1 = new Tensor(NUM_FEATURE_MAPS_C1, FILTER_SIZE_C1, FILTER_SIZE_C1);
+    private final Tensor weightsC3 = new Tensor(NUM_CONNECTIONS_C3, FILTER_SIZE_C3, FILTER_SIZE_C3);
+    private final Tensor weightsC5 = new Tensor(NUM_FEATURE_MAPS_C5, NUM_FEATURE_MAPS_C3, FILTER_SIZE_C5, FILTER_SIZE_C5);
+    private final Tensor weightsF6 = new Tensor(NUM_UNITS_F6, NUM_FEATURE_MAPS_C5);
+    private final Tensor weightsOutput = new Tensor(NUM_OUTPUT_CLASSES, NUM_UNITS_F6);
+    private final Tensor biasesC1 = new Tensor(NUM_FEATURE_MAPS_C1);
+    private final Tensor biasesC3 = new Tensor(NUM_FEATURE_MAPS_C3);
+    private final Tensor biasesC5 = new Tensor(NUM_FEATURE_MAPS_C5);
+    private final Tensor biasesF6 = new Tensor(NUM_UNITS_F6);
+
+    private final Tensor[] parameters = {
+            weightsC1, weightsC3, weightsC5, weightsF6, weightsOutput,
+            biasesC1, biasesC3, biasesC5, biasesF6
+    };
+
+    // weightsC3 expanded to the dense filters x (maps * 25) matrix the C3 GEMMs multiply by,
+    // with zeros for unconnected map pairs; kept current while C3 runs a GEMM algorithm
+    private final Tensor weightsC3Matrix = new Tensor(NUM_FEATURE_MAPS_C3, NUM_FEATURE_MAPS_C1 * FILTER_AREA_C3);
+    // G g G^T of every C1 and C3 filter, laid out [36][filters][input maps] and kept current
+    // with the weights while either layer runs WINOGRAD. Unconnected C3 pairs stay zero.
+    private final Tensor winogradWeightsC1 = new Tensor(Winograd.TILE_AREA, NUM_FEATURE_MAPS_C1, 1);
+    private final Tensor winogradWeightsC3 = new Tensor(Winograd.TILE_AREA, NUM_FEATURE_MAPS_C3, NUM_FEATURE_MAPS_C1);
+    // Bumped after every change that can change predict's outputs; see modelVersion()
+    private final AtomicLong modelVersion = new AtomicLong();
+
+    private final Workspace workspace = new Workspace();
+    private final ThreadLocal<Workspace> inferenceWorkspaces = ThreadLocal.withInitial(Workspace::new);
+    private final Gradients gradients = new Gradients();
 
     private double learningRate;
+    private Optimizer optimizer = Optimizer.sgd();
+    private LearningRateSchedule learningRateSchedule = LearningRateSchedule.constant();
+    // Fractional epochs into the current run, where learningRateSchedule is evaluated
+    private double scheduleEpoch;
+    private EarlyStopping earlyStopping;
+    private Dataset testSampling;
+    private int testSamplingSize;
+    private long testSamplingSeed;
+    private volatile EpochMetrics lastEpochMetrics;
+    private int numThreads;
+    private ForkJoinPool testPool;
+    private ConvolutionAlgorithm convolutionAlgorithm = ConvolutionAlgorithm.IM2COL_GEMM;
+    // Per-layer choices for C1 and C3; C5 follows convolutionAlgorithm
+    private ConvolutionAlgorithm c1Algorithm = ConvolutionAlgorithm.IM2COL_GEMM;
+    private ConvolutionAlgorithm c3Algorithm = ConvolutionAlgorithm.IM2COL_GEMM;
+    private FloatPipeline floatPipeline;
+    private TrainingListener trainingListener;
+    // Set for the length of a trainDistributed call; sums each batch's gradients over the ranks
+    private RingAllReduce gradientRing;
+    private boolean progressOutput = true;
+
+    private Path checkpointPath;
+    private int checkpointInterval;
+    private int samplesSinceCheckpoint;
+    // Position of the current training run: whole epochs done and samples into the next one.
+    // Both are zero when no run is in progress.
+    private int epochsCompleted;
+    private int samplesIntoEpoch;
+    private boolean runShuffled;
+    private long runShuffleSeed;
+    // Run position read from a checkpoint, picked up by the next trainNetwork call
+    private Checkpoint resumeFrom;
 
     public LeNet5() {
-        initializeFiltersAndBiases();
+        this(1.0, new Random());
+    }
+
+    /**
+     * A network whose initial weights and biases are drawn from a Random seeded with seed,
+     * with every initialization range multiplied by initScale.
+     */
+    public LeNet5(double initScale, long seed) {
+        this(initScale, new Random(seed));
+    }
+
+    private LeNet5(double initScale, Random random) {
+        if (!(initScale > 0.0)) {
+            throw new IllegalArgumentException("initScale must be positive: " + initScale);
+        }
+        initializeFiltersAndBiases(initScale, random);
+        refreshDerivedWeights();
+        modelVersion.incrementAndGet();
         this.learningRate = 0.01;
+        this.numThreads = Runtime.getRuntime().availableProcessors();
     }
 
-    private static int[] convertDoubleToInt(double[] doubleArray) {
-        int rows = doubleArray.length;
-        int[] intArray = new int[rows];
+    /**
+     * Restores a network written by save(). The parameters are copied straight out of a
+     * memory-mapped file, so the model is ready for inference as soon as this returns. If
+     * the checkpoint was taken part way through a training run, the next trainNetwork call
+     * with the same epochs and shuffle settings continues that run from the saved epoch and
+     * sample instead of starting over.
+     */
+    public static LeNet5 load(Path path) throws IOException {
+        LeNet5 network = new LeNet5();
+        Checkpoint checkpoint = Checkpoint.read(path, network.parameters);
+        network.refreshDerivedWeights();
+        network.modelVersion.incrementAndGet();
+        network.learningRate = checkpoint.learningRate;
+        if (checkpoint.epochsCompleted > 0 || checkpoint.samplesIntoEpoch > 0) {
+            network.resumeFrom = checkpoint;
+        }
+        return network;
+    }
 
-        for (int i = 0; i < rows; i++) {
-                intArray[i] = (int) doubleArray[i];
+    /**
+     * Writes every weight and bias, the learning rate and the current training position to
+     * path. Mid-run it also writes the optimizer's state and early stopping's best epoch so
+     * far, so the run resumes exactly where it was.
+     */
+    public void save(Path path) throws IOException {
+        // A finished run has nothing to resume, so its checkpoint needs neither
+        boolean inProgress = epochsCompleted > 0 || samplesIntoEpoch > 0;
+        EarlyStopping stopping = earlyStopping;
+        Tensor[] best = inProgress && stopping != null ? stopping.best() : null;
+        Checkpoint.write(path, parameters, new Checkpoint(learningRate, epochsCompleted, samplesIntoEpoch, runShuffled, runShuffleSeed,
+                optimizer.toString(), inProgress ? optimizer.state() : new Tensor[0],
+                best, best != null ? stopping.bestAccuracy() : 0.0, best != null ? stopping.bestEpoch() : 0,
+                best != null ? stopping.epochsWithoutImprovement() : 0));
+    }
+
+    /**
+     * Makes trainNetwork save to path every everySamples training samples and at the end of
+     * every epoch. everySamples of 0 saves at epoch ends only; a null path turns it off.
+     */
+    public void setCheckpointing(Path path, int everySamples) {
+        if (everySamples < 0) {
+            throw new IllegalArgumentException("everySamples must not be negative: " + everySamples);
         }
+        this.checkpointPath = path;
+        this.checkpointInterval = everySamples;
+    }
 
-        return intArray;
+    /** Whether this network was loaded from a checkpoint of an unfinished training run. */
+    public boolean isResumable() {
+        return resumeFrom != null;
     }
 
-    private static int[][] convertDoubleToInt(double[][] doubleArray) {
-        int rows = doubleArray.length;
-        int cols = doubleArray[0].length;
-        int[][] intArray = new int[rows][cols];
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
 
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                intArray[i][j] = (int) doubleArray[i][j];
-            }
+    /** Uses optimizer for every weight update from now on; the default is Optimizer.sgd(). */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Varies the learning rate over each training run, measured in epochs from the start of
+     * the run. The learning rate set with setLearningRate is the schedule's base rate.
+     */
+    public void setLearningRateSchedule(LearningRateSchedule schedule) {
+        this.learningRateSchedule = schedule;
+    }
+
+    /**
+     * Makes trainNetwork measure accuracy on validation after every epoch and stop once
+     * patience epochs in a row have not beaten the best so far. Whether it stops early or
+     * runs every epoch, the network ends the run with the parameters of its best validation
+     * epoch. validation should be held out from the training set; null turns this off. A run
+     * resumed from a checkpoint carries on with the best epoch recorded before it stopped,
+     * which assumes the same validation set.
+     */
+    public void setEarlyStopping(Dataset validation, int patience) {
+        this.earlyStopping = validation != null ? new EarlyStopping(validation, patience) : null;
+    }
+
+    /** Uses convolutionAlgorithm for every convolution layer. */
+    public void setConvolutionAlgorithm(ConvolutionAlgorithm convolutionAlgorithm) {
+        this.convolutionAlgorithm = convolutionAlgorithm;
+        this.c1Algorithm = convolutionAlgorithm;
+        this.c3Algorithm = convolutionAlgorithm;
+        refreshDerivedWeights();
+        modelVersion.incrementAndGet();
+    }
+
+    /**
+     * Uses algorithm for C1 or C3 alone. FUSED_GEMM fuses that layer with the pooling layer
+     * after it; C5 keeps the algorithm last set for the whole network.
+     */
+    public void setConvolutionAlgorithm(Layer layer, ConvolutionAlgorithm algorithm) {
+        switch (layer) {
+            case C1:
+                c1Algorithm = algorithm;
+                break;
+            case C3:
+                c3Algorithm = algorithm;
+                break;
+            default:
+                throw new IllegalArgumentException("Only C1 and C3 take a per-layer algorithm, not " + layer);
         }
+        refreshDerivedWeights();
+        modelVersion.incrementAndGet();
+    }
 
-        return intArray;
+    public void setPrecision(Precision precision) {
+        setPrecision(precision, Accumulation.DOUBLE);
     }
 
-    private void initializeFiltersAndBiases() {
-        Random random = new Random();
+    public void setPrecision(Precision precision, Accumulation accumulation) {
+        if (precision == Precision.FLOAT) {
+            FloatPipeline pipeline = new FloatPipeline(accumulation);
+            pipeline.refresh(parameters);
+            floatPipeline = pipeline;
+        } else {
+            floatPipeline = null;
+        }
+        modelVersion.incrementAndGet();
+    }
 
+    /**
+     * Identifies the weights and settings predict currently computes with. It changes after
+     * every update (every epoch under trainHogwild), load, precision or algorithm change has
+     * taken effect, so outputs computed after reading version v are stale as soon as
+     * modelVersion() no longer returns v.
+     */
+    public long modelVersion() {
+        return modelVersion.get();
+    }
+
+    public Precision getPrecision() {
+        return floatPipeline != null ? Precision.FLOAT : Precision.DOUBLE;
+    }
+
+    /**
+     * Reports every batch and epoch of trainNetwork and optimizeHyperParameters to listener,
+     * including per-layer latency histograms; null stops reporting. Epochs and batches are
+     * also always emitted as the JFR events lenet5.Epoch and lenet5.Batch.
+     */
+    public void setTrainingListener(TrainingListener listener) {
+        this.trainingListener = listener;
+    }
+
+    /** Whether trainNetwork prints its progress to System.out; on by default. */
+    public void setProgressOutput(boolean enabled) {
+        this.progressOutput = enabled;
+    }
+
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        this.numThreads = numThreads;
+        ForkJoinPool pool;
+        synchronized (this) {
+            pool = testPool;
+            testPool = null;
+        }
+        // Evaluations already running on the old pool finish there
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void initializeFiltersAndBiases(double scale, Random random) {
         for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
             for (int i = 0; i < FILTER_SIZE_C1; i++) {
                 for (int j = 0; j < FILTER_SIZE_C1; j++) {
-                    double std = Math.sqrt(2.0 / (FILTER_SIZE_C1 * FILTER_SIZE_C1));
-                    weightsC1[f][i][j] = random.nextGaussian() * std;
+                    double std = scale * Math.sqrt(2.0 / (FILTER_SIZE_C1 * FILTER_SIZE_C1));
+                    weightsC1.data[weightsC1.offset(f, i, j)] = random.nextGaussian() * std;
                 }
             }
-            biasesC1[f] = Math.random() * 0.1 - 0.05;
+            biasesC1.data[f] = (random.nextDouble() * 0.1 - 0.05) * scale;
         }
 
         for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
-            for (int s = 0; s < NUM_FEATURE_MAPS_C1; s++) {
+            for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
                 for (int i = 0; i < FILTER_SIZE_C3; i++) {
                     for (int j = 0; j < FILTER_SIZE_C3; j++) {
-                        weightsC3[f][s][i][j] = Math.random() * 0.1 - 0.05;
+                        weightsC3.data[weightsC3.offset(k, i, j)] = (random.nextDouble() * 0.1 - 0.05) * scale;
                     }
                 }
             }
-            biasesC3[f] = Math.random() * 0.1 - 0.05;
+            biasesC3.data[f] = (random.nextDouble() * 0.1 - 0.05) * scale;
         }
 
         for (int f = 0; f < NUM_FEATURE_MAPS_C5; f++) {
             for (int s = 0; s < NUM_FEATURE_MAPS_C3; s++) {
                 for (int i = 0; i < FILTER_SIZE_C5; i++) {
                     for (int j = 0; j < FILTER_SIZE_C5; j++) {
-                        weightsC5[f][s][i][j] = Math.random() * 0.1 - 0.05;
+                        weightsC5.data[weightsC5.offset(f, s, i, j)] = (random.nextDouble() * 0.1 - 0.05) * scale;
                     }
                 }
             }
-            biasesC5[f] = Math.random() * 0.1 - 0.05;
+            biasesC5.data[f] = (random.nextDouble() * 0.1 - 0.05) * scale;
         }
 
         for (int i = 0; i < NUM_UNITS_F6; i++) {
             for (int j = 0; j < NUM_FEATURE_MAPS_C5; j++) {
-                weightsF6[i][j] = Math.random() * 0.1 - 0.05;
+                weightsF6.data[weightsF6.offset(i, j)] = (random.nextDouble() * 0.1 - 0.05) * scale;
             }
-            biasesF6[i] = Math.random() * 0.1 - 0.05;
+            biasesF6.data[i] = (random.nextDouble() * 0.1 - 0.05) * scale;
         }
 
         for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
             for (int j = 0; j < NUM_UNITS_F6; j++) {
-                weightsOutput[i][j] = Math.random() * 0.1 - 0.05;
+                weightsOutput.data[weightsOutput.offset(i, j)] = (random.nextDouble() * 0.1 - 0.05) * scale;
             }
         }
     }
 
     public void optimizeHyperParameters(int maxEpochs, List<int[][]> trainImages, List<Integer> trainLabels, List<int[][]> testImages, List<Integer> testLabels) {
-        System.out.println("Optimizing epochs");
-        for (int epoch = 1; epoch <= maxEpochs; epoch++) {
-            for (int i = 0; i < trainImages.size(); i++) {
-                int[][] image = trainImages.get(i);
-                int label = trainLabels.get(i);
+        optimizeHyperParameters(maxEpochs, Dataset.of(trainImages, trainLabels), Dataset.of(testImages, testLabels));
+    }
 
-                double[] predicted = forwardPass(image);
-                backPropPass(predicted, label);
+    public void optimizeHyperParameters(int maxEpochs, Dataset train, Dataset test) {
+        System.out.println("Optimizing epochs");
+        optimizer.reset();
+        try (EpochRecorder recorder = new EpochRecorder(trainingListener, this::evaluateTestSample, workspace)) {
+            for (int epoch = 1; epoch <= maxEpochs; epoch++) {
+                recorder.startEpoch();
+                for (int i = 0; i < train.size(); i++) {
+                    long start = recorder.batchStarted();
+                    scheduleEpoch = epoch - 1 + (double) i / train.size();
+                    trainSample(train, i);
+                    recorder.batchCompleted(epoch, 1, start);
+                }
+                EpochMetrics metrics = recorder.epochCompleted(epoch);
+                lastEpochMetrics = metrics;
+                System.out.println("Epoch " + epoch + "/" + maxEpochs);
+                // Accumulated during the epoch, instead of a second pass over the training set
+                double trainAccuracy = metrics.training().accuracy();
+                System.out.println("Training accuracy: " + (Math.round(trainAccuracy * 10000.0) / 100.0) + "%");
+
+                double testAccuracy = testNetwork(test);
+                System.out.println("Test accuracy: " + (Math.round(testAccuracy * 10000.0) / 100.0) + "%");
+                System.out.println();
             }
-            System.out.println("Epoch " + epoch + "/" + maxEpochs);
-            double trainAccuracy = testNetwork(trainImages, trainLabels);
-            System.out.println("Training accuracy: " + (Math.round(trainAccuracy * 10000.0) / 100.0) + "%");
-
-            double testAccuracy = testNetwork(testImages, testLabels);
-            System.out.println("Test accuracy: " + (Math.round(testAccuracy * 10000.0) / 100.0) + "%");
-            System.out.println();
         }
         System.out.println("Done optimizing");
     }
 
     public void trainNetwork(int epochs, List<int[][]> trainImages, List<Integer> trainLabels) {
-        System.out.println("Training started");
-        for (int epoch = 1; epoch <= epochs; epoch++) {
-            for (int i = 0; i < trainImages.size(); i++) {
-                int[][] image = trainImages.get(i);
-                int label = trainLabels.get(i);
+        trainNetwork(epochs, Dataset.of(trainImages, trainLabels));
+    }
 
-                double[] predicted = forwardPass(image);
-                backPropPass(predicted, label);
+    public void trainNetwork(int epochs, Dataset train) {
+        startRun(train, false, 0);
+        progress("Training started");
+        try (EpochRecorder recorder = new EpochRecorder(trainingListener, this::evaluateTestSample, workspace)) {
+            for (int epoch = epochsCompleted + 1; epoch <= epochs; epoch++) {
+                recorder.startEpoch();
+                for (int i = samplesIntoEpoch; i < train.size(); i++) {
+                    long start = recorder.batchStarted();
+                    scheduleEpoch = epoch - 1 + (double) i / train.size();
+                    trainSample(train, i);
+                    recorder.batchCompleted(epoch, 1, start);
+                    advanceRun(1);
+                }
+                completeEpoch(recorder, epoch, epochs);
+                boolean stop = validateEpoch(epoch, epochs);
+                finishEpoch(epoch, stop ? epoch : epochs);
+                if (stop) {
+                    break;
+                }
             }
-            System.out.println("Epoch " + epoch + "/" + epochs);
+        }
+        progress("Training complete");
+    }
+
+    public void trainNetwork(int epochs, int batchSize, List<int[][]> trainImages, List<Integer> trainLabels) {
+        trainNetwork(epochs, batchSize, Dataset.of(trainImages, trainLabels));
+    }
 
+    public void trainNetwork(int epochs, int batchSize, Dataset train) {
+        trainNetwork(epochs, batchSize, train, false, 0);
+    }
+
+    /**
+     * Mini-batch training on a fresh order of train every epoch, drawn from a Random seeded
+     * with shuffleSeed. Batches are assembled by a BatchPipeline producer thread while the
+     * previous batch trains.
+     */
+    public void trainNetwork(int epochs, int batchSize, Dataset train, long shuffleSeed) {
+        trainNetwork(epochs, batchSize, train, true, shuffleSeed);
+    }
+
+    /**
+     * Data-parallel training as one replica in ring, which every rank calls with the same
+     * arguments. Rank 0's parameters are first copied to the others. Each rank then trains
+     * on its own shard of train with batches of batchSize, and before every update the
+     * ranks' gradients are summed with ring.allReduce, so the ranks take identical steps on
+     * global batches of ring.size() * batchSize. Shards are cut to the size of the smallest,
+     * dropping at most one image per rank, so every rank takes the same number of steps.
+     * Each rank shuffles its shard with shuffleSeed + rank.
+     */
+    public void trainDistributed(int epochs, int batchSize, Dataset train, long shuffleSeed, RingAllReduce ring) throws IOException {
+        if (train.size() < ring.size()) {
+            throw new IllegalArgumentException("Cannot shard " + train.size() + " images over " + ring.size() + " ranks");
+        }
+        Dataset shard = train.shard(ring.rank(), ring.size()).subset(0, train.size() / ring.size());
+        ring.broadcast(parameters);
+        parametersChanged();
+        gradientRing = ring;
+        try {
+            trainNetwork(epochs, batchSize, shard, true, shuffleSeed + ring.rank());
+        } finally {
+            gradientRing = null;
         }
-        System.out.println("Training complete");
     }
 
-    public double testNetwork(List<int[][]> testImages, List<Integer> testLabels) {
-        int totalImages = testImages.size();
-        int numCorrect = 0;
+    /**
+     * Hogwild training: numThreads threads each run forward and backward passes on their own
+     * part of every epoch, in their own workspaces, and add each sample's update straight
+     * into the shared parameters with no locks. Concurrent updates can overwrite each other
+     * or land between another thread's reads; SGD shrugs such lost and stale updates off,
+     * and in exchange no thread ever waits for another until the epoch ends. Every update is
+     * plain SGD at the scheduled learning rate, whatever setOptimizer chose, since optimizer
+     * state cannot be shared without locking. Each epoch's order is drawn from a Random
+     * seeded with shuffleSeed. C3 runs DIRECT, and C1 DIRECT in place of WINOGRAD, as
+     * those read the shared weights themselves; the copies the other algorithms work from,
+     * and modelVersion(), are brought up to date at the end of every epoch. The listener
+     * sees each epoch as a single batch, and checkpoints are only written at epoch ends.
+     */
+    public void trainHogwild(int epochs, Dataset train, long shuffleSeed) {
+        if (floatPipeline != null) {
+            throw new IllegalStateException("Hogwild training updates the double parameters in place and does not support FLOAT precision");
+        }
+        startRun(train, true, shuffleSeed);
+        Random shuffle = new Random(shuffleSeed);
+        int numWorkers = Math.max(1, Math.min(numThreads, train.size()));
+        Workspace[] workerWorkspaces = new Workspace[numWorkers];
+        for (int w = 0; w < numWorkers; w++) {
+            workerWorkspaces[w] = new Workspace();
+        }
+        // Every thread's backward pass adds its updates straight into the parameters
+        Gradients updates = new Gradients(parameters);
+        ConvolutionAlgorithm c1 = hogwildAlgorithm(c1Algorithm);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+        progress("Hogwild training started (" + numWorkers + " threads)");
+        try (EpochRecorder recorder = new EpochRecorder(trainingListener, this::evaluateTestSample, workerWorkspaces)) {
+            for (int epoch = 1; epoch <= epochs; epoch++) {
+                // Earlier epochs' shuffles are drawn even when resuming past them, so a
+                // resumed run sees the order it would have seen
+                Dataset order = train.shuffled(shuffle);
+                if (epoch <= epochsCompleted) {
+                    continue;
+                }
+                recorder.startEpoch();
+                long start = recorder.batchStarted();
+                int first = samplesIntoEpoch;
+                int remaining = train.size() - first;
+                double epochStart = epoch - 1 + (double) first / train.size();
+                double epochShare = (double) remaining / train.size();
+                List<Callable<Void>> workers = new ArrayList<>(numWorkers);
+                for (int w = 0; w < numWorkers; w++) {
+                    int from = first + (int) ((long) remaining * w / numWorkers);
+                    int to = first + (int) ((long) remaining * (w + 1) / numWorkers);
+                    Workspace ws = workerWorkspaces[w];
+                    workers.add(() -> {
+                        for (int i = from; i < to; i++) {
+                            // Each thread is about as far through the epoch as through its own part
+                            double rate = learningRateSchedule.rate(learningRate, epochStart + epochShare * (i - from) / (to - from));
+                            trainSampleHogwild(order, i, ws, updates, c1, rate);
+                        }
+                        return null;
+                    });
+                }
+                invokeAll(pool, workers);
+                parametersChanged();
+                recorder.batchCompleted(epoch, remaining, start);
+                completeEpoch(recorder, epoch, epochs);
+                boolean stop = validateEpoch(epoch, epochs);
+                finishEpoch(epoch, stop ? epoch : epochs);
+                if (stop) {
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        progress("Training complete");
+    }
+
+    // One Hogwild step. The backward pass runs with deltas scaled by -rate into updates,
+    // which holds the shared parameters, so each layer's SGD step lands in the parameters
+    // as soon as it is computed, without synchronization. Within C3 that means later
+    // positions can already see part of this sample's own update, one more kind of
+    // staleness alongside the other threads' writes.
+    private void trainSampleHogwild(Dataset data, int index, Workspace ws, Gradients updates, ConvolutionAlgorithm c1, double rate) {
+        data.copyPadded(index, ws.input.data);
+        forwardPassDouble(ws, c1, ConvolutionAlgorithm.DIRECT, false);
+        accumulateGradientsDouble(ws, data.label(index), updates, -rate, c1, ConvolutionAlgorithm.DIRECT);
+    }
+
+    // C1's algorithm under Hogwild: WINOGRAD works from transformed copies of the weights,
+    // which are only refreshed at epoch ends, so it runs DIRECT instead
+    private static ConvolutionAlgorithm hogwildAlgorithm(ConvolutionAlgorithm algorithm) {
+        return algorithm == ConvolutionAlgorithm.WINOGRAD ? ConvolutionAlgorithm.DIRECT : algorithm;
+    }
 
-        for (int i = 0; i < totalImages; i++) {
-            int[][] image = testImages.get(i);
-            int label = testLabels.get(i);
+    private void trainNetwork(int epochs, int batchSize, Dataset train, boolean shuffled, long shuffleSeed) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        startRun(train, shuffled, shuffleSeed);
+        Random shuffle = shuffled ? new Random(shuffleSeed) : null;
+
+        int numWorkers = Math.min(numThreads, batchSize);
+        Workspace[] workerWorkspaces = new Workspace[numWorkers];
+        Gradients[] workerGradients = new Gradients[numWorkers];
+        for (int w = 0; w < numWorkers; w++) {
+            workerWorkspaces[w] = new Workspace();
+            workerGradients[w] = new Gradients();
+            if (floatPipeline != null) {
+                // Allocated up front, so the first epoch's metrics count only its training
+                workerWorkspaces[w].floats();
+                workerGradients[w].floats();
+            }
+        }
 
-            double[] outputs = forwardPass(image);
-            int guess = getPrediction(outputs);
+        ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+        progress("Training started (batch size " + batchSize + ", " + numWorkers + " threads)");
+        try (BatchPipeline batches = BatchPipeline.start(train, batchSize, epochs, shuffle, epochsCompleted + 1, samplesIntoEpoch);
+             EpochRecorder recorder = new EpochRecorder(trainingListener, this::evaluateTestSample, workerWorkspaces)) {
+            recorder.startEpoch();
+            BatchPipeline.Batch batch;
+            while ((batch = batches.take()) != null) {
+                long start = recorder.batchStarted();
+                scheduleEpoch = batch.epoch() - 1 + (double) samplesIntoEpoch / train.size();
+                trainBatch(pool, batch, workerWorkspaces, workerGradients);
+                recorder.batchCompleted(batch.epoch(), batch.size(), start);
+                advanceRun(batch.size());
+                if (batch.endOfEpoch()) {
+                    completeEpoch(recorder, batch.epoch(), epochs);
+                    boolean stop = validateEpoch(batch.epoch(), epochs);
+                    finishEpoch(batch.epoch(), stop ? batch.epoch() : epochs);
+                    if (stop) {
+                        break;
+                    }
+                    recorder.startEpoch();
+                }
+                batches.release(batch);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        progress("Training complete");
+    }
 
-            if (guess == label) {
-                numCorrect++;
+    // Continues the run loaded from a checkpoint if there is one, else starts at epoch 1
+    private void startRun(Dataset train, boolean shuffled, long shuffleSeed) {
+        Checkpoint resume = resumeFrom;
+        resumeFrom = null;
+        epochsCompleted = 0;
+        samplesIntoEpoch = 0;
+        if (resume != null) {
+            if (resume.shuffled != shuffled || resume.shuffleSeed != shuffleSeed) {
+                throw new IllegalArgumentException("The checkpoint was taken from a run with a different shuffle; resume it with the same shuffle seed");
+            }
+            if (resume.samplesIntoEpoch > train.size()) {
+                throw new IllegalArgumentException("The checkpoint is " + resume.samplesIntoEpoch + " samples into an epoch but the training set has " + train.size());
+            }
+            if (!resume.optimizer.equals(optimizer.toString())) {
+                throw new IllegalArgumentException("The checkpoint was taken training with " + resume.optimizer + " but the network now uses " + optimizer
+                        + "; resume it with the same optimizer");
             }
+            epochsCompleted = resume.epochsCompleted;
+            samplesIntoEpoch = resume.samplesIntoEpoch;
+            if (samplesIntoEpoch == train.size()) {
+                epochsCompleted++;
+                samplesIntoEpoch = 0;
+            }
+        }
+        runShuffled = shuffled;
+        runShuffleSeed = shuffleSeed;
+        samplesSinceCheckpoint = 0;
+        optimizer.reset();
+        if (earlyStopping != null) {
+            earlyStopping.reset();
         }
+        if (resume != null) {
+            optimizer.restoreState(parameters, resume.optimizerState);
+            if (earlyStopping != null) {
+                earlyStopping.restore(resume.bestParameters, resume.bestAccuracy, resume.bestEpoch, resume.epochsWithoutImprovement);
+            }
+        }
+    }
+
+    private void advanceRun(int samples) {
+        samplesIntoEpoch += samples;
+        samplesSinceCheckpoint += samples;
+        if (checkpointPath != null && checkpointInterval > 0 && samplesSinceCheckpoint >= checkpointInterval) {
+            saveCheckpoint();
+        }
+    }
 
-        return (double) numCorrect / totalImages;
+    private void completeEpoch(EpochRecorder recorder, int epoch, int epochs) {
+        EpochMetrics metrics = recorder.epochCompleted(epoch);
+        lastEpochMetrics = metrics;
+        progress("Epoch " + epoch + "/" + epochs + ": training " + metrics.training());
+        if (metrics.testEstimate() != null) {
+            progress("Sampled test accuracy: " + metrics.testEstimate());
+        }
+    }
+
+    // Scores the validation set if early stopping is on and returns whether to stop here. On
+    // a stop or after the last epoch, the best validated parameters are put back.
+    private boolean validateEpoch(int epoch, int epochs) {
+        EarlyStopping stopping = earlyStopping;
+        if (stopping == null) {
+            return false;
+        }
+        double accuracy = testNetwork(stopping.validation());
+        progress("Validation accuracy: " + (Math.round(accuracy * 10000.0) / 100.0) + "%");
+        boolean stop = stopping.update(epoch, accuracy, parameters);
+        if (stop || epoch == epochs) {
+            stopping.restoreBest(parameters);
+            parametersChanged();
+        }
+        if (stop) {
+            progress("Stopping early, keeping epoch " + stopping.bestEpoch() + " (" + (Math.round(stopping.bestAccuracy() * 10000.0) / 100.0) + "%)");
+        }
+        return stop;
+    }
+
+    private void progress(String message) {
+        if (progressOutput) {
+            System.out.println(message);
+        }
+    }
+
+    private void finishEpoch(int epoch, int epochs) {
+        // The last epoch ends the run, so its checkpoint carries no position to resume from
+        epochsCompleted = epoch < epochs ? epoch : 0;
+        samplesIntoEpoch = 0;
+        if (checkpointPath != null) {
+            saveCheckpoint();
+        }
+    }
+
+    private void saveCheckpoint() {
+        try {
+            save(checkpointPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write checkpoint " + checkpointPath, e);
+        }
+        samplesSinceCheckpoint = 0;
+    }
+
+    private void trainBatch(ExecutorService pool, BatchPipeline.Batch batch,
+                            Workspace[] workerWorkspaces, Gradients[] workerGradients) {
+        int batchSize = batch.size();
+        int numShards = Math.min(workerGradients.length, batchSize);
+        int shardSize = (batchSize + numShards - 1) / numShards;
+
+        if (numShards == 1) {
+            // Nothing to run in parallel, so skip the hand-off and its per-batch futures
+            trainShard(batch, 0, batchSize, workerWorkspaces[0], workerGradients[0]);
+        } else {
+            List<Callable<Void>> shards = new ArrayList<>(numShards);
+            for (int w = 0; w < numShards; w++) {
+                int shardStart = w * shardSize;
+                int shardEnd = Math.min(shardStart + shardSize, batchSize);
+                Workspace shardWorkspace = workerWorkspaces[w];
+                Gradients shardGradients = workerGradients[w];
+                shards.add(() -> {
+                    trainShard(batch, shardStart, shardEnd, shardWorkspace, shardGradients);
+                    return null;
+                });
+            }
+            invokeAll(pool, shards);
+        }
+
+        for (int stride = 1; stride < numShards; stride *= 2) {
+            List<Callable<Void>> merges = new ArrayList<>();
+            for (int w = 0; w + stride < numShards; w += 2 * stride) {
+                Gradients target = workerGradients[w];
+                Gradients source = workerGradients[w + stride];
+                merges.add(() -> {
+                    target.add(source);
+                    return null;
+                });
+            }
+            invokeAll(pool, merges);
+        }
+
+        RingAllReduce ring = gradientRing;
+        if (ring != null) {
+            try {
+                ring.allReduce(workerGradients[0].tensors());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Gradient all-reduce failed", e);
+            }
+            batchSize *= ring.size();
+        }
+        applyGradients(workerGradients[0], batchSize);
+    }
+
+    // Sums the gradients of batch samples [from, to) into g
+    private void trainShard(BatchPipeline.Batch batch, int from, int to, Workspace ws, Gradients g) {
+        g.clear();
+        for (int i = from; i < to; i++) {
+            forwardPass(batch, i, ws);
+            accumulateGradients(ws, batch.label(i), g);
+        }
+        flushFloatGradients(g);
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Training worker failed", e.getCause());
+        }
+    }
+
+    void trainSample(Dataset data, int index) {
+        forwardPass(data, index, workspace);
+        gradients.clear();
+        accumulateGradients(workspace, data.label(index), gradients);
+        flushFloatGradients(gradients);
+        applyGradients(gradients, 1);
+    }
+
+    public double testNetwork(List<int[][]> testImages, List<Integer> testLabels) {
+        return testNetwork(Dataset.of(testImages, testLabels));
+    }
+
+    public double testNetwork(Dataset test) {
+        return (double) countCorrect(test) / test.size();
+    }
+
+    /**
+     * Accuracy on samples images drawn at random from test with a Random seeded with seed,
+     * with a 95% confidence interval for the accuracy on all of test. A few thousand images
+     * pin the accuracy down to within about a percentage point at a fraction of the cost.
+     */
+    public Evaluation evaluate(Dataset test, int samples, long seed) {
+        if (samples < 1) {
+            throw new IllegalArgumentException("samples must be at least 1: " + samples);
+        }
+        Dataset sample = samples >= test.size() ? test : test.shuffled(new Random(seed)).subset(0, samples);
+        return new Evaluation(countCorrect(sample), sample.size(), test.size());
+    }
+
+    private int countCorrect(Dataset data) {
+        return testPool().invoke(new CountCorrectTask(this, data, 0, data.size()));
+    }
+
+    // Created on first use and kept, so testNetwork, evaluate and the per-epoch test
+    // sampling do not each start numThreads new threads. Its workers are daemons.
+    private synchronized ForkJoinPool testPool() {
+        if (testPool == null) {
+            testPool = new ForkJoinPool(numThreads);
+        }
+        return testPool;
+    }
+
+    /**
+     * Makes every training epoch end with evaluate(test, samples, seed), reported in its
+     * EpochMetrics. The same images are drawn every epoch, so the estimates are comparable.
+     * A null test turns it off.
+     */
+    public void setTestSampling(Dataset test, int samples, long seed) {
+        if (test != null && samples < 1) {
+            throw new IllegalArgumentException("samples must be at least 1: " + samples);
+        }
+        this.testSampling = test;
+        this.testSamplingSize = samples;
+        this.testSamplingSeed = seed;
+    }
+
+    // The sampled test estimate for the end of an epoch, or null when sampling is off
+    private Evaluation evaluateTestSample() {
+        Dataset test = testSampling;
+        return test != null ? evaluate(test, testSamplingSize, testSamplingSeed) : null;
+    }
+
+    /** Metrics of the last epoch trained, or null before the first. */
+    public EpochMetrics lastEpochMetrics() {
+        return lastEpochMetrics;
+    }
+
+    public double[] predict(int[][] image) {
+        return forwardPass(image, inferenceWorkspaces.get()).clone();
+    }
+
+    public int classify(int[][] image) {
+        return getPrediction(forwardPass(image, inferenceWorkspaces.get()));
+    }
+
+    /**
+     * Outputs for one 28x28 image given as row-major unsigned bytes from pixels[offset], the
+     * layout of an IDX image file.
+     */
+    public double[] predict(byte[] pixels, int offset) {
+        if (offset < 0 || pixels.length - offset < IMAGE_SIZE * IMAGE_SIZE) {
+            throw new IllegalArgumentException("Need " + IMAGE_SIZE * IMAGE_SIZE + " pixels from offset " + offset + " but have " + (pixels.length - offset));
+        }
+        Workspace ws = inferenceWorkspaces.get();
+        FloatPipeline pipeline = floatPipeline;
+        if (pipeline != null) {
+            Dataset.padImage(pixels, offset, ws.floats().input.data, 0);
+            return forwardPassFloat(pipeline, ws).clone();
+        }
+        Dataset.padImage(pixels, offset, ws.input.data);
+        return forwardPassDouble(ws).clone();
+    }
+
+    public int classify(Dataset data, int index) {
+        return getPrediction(forwardPass(data, index, inferenceWorkspaces.get()));
+    }
+
+    Tensor[] parameters() {
+        return parameters;
+    }
+
+    // Double-precision forward pass that leaves every layer's activations in ws
+    void forwardActivations(int[][] image, Workspace ws) {
+        addPadding(image, ws.input);
+        forwardPassDouble(ws, true);
+    }
+
+    void forwardActivations(Dataset data, int index, Workspace ws) {
+        data.copyPadded(index, ws.input.data);
+        forwardPassDouble(ws, true);
+    }
+
+    private static final class CountCorrectTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final LeNet5 network;
+        private final Dataset data;
+        private final int start;
+        private final int end;
+
+        CountCorrectTask(LeNet5 network, Dataset data, int start, int end) {
+            this.network = network;
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (end - start <= TEST_SPLIT_THRESHOLD) {
+                int numCorrect = 0;
+                for (int i = start; i < end; i++) {
+                    if (network.classify(data, i) == data.label(i)) {
+                        numCorrect++;
+                    }
+                }
+                return numCorrect;
+            }
+
+            int mid = (start + end) >>> 1;
+            CountCorrectTask left = new CountCorrectTask(network, data, start, mid);
+            left.fork();
+            int right = new CountCorrectTask(network, data, mid, end).compute();
+            return right + left.join();
+        }
     }
 
     private int getPrediction(double[] outputs) {
@@ -185,215 +942,513 @@ public class LeNet5 {
         return index;
     }
 
+    /**
+     * Shows the image's activations in every layer in one window, tiled by
+     * ActivationRenderer. Without a display it only computes the outputs, saying so unless
+     * progress output is off; use ActivationRenderer.exportPng there instead.
+     */
     public double[] forwardPassWithImage(int[][] image) {
-        MNISTCNN.displayImage(image, "Original");
-        input = addPadding(image);
-        c1Output = convLayerC1(input);
-        MNISTCNN.displayImage(convertDoubleToInt(c1Output[0]), "C1");
-        s2Output = poolLayerS2(c1Output);
-        MNISTCNN.displayImage(convertDoubleToInt(s2Output[0]), "S2");
-        c3Output = convLayerC3(s2Output);
-        MNISTCNN.displayImage(convertDoubleToInt(c3Output[0]), "C3");
-        s4Output = poolLayerS4(c3Output);
-        MNISTCNN.displayImage(convertDoubleToInt(s4Output[0]), "S4");
-        c5Output = convLayerC5(s4Output);
-        MNISTCNN.displayImage(convertDoubleToInt(c5Output), "C5");
-        f6Output = layerF6(c5Output);
-        MNISTCNN.displayImage(convertDoubleToInt(f6Output), "F6");
-        double[] output = layerOutput(f6Output);
-        MNISTCNN.displayImage(convertDoubleToInt(output), "Output");
-        return output;
+        Workspace ws = workspace;
+        forwardActivations(image, ws);
+        if (GraphicsEnvironment.isHeadless()) {
+            progress("No display, not showing activations");
+        } else {
+            MNISTCNN.displayImage(new ActivationRenderer(this).render(ws), "Activations");
+        }
+        return ws.output.data.clone();
     }
 
-    private double[] forwardPass(int[][] image) {
-        input = addPadding(image);
-        c1Output = convLayerC1(input);
-        s2Output = poolLayerS2(c1Output);
-        c3Output = convLayerC3(s2Output);
-        s4Output = poolLayerS4(c3Output);
-        c5Output = convLayerC5(s4Output);
-        f6Output = layerF6(c5Output);
-        return layerOutput(f6Output);
+    private double[] forwardPass(int[][] image, Workspace ws) {
+        FloatPipeline pipeline = floatPipeline;
+        if (pipeline != null) {
+            FloatPipeline.loadImage(image, ws.floats());
+            return forwardPassFloat(pipeline, ws);
+        }
+        addPadding(image, ws.input);
+        return forwardPassDouble(ws);
     }
 
-    private void backPropPass(double[] predicted, int targetNumber) {
-        double[] target = new double[NUM_OUTPUT_CLASSES];
-        Arrays.fill(target, -1.0);
-        target[targetNumber] = 1.0;
+    private double[] forwardPass(Dataset data, int index, Workspace ws) {
+        FloatPipeline pipeline = floatPipeline;
+        if (pipeline != null) {
+            data.copyPadded(index, ws.floats().input.data);
+            return forwardPassFloat(pipeline, ws);
+        }
+        data.copyPadded(index, ws.input.data);
+        return forwardPassDouble(ws);
+    }
 
-        double[] dOutput = computeOutputGradient(predicted, target);
-        double[] dF6 = computeF6Gradient(dOutput);
-        double[] dC5 = computeC5Gradient(dF6);
-        double[][][] dS4 = computeS4Gradient(dC5);
-        double[][][] dC3 = computeC3Gradient(dS4);
-        double[][][] dS2 = computeS2Gradient(dC3);
-        backpropagateToC1(dS2);
+    private double[] forwardPass(BatchPipeline.Batch batch, int index, Workspace ws) {
+        FloatPipeline pipeline = floatPipeline;
+        if (pipeline != null) {
+            batch.copyInput(index, ws.floats().input.data);
+            return forwardPassFloat(pipeline, ws);
+        }
+        batch.copyInput(index, ws.input.data);
+        return forwardPassDouble(ws);
     }
 
-    private double[] computeOutputGradient(double[] predicted, double[] target) {
-        double[] dOutput = new double[NUM_OUTPUT_CLASSES];
+    // Runs the float pipeline on the padded image already in ws.floats().input
+    private double[] forwardPassFloat(FloatPipeline pipeline, Workspace ws) {
+        LayerTimings timings = ws.timings;
+        long start = timings != null ? System.nanoTime() : 0;
+        float[] output = pipeline.forward(ws.floats());
+        if (timings != null) {
+            timings.recordForwardPass(start);
+        }
         for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
-            dOutput[i] = 2 * (predicted[i] - target[i]) * tanhDerivative(predicted[i]);
+            ws.output.data[i] = output[i];
         }
+        return ws.output.data;
+    }
 
-        return dOutput;
+    // Runs the network on the padded image already in ws.input
+    private double[] forwardPassDouble(Workspace ws) {
+        return forwardPassDouble(ws, false);
     }
 
-    private double[] computeF6Gradient(double[] dOutput) {
-        double[] dF6 = new double[NUM_UNITS_F6];
-        for (int i = 0; i < NUM_UNITS_F6; i++) {
-            double sum = 0.0;
-            for (int j = 0; j < NUM_OUTPUT_CLASSES; j++) {
-                sum += dOutput[j] * weightsOutput[j][i];
-            }
+    // materialize runs FUSED_GEMM layers unfused, for callers that read the C1 and C3 maps
+    private double[] forwardPassDouble(Workspace ws, boolean materialize) {
+        return forwardPassDouble(ws, c1Algorithm, c3Algorithm, materialize);
+    }
 
-            dF6[i] = sum * tanhDerivative(f6Output[i]);
+    // forwardPassDouble with C1 and C3 run with c1 and c3 rather than the configured algorithms
+    private double[] forwardPassDouble(Workspace ws, ConvolutionAlgorithm c1, ConvolutionAlgorithm c3, boolean materialize) {
+        LayerTimings timings = ws.timings;
+        if (timings != null) {
+            return forwardPassDoubleTimed(ws, c1, c3, materialize, timings);
         }
 
-        for (int j = 0; j < NUM_OUTPUT_CLASSES; j++) {
-            for (int i = 0; i < NUM_UNITS_F6; i++) {
-                weightsOutput[j][i] -= learningRate * dOutput[j] * f6Output[i];
-            }
+        if (c1 == ConvolutionAlgorithm.FUSED_GEMM && !materialize) {
+            convPoolC1S2(ws);
+        } else {
+            convLayerC1(ws, c1);
+            poolLayerS2(ws.c1Output, ws.s2Output);
         }
+        if (c3 == ConvolutionAlgorithm.FUSED_GEMM && !materialize) {
+            convPoolC3S4(ws);
+        } else {
+            convLayerC3(ws, c3);
+            poolLayerS4(ws.c3Output, ws.s4Output);
+        }
+        if (convolutionAlgorithm == ConvolutionAlgorithm.DIRECT) {
+            convLayerC5(ws.s4Output, ws.c5Output);
+        } else {
+            convLayerC5Gemm(ws.s4Output, ws.c5Output);
+        }
+        layerF6(ws.c5Output, ws.f6Output);
+        layerOutput(ws.f6Output, ws.output);
+        return ws.output.data;
+    }
 
-        return dF6;
+    // forwardPassDouble with every layer timed into timings. Fused pooling is charged to the
+    // conv layer it runs inside.
+    private double[] forwardPassDoubleTimed(Workspace ws, ConvolutionAlgorithm c1, ConvolutionAlgorithm c3, boolean materialize,
+                                            LayerTimings timings) {
+        long passStart = System.nanoTime();
+        long start = passStart;
+        if (c1 == ConvolutionAlgorithm.FUSED_GEMM && !materialize) {
+            convPoolC1S2(ws);
+            start = timings.recordForward(Layer.C1, start);
+        } else {
+            convLayerC1(ws, c1);
+            start = timings.recordForward(Layer.C1, start);
+            poolLayerS2(ws.c1Output, ws.s2Output);
+            start = timings.recordForward(Layer.S2, start);
+        }
+        if (c3 == ConvolutionAlgorithm.FUSED_GEMM && !materialize) {
+            convPoolC3S4(ws);
+            start = timings.recordForward(Layer.C3, start);
+        } else {
+            convLayerC3(ws, c3);
+            start = timings.recordForward(Layer.C3, start);
+            poolLayerS4(ws.c3Output, ws.s4Output);
+            start = timings.recordForward(Layer.S4, start);
+        }
+        if (convolutionAlgorithm == ConvolutionAlgorithm.DIRECT) {
+            convLayerC5(ws.s4Output, ws.c5Output);
+        } else {
+            convLayerC5Gemm(ws.s4Output, ws.c5Output);
+        }
+        start = timings.recordForward(Layer.C5, start);
+        layerF6(ws.c5Output, ws.f6Output);
+        start = timings.recordForward(Layer.F6, start);
+        layerOutput(ws.f6Output, ws.output);
+        timings.recordForward(Layer.OUTPUT, start);
+        timings.recordForwardPass(passStart);
+        return ws.output.data;
     }
 
-    private double[] computeC5Gradient(double[] dF6) {
-        double[] dC5 = new double[NUM_FEATURE_MAPS_C5];
-        for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
-            double sum = 0.0;
-            for (int j = 0; j < NUM_UNITS_F6; j++) {
-                sum += dF6[j] * weightsF6[j][i];
+    private void accumulateGradients(Workspace ws, int targetNumber, Gradients g) {
+        FloatPipeline pipeline = floatPipeline;
+        LayerTimings timings = ws.timings;
+        if (pipeline != null) {
+            // forwardPassFloat left the outputs in ws.output as well
+            recordTrainingSample(ws.trainingMetrics, ws.output.data, targetNumber);
+            long start = timings != null ? System.nanoTime() : 0;
+            pipeline.accumulateGradients(ws.floats(), targetNumber, g.floats());
+            if (timings != null) {
+                timings.recordBackwardPass(start);
             }
+            return;
+        }
+        accumulateGradientsDouble(ws, targetNumber, g, 1.0, c1Algorithm, c3Algorithm);
+    }
 
-            dC5[i] = sum * tanhDerivative(c5Output[i]);
+    // The double backward pass, through C1 and C3 run with c1 and c3. Every delta, and so
+    // every gradient, is scale times the true one before it is added into g.
+    private void accumulateGradientsDouble(Workspace ws, int targetNumber, Gradients g, double scale,
+                                           ConvolutionAlgorithm c1, ConvolutionAlgorithm c3) {
+        LayerTimings timings = ws.timings;
+        recordTrainingSample(ws.trainingMetrics, ws.output.data, targetNumber);
+        if (timings != null) {
+            accumulateGradientsTimed(ws, targetNumber, g, scale, c1, c3, timings);
+            return;
         }
 
-        for (int j = 0; j < NUM_UNITS_F6; j++) {
-            for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
-                weightsF6[j][i] -= learningRate * dF6[j] * c5Output[i];
+        computeOutputGradient(ws.output, targetNumber, scale, ws.dOutput);
+        computeF6Gradient(ws, ws.dOutput, g, ws.dF6);
+        computeC5Gradient(ws, ws.dF6, g, ws.dC5);
+        if (convolutionAlgorithm == ConvolutionAlgorithm.DIRECT) {
+            computeS4Gradient(ws, ws.dC5, g, ws.dS4);
+        } else {
+            computeS4GradientGemm(ws, ws.dC5, g, ws.dS4);
+        }
+        computeC3Gradient(ws, ws.dS4, ws.dC3);
+        backpropagateThroughC3(ws, c3, g);
+        backpropagateThroughC1(ws, c1, g);
+    }
+
+    // Adds the outputs of the sample just trained on to the epoch's metrics: the squared
+    // error against the +1/-1 targets that computeOutputGradient differentiates, and the
+    // predicted class
+    private static void recordTrainingSample(ClassificationMetrics metrics, double[] outputs, int targetNumber) {
+        double loss = 0.0;
+        int predicted = 0;
+        for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
+            double error = outputs[i] - (i == targetNumber ? 1.0 : -1.0);
+            loss += error * error;
+            if (outputs[i] > outputs[predicted]) {
+                predicted = i;
             }
+        }
+        metrics.record(targetNumber, predicted, loss);
+    }
 
-            biasesF6[j] -= learningRate * dF6[j];
+    // Double-precision accumulateGradients with every layer timed into timings. Each step is
+    // charged to the layer it propagates back through; S2's upsampling runs inside C1's.
+    private void accumulateGradientsTimed(Workspace ws, int targetNumber, Gradients g, double scale,
+                                          ConvolutionAlgorithm c1, ConvolutionAlgorithm c3, LayerTimings timings) {
+        long passStart = System.nanoTime();
+        long start = passStart;
+        computeOutputGradient(ws.output, targetNumber, scale, ws.dOutput);
+        computeF6Gradient(ws, ws.dOutput, g, ws.dF6);
+        start = timings.recordBackward(Layer.OUTPUT, start);
+        computeC5Gradient(ws, ws.dF6, g, ws.dC5);
+        start = timings.recordBackward(Layer.F6, start);
+        if (convolutionAlgorithm == ConvolutionAlgorithm.DIRECT) {
+            computeS4Gradient(ws, ws.dC5, g, ws.dS4);
+        } else {
+            computeS4GradientGemm(ws, ws.dC5, g, ws.dS4);
         }
+        start = timings.recordBackward(Layer.C5, start);
+        computeC3Gradient(ws, ws.dS4, ws.dC3);
+        start = timings.recordBackward(Layer.S4, start);
+        backpropagateThroughC3(ws, c3, g);
+        start = timings.recordBackward(Layer.C3, start);
+        backpropagateThroughC1(ws, c1, g);
+        timings.recordBackward(Layer.C1, start);
+        timings.recordBackwardPass(passStart);
+    }
 
-        return dC5;
+    // C3's backward step: its weight and bias gradients, and dS2 from dC3
+    private void backpropagateThroughC3(Workspace ws, ConvolutionAlgorithm algorithm, Gradients g) {
+        switch (algorithm) {
+            case DIRECT:
+                computeS2Gradient(ws, ws.dC3, g, ws.dS2);
+                break;
+            case WINOGRAD:
+                computeS2GradientWinograd(ws, ws.dC3, g, ws.dS2);
+                break;
+            case FUSED_GEMM:
+                // The fused forward pass only built column bands, so rebuild the full im2col
+                // matrix the weight gradient multiplies against from the kept S2 maps
+                Im2Col.im2col(ws.s2Output.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, FILTER_SIZE_C3, ws.colsC3.data);
+                computeS2GradientGemm(ws, ws.dC3, g, ws.dS2);
+                break;
+            default:
+                computeS2GradientGemm(ws, ws.dC3, g, ws.dS2);
+                break;
+        }
     }
 
-    private double[][][] computeS4Gradient(double[] dC5) {
-        int numFilters = s4Output.length;
-        int xSize = s4Output[0].length;
-        int ySize = s4Output[0][0].length;
-        double[][][] dS4 = new double[numFilters][xSize][ySize];
+    private void backpropagateThroughC1(Workspace ws, ConvolutionAlgorithm algorithm, Gradients g) {
+        switch (algorithm) {
+            case DIRECT:
+                backpropagateToC1(ws, ws.dS2, g);
+                break;
+            case WINOGRAD:
+                backpropagateToC1Winograd(ws, ws.dS2, g);
+                break;
+            case FUSED_GEMM:
+                Im2Col.im2col(ws.input.data, 1, INPUT_SIZE, FILTER_SIZE_C1, ws.colsC1.data);
+                backpropagateToC1Gemm(ws, ws.dS2, g);
+                break;
+            default:
+                backpropagateToC1Gemm(ws, ws.dS2, g);
+                break;
+        }
+    }
 
-        for (int f = 0; f < numFilters; f++) {
-            for (int x = 0; x < xSize; x++) {
-                for (int y = 0; y < ySize; y++) {
-                    double sum = 0.0;
-                    for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
-                        sum += dC5[i] * weightsC5[i][f][x][y];
-                    }
+    // g holds gradients summed over batchSize samples
+    private void applyGradients(Gradients g, int batchSize) {
+        optimizer.step(parameters, g.tensors(), learningRateSchedule.rate(learningRate, scheduleEpoch), batchSize);
+        parametersChanged();
+    }
 
-                    dS4[f][x][y] = sum * poolDerivative();
-                }
-            }
+    // Brings everything derived from the parameters up to date after they change
+    private void parametersChanged() {
+        refreshDerivedWeights();
+
+        FloatPipeline pipeline = floatPipeline;
+        if (pipeline != null) {
+            pipeline.refresh(parameters);
+        }
+        modelVersion.incrementAndGet();
+    }
+
+    private void flushFloatGradients(Gradients g) {
+        if (floatPipeline != null) {
+            g.floats().flushInto(g);
+        }
+    }
+
+    void computeOutputGradient(Tensor predicted, int targetNumber, Tensor dOutput) {
+        computeOutputGradient(predicted, targetNumber, 1.0, dOutput);
+    }
+
+    // The output deltas times scale. Every delta below is linear in these, so every
+    // gradient the backward pass produces from them is scaled too.
+    private void computeOutputGradient(Tensor predicted, int targetNumber, double scale, Tensor dOutput) {
+        for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
+            double target = i == targetNumber ? 1.0 : -1.0;
+            dOutput.data[i] = 2 * scale * (predicted.data[i] - target) * tanhDerivative(predicted.data[i]);
+        }
+    }
+
+    void computeF6Gradient(Workspace ws, Tensor dOutput, Gradients g, Tensor dF6) {
+        double[] d = dOutput.data;
+        double[] w = weightsOutput.data;
+        double[] f6 = ws.f6Output.data;
+        dF6.fill(0.0);
+        for (int j = 0; j < NUM_OUTPUT_CLASSES; j++) {
+            KERNELS.axpy(d[j], w, j * NUM_UNITS_F6, dF6.data, 0, NUM_UNITS_F6);
+        }
+        for (int i = 0; i < NUM_UNITS_F6; i++) {
+            dF6.data[i] *= tanhDerivative(f6[i]);
         }
 
+        double[] dw = g.weightsOutput.data;
+        for (int j = 0; j < NUM_OUTPUT_CLASSES; j++) {
+            KERNELS.axpy(d[j], f6, 0, dw, j * NUM_UNITS_F6, NUM_UNITS_F6);
+        }
+    }
+
+    void computeC5Gradient(Workspace ws, Tensor dF6, Gradients g, Tensor dC5) {
+        double[] d = dF6.data;
+        double[] w = weightsF6.data;
+        double[] c5 = ws.c5Output.data;
+        dC5.fill(0.0);
+        for (int j = 0; j < NUM_UNITS_F6; j++) {
+            KERNELS.axpy(d[j], w, j * NUM_FEATURE_MAPS_C5, dC5.data, 0, NUM_FEATURE_MAPS_C5);
+        }
         for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
-            for (int f = 0; f < numFilters; f++) {
-                for (int x = 0; x < xSize; x++) {
-                    for (int y = 0; y < ySize; y++) {
-                        weightsC5[i][f][x][y] -= learningRate * dC5[i] * s4Output[f][x][y];
-                    }
-                }
-            }
+            dC5.data[i] *= tanhDerivative(c5[i]);
+        }
 
-            biasesC5[i] -= learningRate * dC5[i];
+        double[] dw = g.weightsF6.data;
+        for (int j = 0; j < NUM_UNITS_F6; j++) {
+            KERNELS.axpy(d[j], c5, 0, dw, j * NUM_FEATURE_MAPS_C5, NUM_FEATURE_MAPS_C5);
+            g.biasesF6.data[j] += d[j];
         }
+    }
 
-        return dS4;
+    void computeS4Gradient(Workspace ws, Tensor dC5, Gradients g, Tensor dS4) {
+        Tensor s4 = ws.s4Output;
+        int inputSize = s4.size();
+        double[] d = dC5.data;
+        double[] w = weightsC5.data;
+
+        dS4.fill(0.0);
+        for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
+            KERNELS.axpy(d[i], w, i * inputSize, dS4.data, 0, inputSize);
+        }
+        for (int k = 0; k < inputSize; k++) {
+            dS4.data[k] *= poolDerivative();
+        }
+
+        double[] dw = g.weightsC5.data;
+        for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
+            KERNELS.axpy(d[i], s4.data, 0, dw, i * inputSize, inputSize);
+            g.biasesC5.data[i] += d[i];
+        }
+    }
+
+    void computeC3Gradient(Workspace ws, Tensor dS4, Tensor dC3) {
+        upsamplePoolGradient(dS4, dC3);
     }
 
-    private double[][][] computeC3Gradient(double[][][] dS4) {
-        int numFilters = c3Output.length;
-        int featureSize = c3Output[0].length;
-        double[][][] dC3 = new double[numFilters][featureSize][featureSize];
+    private void upsamplePoolGradient(Tensor dPooled, Tensor dFeatureMaps) {
+        int numFilters = dFeatureMaps.dim(0);
+        int featureSize = dFeatureMaps.dim(1);
+        int pooledSize = dPooled.dim(1);
+        double[] src = dPooled.data;
+        double[] dst = dFeatureMaps.data;
 
         for (int f = 0; f < numFilters; f++) {
+            int srcBase = dPooled.offset(f);
+            int dstBase = dFeatureMaps.offset(f);
             for (int i = 0; i < featureSize; i++) {
+                int srcRow = srcBase + (i / 2) * pooledSize;
+                int dstRow = dstBase + i * featureSize;
                 for (int j = 0; j < featureSize; j++) {
-                    dC3[f][i][j] = dS4[f][i / 2][j / 2] * poolDerivative();
+                    dst[dstRow + j] = src[srcRow + j / 2] * poolDerivative();
                 }
             }
         }
-
-        return dC3;
     }
 
-    private double[][][] computeS2Gradient(double[][][] dC3) {
-        int numFilters = s2Output.length;
-        int featureSize = s2Output[0].length - FILTER_SIZE_C3 + 1;
-        double[][][] dS2 = new double[numFilters][s2Output[0].length][s2Output[0].length];
-
+    // Each connection's filter spreads dC3 back over its input map and gathers its weight
+    // gradient from the same map, so the packed table is walked once per filter, not per pixel
+    void computeS2Gradient(Workspace ws, Tensor dC3, Gradients g, Tensor dS2) {
+        Tensor s2 = ws.s2Output;
+        int inputSize = s2.dim(1);
+        int featureSize = inputSize - FILTER_SIZE_C3 + 1;
+        double[] d = dC3.data;
+        double[] w = weightsC3.data;
+        double[] dw = g.weightsC3.data;
+        double[] in = s2.data;
+        double[] ds = dS2.data;
+
+        dS2.fill(0.0);
         for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
-            for (int i = 0; i < featureSize; i++) {
-                for (int j = 0; j < featureSize; j++) {
-                    for (int connectedMap : getC3Connectivity()[f]) {
+            int dBase = dC3.offset(f);
+            for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
+                int mapBase = s2.offset(C3_INPUT_MAP[k]);
+                int wBase = weightsC3.offset(k);
+                for (int i = 0; i < featureSize; i++) {
+                    for (int j = 0; j < featureSize; j++) {
+                        double delta = d[dBase + i * featureSize + j];
+                        int pixel = mapBase + i * inputSize + j;
                         for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
+                            int row = pixel + fi * inputSize;
+                            int wRow = wBase + fi * FILTER_SIZE_C3;
                             for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
-                                dS2[connectedMap][i + fi][j + fj] += dC3[f][i][j] * weightsC3[f][connectedMap][fi][fj];
+                                ds[row + fj] += delta * w[wRow + fj];
+                                dw[wRow + fj] += delta * in[row + fj];
                             }
                         }
                     }
                 }
             }
+
+            for (int p = 0; p < featureSize * featureSize; p++) {
+                g.biasesC3.data[f] += d[dBase + p];
+            }
         }
+    }
 
-        for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+    void backpropagateToC1(Workspace ws, Tensor dS2, Gradients g) {
+        Tensor dC1 = ws.dC1;
+        upsamplePoolGradient(dS2, dC1);
+        int featureSize = dC1.dim(1);
+        int inputSize = ws.input.dim(0);
+        double[] d = dC1.data;
+        double[] in = ws.input.data;
+        double[] dw = g.weightsC1.data;
+
+        for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
+            int wBase = g.weightsC1.offset(f);
             for (int i = 0; i < featureSize; i++) {
                 for (int j = 0; j < featureSize; j++) {
-                    for (int connectedMap : getC3Connectivity()[f]) {
-                        for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
-                            for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
-                                weightsC3[f][connectedMap][fi][fj] -= learningRate * dC3[f][i][j] * s2Output[connectedMap][i + fi][j + fj];
-                            }
+                    double delta = d[dC1.offset(f, i, j)];
+                    int inBase = i * inputSize + j;
+                    for (int fi = 0; fi < FILTER_SIZE_C1; fi++) {
+                        int inRow = inBase + fi * inputSize;
+                        int wRow = wBase + fi * FILTER_SIZE_C1;
+                        for (int fj = 0; fj < FILTER_SIZE_C1; fj++) {
+                            dw[wRow + fj] += delta * in[inRow + fj];
                         }
                     }
 
-                    biasesC3[f] -= learningRate * dC3[f][i][j];
+                    g.biasesC1.data[f] += delta;
                 }
             }
         }
-
-        return dS2;
     }
 
-    private void backpropagateToC1(double[][][] dS2) {
-        int featureSize = c1Output[0].length;
+    void computeS4GradientGemm(Workspace ws, Tensor dC5, Gradients g, Tensor dS4) {
+        Tensor s4 = ws.s4Output;
+        int inputSize = s4.size();
+        double[] d = dC5.data;
 
-        double[][][] dC1 = new double[NUM_FEATURE_MAPS_C1][featureSize][featureSize];
+        dS4.fill(0.0);
+        Gemm.multiply(1, inputSize, NUM_FEATURE_MAPS_C5, d, 0, NUM_FEATURE_MAPS_C5, weightsC5.data, 0, inputSize, dS4.data, 0, inputSize);
+        for (int k = 0; k < inputSize; k++) {
+            dS4.data[k] *= poolDerivative();
+        }
 
-        for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
-            for (int i = 0; i < featureSize; i++) {
-                for (int j = 0; j < featureSize; j++) {
-                    dC1[f][i][j] = dS2[f][i / 2][j / 2] * poolDerivative();
+        Gemm.multiply(NUM_FEATURE_MAPS_C5, inputSize, 1, d, 0, 1, s4.data, 0, inputSize, g.weightsC5.data, 0, inputSize);
+        for (int i = 0; i < NUM_FEATURE_MAPS_C5; i++) {
+            g.biasesC5.data[i] += d[i];
+        }
+    }
+
+    void computeS2GradientGemm(Workspace ws, Tensor dC3, Gradients g, Tensor dS2) {
+        int rows = ws.colsC3.dim(0);
+        int area = ws.colsC3.dim(1);
+        int filterArea = FILTER_SIZE_C3 * FILTER_SIZE_C3;
+
+        Tensor dW = ws.dWeightsC3Matrix;
+        dW.fill(0.0);
+        Gemm.multiplyTransposedB(NUM_FEATURE_MAPS_C3, rows, area, dC3.data, 0, area, ws.colsC3.data, 0, area, dW.data, 0, rows);
+        for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+            for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
+                int src = dW.offset(f, C3_INPUT_MAP[k] * filterArea);
+                int dst = g.weightsC3.offset(k);
+                for (int p = 0; p < filterArea; p++) {
+                    g.weightsC3.data[dst + p] += dW.data[src + p];
                 }
             }
+
+            double sum = 0.0;
+            int row = dC3.offset(f);
+            for (int p = 0; p < area; p++) {
+                sum += dC3.data[row + p];
+            }
+            g.biasesC3.data[f] += sum;
         }
 
-        for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
-            for (int i = 0; i < featureSize; i++) {
-                for (int j = 0; j < featureSize; j++) {
-                    for (int fi = 0; fi < FILTER_SIZE_C1; fi++) {
-                        for (int fj = 0; fj < FILTER_SIZE_C1; fj++) {
-                            weightsC1[f][fi][fj] -= learningRate * dC1[f][i][j] * input[i + fi][j + fj];
-                        }
-                    }
+        ws.dColsC3.fill(0.0);
+        Gemm.multiplyTransposedA(rows, area, NUM_FEATURE_MAPS_C3, weightsC3Matrix.data, 0, rows, dC3.data, 0, area, ws.dColsC3.data, 0, area);
+        dS2.fill(0.0);
+        Im2Col.col2im(ws.dColsC3.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, FILTER_SIZE_C3, dS2.data);
+    }
 
-                    biasesC1[f] -= learningRate * dC1[f][i][j];
-                }
+    void backpropagateToC1Gemm(Workspace ws, Tensor dS2, Gradients g) {
+        Tensor dC1 = ws.dC1;
+        upsamplePoolGradient(dS2, dC1);
+        int filterArea = FILTER_SIZE_C1 * FILTER_SIZE_C1;
+        int area = dC1.dim(1) * dC1.dim(2);
+
+        Gemm.multiplyTransposedB(NUM_FEATURE_MAPS_C1, filterArea, area, dC1.data, 0, area, ws.colsC1.data, 0, area, g.weightsC1.data, 0, filterArea);
+        for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
+            double sum = 0.0;
+            int row = dC1.offset(f);
+            for (int p = 0; p < area; p++) {
+                sum += dC1.data[row + p];
             }
+            g.biasesC1.data[f] += sum;
         }
     }
 
@@ -413,28 +1468,20 @@ public class LeNet5 {
         return output;
     }
 
-    private int[][] addPadding(int[][] image) {
+    private void addPadding(int[][] image, Tensor newImage) {
         int rows = image.length;
         int cols = image[0].length;
 
-        int newRows = rows + 2 * PADDING;
-        int newCols = cols + 2 * PADDING;
-
-        int[][] newImage = new int[newRows][newCols];
-
-        int paddingNum = 0;
+        if (rows + 2 * PADDING != newImage.dim(0) || cols + 2 * PADDING != newImage.dim(1)) {
+            throw new IllegalArgumentException("Expected a " + IMAGE_SIZE + "x" + IMAGE_SIZE + " image but got " + rows + "x" + cols);
+        }
 
-        for (int i = 0; i < newRows; i++) {
-            for (int j = 0; j < newCols; j++) {
-                if ((i - PADDING) < 0 || (i + PADDING) >= newRows || (j - PADDING) < 0 || (j + PADDING) >= newCols) {
-                    newImage[i][j] = paddingNum;
-                } else {
-                    newImage[i][j] = image[i - PADDING][j - PADDING];
-                }
+        for (int i = 0; i < rows; i++) {
+            int row = newImage.offset(i + PADDING, PADDING);
+            for (int j = 0; j < cols; j++) {
+                newImage.data[row + j] = image[i][j] * PIXEL_SCALE;
             }
         }
-
-        return newImage;
     }
 
     private double activation(double a) {
@@ -449,186 +1496,500 @@ public class LeNet5 {
         return 1.0 / 4.0;
     }
 
-    private double[][][] convLayerC1(int[][] inputImage) {
-        int inputSize = inputImage.length;
-        int outputSize = inputSize - FILTER_SIZE_C1 + 1;
-        double[][][] outputFeatureMaps = new double[NUM_FEATURE_MAPS_C1][outputSize][outputSize];
+    void convLayerC1(Tensor inputImage, Tensor outputFeatureMaps) {
+        int inputSize = inputImage.dim(0);
+        int outputSize = outputFeatureMaps.dim(1);
+        double[] in = inputImage.data;
+        double[] w = weightsC1.data;
+        double[] out = outputFeatureMaps.data;
 
         for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
+            int wBase = weightsC1.offset(f);
+            int outBase = outputFeatureMaps.offset(f);
             for (int i = 0; i < outputSize; i++) {
                 for (int j = 0; j < outputSize; j++) {
                     double sum = 0.0;
 
+                    int inBase = i * inputSize + j;
                     for (int fi = 0; fi < FILTER_SIZE_C1; fi++) {
+                        int inRow = inBase + fi * inputSize;
+                        int wRow = wBase + fi * FILTER_SIZE_C1;
                         for (int fj = 0; fj < FILTER_SIZE_C1; fj++) {
-                            sum += inputImage[i + fi][j + fj] * weightsC1[f][fi][fj];
+                            sum += in[inRow + fj] * w[wRow + fj];
                         }
                     }
 
-                    sum += biasesC1[f];
-                    outputFeatureMaps[f][i][j] = activation(sum);
+                    sum += biasesC1.data[f];
+                    out[outBase + i * outputSize + j] = activation(sum);
                 }
             }
         }
+    }
+
+    void convLayerC1Gemm(Workspace ws) {
+        int filterArea = FILTER_SIZE_C1 * FILTER_SIZE_C1;
+        int area = OUTPUT_SIZE_C1 * OUTPUT_SIZE_C1;
+
+        Im2Col.im2col(ws.input.data, 1, INPUT_SIZE, FILTER_SIZE_C1, ws.colsC1.data);
+        ws.c1Output.fill(0.0);
+        Gemm.multiply(NUM_FEATURE_MAPS_C1, area, filterArea, weightsC1.data, 0, filterArea, ws.colsC1.data, 0, area, ws.c1Output.data, 0, area);
+        biasAndActivate(ws.c1Output, biasesC1);
+    }
+
+    private void biasAndActivate(Tensor featureMaps, Tensor biases) {
+        int numFeatureMaps = featureMaps.dim(0);
+        int area = featureMaps.size() / numFeatureMaps;
+        double[] out = featureMaps.data;
+
+        for (int f = 0; f < numFeatureMaps; f++) {
+            double bias = biases.data[f];
+            int base = f * area;
+            for (int p = 0; p < area; p++) {
+                out[base + p] = activation(out[base + p] + bias);
+            }
+        }
+    }
 
-        return outputFeatureMaps;
+    void poolLayerS2(Tensor inputFeatureMaps, Tensor outputFeatureMaps) {
+        averagePool(inputFeatureMaps, outputFeatureMaps, POOL_SIZE_S2, STRIDE_S2);
     }
 
-    private double[][][] poolLayerS2(double[][][] inputFeatureMaps) {
-        int numFeatureMaps = inputFeatureMaps.length;
-        int inputSize = inputFeatureMaps[0].length;
-        int outputSize = inputSize / POOL_SIZE_S2;
+    private void averagePool(Tensor inputFeatureMaps, Tensor outputFeatureMaps, int poolSize, int stride) {
+        int numFeatureMaps = inputFeatureMaps.dim(0);
+        int inputSize = inputFeatureMaps.dim(1);
+        int outputSize = outputFeatureMaps.dim(1);
 
-        double[][][] outputFeatureMaps = new double[numFeatureMaps][outputSize][outputSize];
+        double[] in = inputFeatureMaps.data;
+        double[] out = outputFeatureMaps.data;
 
         for (int f = 0; f < numFeatureMaps; f++) {
+            int inBase = inputFeatureMaps.offset(f);
+            int outBase = outputFeatureMaps.offset(f);
             for (int i = 0; i < outputSize; i++) {
                 for (int j = 0; j < outputSize; j++) {
                     double sum = 0.0;
 
-                    for (int pi = 0; pi < POOL_SIZE_S2; pi++) {
-                        for (int pj = 0; pj < POOL_SIZE_S2; pj++) {
-                            sum += inputFeatureMaps[f][i * STRIDE_S2 + pi][j * STRIDE_S2 + pj];
+                    int windowBase = inBase + (i * stride) * inputSize + j * stride;
+                    for (int pi = 0; pi < poolSize; pi++) {
+                        int inRow = windowBase + pi * inputSize;
+                        for (int pj = 0; pj < poolSize; pj++) {
+                            sum += in[inRow + pj];
                         }
                     }
 
-                    outputFeatureMaps[f][i][j] = sum / (POOL_SIZE_S2 * POOL_SIZE_S2);
+                    out[outBase + i * outputSize + j] = sum / (poolSize * poolSize);
                 }
             }
         }
-
-        return outputFeatureMaps;
     }
 
-    private int[][] getC3Connectivity() {
-        return new int[][] {
-                {0, 1, 2},
-                {1, 2, 3},
-                {2, 3, 4},
-                {3, 4, 5},
-                {4, 5, 0},
-                {5, 0, 1}, // First 6
-                {0, 1, 2, 3},
-                {1, 2, 3, 4},
-                {2, 3, 4, 5},
-                {3, 4, 5, 0},
-                {4, 5, 0, 1},
-                {5, 0, 1, 2}, // Second 6
-                {0, 1, 3, 4},
-                {1, 2, 4, 5},
-                {2, 3, 5, 0}, // Next 3
-                {0, 1, 2, 3, 4, 5} // Last
-        };
+    // Dispatches each C3 filter to the kernel for its number of input maps: filters 0-5 read
+    // three, 6-14 read four and 15 reads all six
+    void convLayerC3(Tensor inputFeatureMaps, Tensor outputFeatureMaps) {
+        for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+            int first = C3_FIRST_CONNECTION[f];
+            switch (C3_FIRST_CONNECTION[f + 1] - first) {
+                case 3:
+                    convC3Filter3(inputFeatureMaps, outputFeatureMaps, f, first);
+                    break;
+                case 4:
+                    convC3Filter4(inputFeatureMaps, outputFeatureMaps, f, first);
+                    break;
+                default:
+                    convC3FilterAllMaps(inputFeatureMaps, outputFeatureMaps, f, first);
+                    break;
+            }
+        }
     }
 
-    private double[][][] convLayerC3(double[][][] inputFeatureMaps) {
-        int inputSize = inputFeatureMaps[0].length;
-        int outputSize = inputSize - FILTER_SIZE_C3 + 1;
-        double[][][] outputFeatureMaps = new double[NUM_FEATURE_MAPS_C3][outputSize][outputSize];
-
-        int[][] connectivity = getC3Connectivity();
+    // One filter over three input maps, whose weights sit back to back from connection on.
+    // Each map has its own accumulator so the three multiply-add chains run independently.
+    private void convC3Filter3(Tensor inputFeatureMaps, Tensor outputFeatureMaps, int f, int connection) {
+        int inputSize = inputFeatureMaps.dim(1);
+        int outputSize = outputFeatureMaps.dim(1);
+        double[] in = inputFeatureMaps.data;
+        double[] w = weightsC3.data;
+        double[] out = outputFeatureMaps.data;
+        int in0 = inputFeatureMaps.offset(C3_INPUT_MAP[connection]);
+        int in1 = inputFeatureMaps.offset(C3_INPUT_MAP[connection + 1]);
+        int in2 = inputFeatureMaps.offset(C3_INPUT_MAP[connection + 2]);
+        int w0 = weightsC3.offset(connection);
+        int w1 = w0 + FILTER_AREA_C3;
+        int w2 = w1 + FILTER_AREA_C3;
+        int outBase = outputFeatureMaps.offset(f);
+        double bias = biasesC3.data[f];
+
+        for (int i = 0; i < outputSize; i++) {
+            for (int j = 0; j < outputSize; j++) {
+                double sum0 = 0.0;
+                double sum1 = 0.0;
+                double sum2 = 0.0;
+                for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
+                    int inRow = (i + fi) * inputSize + j;
+                    int wRow = fi * FILTER_SIZE_C3;
+                    for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
+                        sum0 += in[in0 + inRow + fj] * w[w0 + wRow + fj];
+                        sum1 += in[in1 + inRow + fj] * w[w1 + wRow + fj];
+                        sum2 += in[in2 + inRow + fj] * w[w2 + wRow + fj];
+                    }
+                }
+                out[outBase + i * outputSize + j] = activation(sum0 + sum1 + sum2 + bias);
+            }
+        }
+    }
 
-        for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
-            for (int i = 0; i < outputSize; i++) {
-                for (int j = 0; j < outputSize; j++) {
-                    double sum = 0.0;
+    // convC3Filter3 for the four-map filters
+    private void convC3Filter4(Tensor inputFeatureMaps, Tensor outputFeatureMaps, int f, int connection) {
+        int inputSize = inputFeatureMaps.dim(1);
+        int outputSize = outputFeatureMaps.dim(1);
+        double[] in = inputFeatureMaps.data;
+        double[] w = weightsC3.data;
+        double[] out = outputFeatureMaps.data;
+        int in0 = inputFeatureMaps.offset(C3_INPUT_MAP[connection]);
+        int in1 = inputFeatureMaps.offset(C3_INPUT_MAP[connection + 1]);
+        int in2 = inputFeatureMaps.offset(C3_INPUT_MAP[connection + 2]);
+        int in3 = inputFeatureMaps.offset(C3_INPUT_MAP[connection + 3]);
+        int w0 = weightsC3.offset(connection);
+        int w1 = w0 + FILTER_AREA_C3;
+        int w2 = w1 + FILTER_AREA_C3;
+        int w3 = w2 + FILTER_AREA_C3;
+        int outBase = outputFeatureMaps.offset(f);
+        double bias = biasesC3.data[f];
+
+        for (int i = 0; i < outputSize; i++) {
+            for (int j = 0; j < outputSize; j++) {
+                double sum0 = 0.0;
+                double sum1 = 0.0;
+                double sum2 = 0.0;
+                double sum3 = 0.0;
+                for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
+                    int inRow = (i + fi) * inputSize + j;
+                    int wRow = fi * FILTER_SIZE_C3;
+                    for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
+                        sum0 += in[in0 + inRow + fj] * w[w0 + wRow + fj];
+                        sum1 += in[in1 + inRow + fj] * w[w1 + wRow + fj];
+                        sum2 += in[in2 + inRow + fj] * w[w2 + wRow + fj];
+                        sum3 += in[in3 + inRow + fj] * w[w3 + wRow + fj];
+                    }
+                }
+                out[outBase + i * outputSize + j] = activation((sum0 + sum1) + (sum2 + sum3) + bias);
+            }
+        }
+    }
 
-                    for (int connectedMap : connectivity[f]) {
-                        for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
-                            for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
-                                sum += inputFeatureMaps[connectedMap][i + fi][j + fj] * weightsC3[f][connectedMap][fi][fj];
-                            }
+    // The filter connected to every input map in order, a dense 6-map convolution: its
+    // weights and the input maps are both contiguous, so no table is consulted at all
+    private void convC3FilterAllMaps(Tensor inputFeatureMaps, Tensor outputFeatureMaps, int f, int connection) {
+        int inputSize = inputFeatureMaps.dim(1);
+        int inputArea = inputSize * inputSize;
+        int outputSize = outputFeatureMaps.dim(1);
+        double[] in = inputFeatureMaps.data;
+        double[] w = weightsC3.data;
+        double[] out = outputFeatureMaps.data;
+        int wBase = weightsC3.offset(connection);
+        int outBase = outputFeatureMaps.offset(f);
+        double bias = biasesC3.data[f];
+
+        for (int i = 0; i < outputSize; i++) {
+            for (int j = 0; j < outputSize; j++) {
+                double sum = 0.0;
+                for (int c = 0; c < NUM_FEATURE_MAPS_C1; c++) {
+                    int inBase = c * inputArea + i * inputSize + j;
+                    int wMap = wBase + c * FILTER_AREA_C3;
+                    for (int fi = 0; fi < FILTER_SIZE_C3; fi++) {
+                        int inRow = inBase + fi * inputSize;
+                        int wRow = wMap + fi * FILTER_SIZE_C3;
+                        for (int fj = 0; fj < FILTER_SIZE_C3; fj++) {
+                            sum += in[inRow + fj] * w[wRow + fj];
                         }
                     }
-
-                    sum += biasesC3[f];
-
-                    outputFeatureMaps[f][i][j] = activation(sum);
                 }
+                out[outBase + i * outputSize + j] = activation(sum + bias);
             }
         }
+    }
+
+    void convLayerC3Gemm(Workspace ws) {
+        int filterArea = FILTER_SIZE_C3 * FILTER_SIZE_C3;
+        int rows = ws.colsC3.dim(0);
+        int area = OUTPUT_SIZE_C3 * OUTPUT_SIZE_C3;
 
-        return outputFeatureMaps;
+        Tensor w = weightsC3Matrix;
+        Im2Col.im2col(ws.s2Output.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, FILTER_SIZE_C3, ws.colsC3.data);
+        ws.c3Output.fill(0.0);
+        Gemm.multiply(NUM_FEATURE_MAPS_C3, area, rows, w.data, 0, rows, ws.colsC3.data, 0, area, ws.c3Output.data, 0, area);
+        biasAndActivate(ws.c3Output, biasesC3);
     }
 
-    private double[][][] poolLayerS4(double[][][] inputFeatureMaps) {
-        int numFeatureMaps = inputFeatureMaps.length;
-        int inputSize = inputFeatureMaps[0].length;
-        int outputSize = inputSize / POOL_SIZE_S4;
+    // C1 and S2 in one pass: a band of C1 rows at a time is im2col'd and multiplied into
+    // ws.bandC1, then activated and averaged into S2 while still in cache
+    void convPoolC1S2(Workspace ws) {
+        int filterArea = FILTER_SIZE_C1 * FILTER_SIZE_C1;
+        int bandArea = ws.bandC1.dim(1);
+        for (int row = 0; row < OUTPUT_SIZE_S2; row += POOLED_ROWS_PER_BAND_C1) {
+            Im2Col.im2colRows(ws.input.data, 1, INPUT_SIZE, FILTER_SIZE_C1, row * STRIDE_S2, POOLED_ROWS_PER_BAND_C1 * POOL_SIZE_S2, ws.bandColsC1.data);
+            ws.bandC1.fill(0.0);
+            Gemm.multiply(NUM_FEATURE_MAPS_C1, bandArea, filterArea, weightsC1.data, 0, filterArea, ws.bandColsC1.data, 0, bandArea, ws.bandC1.data, 0, bandArea);
+            activateAndPoolBand(ws.bandC1, biasesC1, OUTPUT_SIZE_C1, ws.s2Output, row);
+        }
+    }
 
-        double[][][] outputFeatureMaps = new double[numFeatureMaps][outputSize][outputSize];
+    // C3 and S4 in one pass, the same way as convPoolC1S2
+    void convPoolC3S4(Workspace ws) {
+        Tensor w = weightsC3Matrix;
+        int rows = ws.bandColsC3.dim(0);
+        int bandArea = ws.bandC3.dim(1);
+        for (int row = 0; row < OUTPUT_SIZE_S4; row += POOLED_ROWS_PER_BAND_C3) {
+            Im2Col.im2colRows(ws.s2Output.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, FILTER_SIZE_C3, row * STRIDE_S4, POOLED_ROWS_PER_BAND_C3 * POOL_SIZE_S4, ws.bandColsC3.data);
+            ws.bandC3.fill(0.0);
+            Gemm.multiply(NUM_FEATURE_MAPS_C3, bandArea, rows, w.data, 0, rows, ws.bandColsC3.data, 0, bandArea, ws.bandC3.data, 0, bandArea);
+            activateAndPoolBand(ws.bandC3, biasesC3, OUTPUT_SIZE_C3, ws.s4Output, row);
+        }
+    }
 
+    // Applies bias and tanh to a band of conv rows and writes their 2x2 averages to pooled
+    // from row firstPooledRow on, summing in the same order as averagePool
+    private void activateAndPoolBand(Tensor band, Tensor biases, int convSize, Tensor pooled, int firstPooledRow) {
+        int numFeatureMaps = band.dim(0);
+        int bandArea = band.dim(1);
+        int pooledSize = pooled.dim(1);
+        int pooledRows = bandArea / (2 * convSize);
+        double[] in = band.data;
+        double[] out = pooled.data;
         for (int f = 0; f < numFeatureMaps; f++) {
-            for (int i = 0; i < outputSize; i++) {
-                for (int j = 0; j < outputSize; j++) {
+            double bias = biases.data[f];
+            for (int r = 0; r < pooledRows; r++) {
+                int top = f * bandArea + 2 * r * convSize;
+                int bottom = top + convSize;
+                int outRow = pooled.offset(f, firstPooledRow + r, 0);
+                for (int j = 0; j < pooledSize; j++) {
                     double sum = 0.0;
+                    sum += activation(in[top + 2 * j] + bias);
+                    sum += activation(in[top + 2 * j + 1] + bias);
+                    sum += activation(in[bottom + 2 * j] + bias);
+                    sum += activation(in[bottom + 2 * j + 1] + bias);
+                    out[outRow + j] = sum / 4;
+                }
+            }
+        }
+    }
 
-                    for (int pi = 0; pi < POOL_SIZE_S4; pi++) {
-                        for (int pj = 0; pj < POOL_SIZE_S4; pj++) {
-                            sum += inputFeatureMaps[f][i * STRIDE_S4 + pi][j * STRIDE_S4 + pj];
-                        }
-                    }
+    private void convLayerC1(Workspace ws, ConvolutionAlgorithm algorithm) {
+        switch (algorithm) {
+            case DIRECT:
+                convLayerC1(ws.input, ws.c1Output);
+                break;
+            case WINOGRAD:
+                convLayerC1Winograd(ws);
+                break;
+            default:
+                convLayerC1Gemm(ws);
+                break;
+        }
+    }
 
-                    outputFeatureMaps[f][i][j] = sum / (POOL_SIZE_S4 * POOL_SIZE_S4);
-                }
+    private void convLayerC3(Workspace ws, ConvolutionAlgorithm algorithm) {
+        switch (algorithm) {
+            case DIRECT:
+                convLayerC3(ws.s2Output, ws.c3Output);
+                break;
+            case WINOGRAD:
+                convLayerC3Winograd(ws);
+                break;
+            default:
+                convLayerC3Gemm(ws);
+                break;
+        }
+    }
+
+    void convLayerC1Winograd(Workspace ws) {
+        Winograd.transformInput(ws.input.data, 1, INPUT_SIZE, ws.winogradInputC1.data);
+        multiplyTransformed(winogradWeightsC1, ws.winogradInputC1, ws.winogradProductC1);
+        Winograd.transformOutput(ws.winogradProductC1.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_C1, ws.c1Output.data);
+        biasAndActivate(ws.c1Output, biasesC1);
+    }
+
+    void convLayerC3Winograd(Workspace ws) {
+        Winograd.transformInput(ws.s2Output.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, ws.winogradInputC3.data);
+        multiplyTransformed(winogradWeightsC3, ws.winogradInputC3, ws.winogradProductC3);
+        Winograd.transformOutput(ws.winogradProductC3.data, NUM_FEATURE_MAPS_C3, OUTPUT_SIZE_C3, ws.c3Output.data);
+        biasAndActivate(ws.c3Output, biasesC3);
+    }
+
+    // products[e] = weights[e] * inputs[e] for each of the 36 tile elements: a filters x maps
+    // by maps x tiles GEMM that sums over the input maps
+    private static void multiplyTransformed(Tensor weights, Tensor inputs, Tensor products) {
+        int numFilters = weights.dim(1);
+        int channels = weights.dim(2);
+        int tiles = inputs.dim(2);
+        products.fill(0.0);
+        for (int e = 0; e < Winograd.TILE_AREA; e++) {
+            Gemm.multiply(numFilters, tiles, channels, weights.data, weights.offset(e), channels, inputs.data, inputs.offset(e), tiles, products.data, products.offset(e), tiles);
+        }
+    }
+
+    // Backprop through Winograd C3 in the transformed domain: dC3's tiles are taken back
+    // through A^T, multiplied against the forward pass's input tiles for the filter gradient
+    // and against the cached filter transforms for dS2
+    void computeS2GradientWinograd(Workspace ws, Tensor dC3, Gradients g, Tensor dS2) {
+        Tensor dProducts = ws.winogradProductC3;
+        Tensor inputs = ws.winogradInputC3;
+        Tensor dWeights = ws.winogradWeightGradientC3;
+        Tensor dInputs = ws.winogradInputGradientC3;
+        int tiles = inputs.dim(2);
+        int area = OUTPUT_SIZE_C3 * OUTPUT_SIZE_C3;
+
+        Winograd.transformOutputGradient(dC3.data, NUM_FEATURE_MAPS_C3, OUTPUT_SIZE_C3, dProducts.data);
+        dWeights.fill(0.0);
+        dInputs.fill(0.0);
+        for (int e = 0; e < Winograd.TILE_AREA; e++) {
+            Gemm.multiplyTransposedB(NUM_FEATURE_MAPS_C3, NUM_FEATURE_MAPS_C1, tiles, dProducts.data, dProducts.offset(e), tiles,
+                    inputs.data, inputs.offset(e), tiles, dWeights.data, dWeights.offset(e), NUM_FEATURE_MAPS_C1);
+            Gemm.multiplyTransposedA(NUM_FEATURE_MAPS_C1, tiles, NUM_FEATURE_MAPS_C3, winogradWeightsC3.data, winogradWeightsC3.offset(e), NUM_FEATURE_MAPS_C1,
+                    dProducts.data, dProducts.offset(e), tiles, dInputs.data, dInputs.offset(e), tiles);
+        }
+
+        int stride = NUM_FEATURE_MAPS_C3 * NUM_FEATURE_MAPS_C1;
+        for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+            for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
+                Winograd.addFilterGradient(dWeights.data, dWeights.offset(0, f, C3_INPUT_MAP[k]), stride, g.weightsC3.data, g.weightsC3.offset(k));
+            }
+
+            double sum = 0.0;
+            int row = dC3.offset(f);
+            for (int p = 0; p < area; p++) {
+                sum += dC3.data[row + p];
             }
+            g.biasesC3.data[f] += sum;
         }
 
-        return outputFeatureMaps;
+        dS2.fill(0.0);
+        Winograd.addInputGradient(dInputs.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_S2, dS2.data);
     }
 
-    private double[] convLayerC5(double[][][] inputFeatureMaps) {
-        double[] outputFeatureMaps = new double[NUM_FEATURE_MAPS_C5];
+    void backpropagateToC1Winograd(Workspace ws, Tensor dS2, Gradients g) {
+        Tensor dC1 = ws.dC1;
+        upsamplePoolGradient(dS2, dC1);
+        Tensor dProducts = ws.winogradProductC1;
+        Tensor inputs = ws.winogradInputC1;
+        Tensor dWeights = ws.winogradWeightGradientC1;
+        int tiles = inputs.dim(2);
+        int area = dC1.dim(1) * dC1.dim(2);
+
+        Winograd.transformOutputGradient(dC1.data, NUM_FEATURE_MAPS_C1, OUTPUT_SIZE_C1, dProducts.data);
+        dWeights.fill(0.0);
+        for (int e = 0; e < Winograd.TILE_AREA; e++) {
+            Gemm.multiplyTransposedB(NUM_FEATURE_MAPS_C1, 1, tiles, dProducts.data, dProducts.offset(e), tiles,
+                    inputs.data, inputs.offset(e), tiles, dWeights.data, dWeights.offset(e), 1);
+        }
+        for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
+            Winograd.addFilterGradient(dWeights.data, dWeights.offset(0, f, 0), NUM_FEATURE_MAPS_C1, g.weightsC1.data, g.weightsC1.offset(f));
 
-        for (int f = 0; f < NUM_FEATURE_MAPS_C5; f++) {
             double sum = 0.0;
+            int row = dC1.offset(f);
+            for (int p = 0; p < area; p++) {
+                sum += dC1.data[row + p];
+            }
+            g.biasesC1.data[f] += sum;
+        }
+    }
 
-            for (int s = 0; s < NUM_FEATURE_MAPS_C3; s++) {
-                for (int fi = 0; fi < FILTER_SIZE_C5; fi++) {
-                    for (int fj = 0; fj < FILTER_SIZE_C5; fj++) {
-                        sum += inputFeatureMaps[s][fi][fj] * weightsC5[f][s][fi][fj];
-                    }
+    // Recomputes the weight layouts derived from weightsC1 and weightsC3 that the configured
+    // algorithms read: the dense C3 matrix for the GEMM ones and the filter transforms for
+    // WINOGRAD. Callers bump modelVersion once everything derived is up to date.
+    private void refreshDerivedWeights() {
+        ConvolutionAlgorithm c3 = c3Algorithm;
+        if (c3 == ConvolutionAlgorithm.IM2COL_GEMM || c3 == ConvolutionAlgorithm.FUSED_GEMM) {
+            // Only the connected blocks are written; the rest stay zero from construction
+            Tensor w = weightsC3Matrix;
+            for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+                for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
+                    System.arraycopy(weightsC3.data, weightsC3.offset(k), w.data, w.offset(f, C3_INPUT_MAP[k] * FILTER_AREA_C3), FILTER_AREA_C3);
                 }
             }
+        }
+        if (c1Algorithm == ConvolutionAlgorithm.WINOGRAD) {
+            for (int f = 0; f < NUM_FEATURE_MAPS_C1; f++) {
+                Winograd.transformFilter(weightsC1.data, weightsC1.offset(f), winogradWeightsC1.data, winogradWeightsC1.offset(0, f, 0), NUM_FEATURE_MAPS_C1);
+            }
+        }
+        if (c3 == ConvolutionAlgorithm.WINOGRAD) {
+            int stride = NUM_FEATURE_MAPS_C3 * NUM_FEATURE_MAPS_C1;
+            for (int f = 0; f < NUM_FEATURE_MAPS_C3; f++) {
+                for (int k = C3_FIRST_CONNECTION[f]; k < C3_FIRST_CONNECTION[f + 1]; k++) {
+                    Winograd.transformFilter(weightsC3.data, weightsC3.offset(k), winogradWeightsC3.data, winogradWeightsC3.offset(0, f, C3_INPUT_MAP[k]), stride);
+                }
+            }
+        }
+    }
 
-            sum += biasesC5[f];
-
-            outputFeatureMaps[f] = activation(sum);
+    // Start of each filter's run of connections in the packed C3 layout, plus the total
+    private static int[] firstConnections(int[][] connectivity) {
+        int[] first = new int[connectivity.length + 1];
+        for (int f = 0; f < connectivity.length; f++) {
+            first[f + 1] = first[f] + connectivity[f].length;
         }
+        return first;
+    }
 
-        return outputFeatureMaps;
+    private static int[] inputMaps(int[][] connectivity) {
+        int[] maps = new int[firstConnections(connectivity)[connectivity.length]];
+        int k = 0;
+        for (int[] filterMaps : connectivity) {
+            for (int map : filterMaps) {
+                maps[k++] = map;
+            }
+        }
+        return maps;
     }
 
-    private double[] layerF6(double[] inputVector) {
-        double[] outputVector = new double[NUM_UNITS_F6];
+    void poolLayerS4(Tensor inputFeatureMaps, Tensor outputFeatureMaps) {
+        averagePool(inputFeatureMaps, outputFeatureMaps, POOL_SIZE_S4, STRIDE_S4);
+    }
 
-        for (int i = 0; i < NUM_UNITS_F6; i++) {
-            double sum = 0.0;
+    void convLayerC5(Tensor inputFeatureMaps, Tensor outputFeatureMaps) {
+        int inputSize = inputFeatureMaps.size();
+        double[] in = inputFeatureMaps.data;
+        double[] w = weightsC5.data;
 
-            for (int j = 0; j < NUM_FEATURE_MAPS_C5; j++) {
-                sum += weightsF6[i][j] * inputVector[j];
-            }
-            sum += biasesF6[i];
+        for (int f = 0; f < NUM_FEATURE_MAPS_C5; f++) {
+            double sum = KERNELS.dot(in, 0, w, weightsC5.offset(f), inputSize);
+            sum += biasesC5.data[f];
 
-            outputVector[i] = activation(sum);
+            outputFeatureMaps.data[f] = activation(sum);
         }
+    }
+
+    void convLayerC5Gemm(Tensor inputFeatureMaps, Tensor outputFeatureMaps) {
+        int inputSize = inputFeatureMaps.size();
 
-        return outputVector;
+        outputFeatureMaps.fill(0.0);
+        Gemm.multiplyTransposedB(NUM_FEATURE_MAPS_C5, 1, inputSize, weightsC5.data, 0, inputSize, inputFeatureMaps.data, 0, inputSize, outputFeatureMaps.data, 0, 1);
+        for (int f = 0; f < NUM_FEATURE_MAPS_C5; f++) {
+            outputFeatureMaps.data[f] = activation(outputFeatureMaps.data[f] + biasesC5.data[f]);
+        }
     }
 
-    private double[] layerOutput(double[] inputVector) {
-        int inputSize = inputVector.length;
-        double[] outputVector = new double[NUM_OUTPUT_CLASSES];
+    void layerF6(Tensor inputVector, Tensor outputVector) {
+        double[] in = inputVector.data;
+        double[] w = weightsF6.data;
 
-        for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
-            double sum = 0.0;
+        for (int i = 0; i < NUM_UNITS_F6; i++) {
+            double sum = KERNELS.dot(w, weightsF6.offset(i), in, 0, NUM_FEATURE_MAPS_C5);
+            sum += biasesF6.data[i];
 
-            for (int j = 0; j < inputSize; j++) {
-                sum += inputVector[j] * weightsOutput[i][j];
-            }
-            outputVector[i] = activation(sum);
+            outputVector.data[i] = activation(sum);
         }
+    }
 
-        return outputVector;
+    void layerOutput(Tensor inputVector, Tensor outputVector) {
+        int inputSize = inputVector.size();
+        double[] in = inputVector.data;
+        double[] w = weightsOutput.data;
+
+        for (int i = 0; i < NUM_OUTPUT_CLASSES; i++) {
+            double sum = KERNELS.dot(in, 0, w, weightsOutput.offset(i), inputSize);
+            outputVector.data[i] = activation(sum);
+        }
     }
 }
@@ -0,0 +1,48 @@
+/**
+ * The learning rate at a point in a training run. epoch counts the epochs done so far,
+ * fractionally: 2.5 is half way through the third epoch.
+ */
+@FunctionalInterface
+public interface LearningRateSchedule {
+    double rate(double baseRate, double epoch);
+
+    static LearningRateSchedule constant() {
+        return (baseRate, epoch) -> baseRate;
+    }
+
+    /** Multiplies the rate by factor after every everyEpochs whole epochs. */
+    static LearningRateSchedule step(int everyEpochs, double factor) {
+        if (everyEpochs < 1) {
+            throw new IllegalArgumentException("everyEpochs must be at least 1: " + everyEpochs);
+        }
+        return (baseRate, epoch) -> baseRate * Math.pow(factor, Math.floor(epoch / everyEpochs));
+    }
+
+    /**
+     * Half a cosine from the base rate down to minFactor times it over epochs epochs, and
+     * flat after that.
+     */
+    static LearningRateSchedule cosine(int epochs, double minFactor) {
+        if (epochs < 1) {
+            throw new IllegalArgumentException("epochs must be at least 1: " + epochs);
+        }
+        return (baseRate, epoch) -> {
+            double progress = Math.min(epoch / epochs, 1.0);
+            return baseRate * (minFactor + (1.0 - minFactor) * 0.5 * (1.0 + Math.cos(Math.PI * progress)));
+        };
+    }
+
+    /**
+     * Ramps linearly from zero up to then's rate over the first warmupEpochs, then follows
+     * then. then sees the same epoch count, so a cosine after a warmup still ends on time.
+     */
+    static LearningRateSchedule warmup(double warmupEpochs, LearningRateSchedule then) {
+        if (!(warmupEpochs > 0.0)) {
+            throw new IllegalArgumentException("warmupEpochs must be positive: " + warmupEpochs);
+        }
+        return (baseRate, epoch) -> {
+            double rate = then.rate(baseRate, epoch);
+            return epoch < warmupEpochs ? rate * (epoch / warmupEpochs) : rate;
+        };
+    }
+}
@@ -1,9 +1,13 @@
 import javax.swing.*;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class MNISTCNN {
 
@@ -12,82 +16,93 @@ public class MNISTCNN {
         String trainLabelsPath = "train-labels-idx1-ubyte";
         String testImagesPath = "t10k-images-idx3-ubyte";
         String testLabelsPath = "t10k-labels-idx1-ubyte";
+        Path checkpointPath = Paths.get("lenet5.ckpt");
         try {
             System.out.println("Reading in training files");
-            List<int[][]> trainImages = readImages(trainImagesPath);
-            List<Integer> trainLabels = readLabels(trainLabelsPath);
+            Dataset train = Dataset.load(Paths.get(trainImagesPath), Paths.get(trainLabelsPath));
             System.out.println("Done reading training files");
             System.out.println("Reading in test files");
-            List<int[][]> testImages = readImages(testImagesPath);
-            List<Integer> testLabels = readLabels(testLabelsPath);
+            Dataset test = Dataset.load(Paths.get(testImagesPath), Paths.get(testLabelsPath));
             System.out.println("Done reading test files");
 
-            LeNet5 leNet5 = new LeNet5();
+            LeNet5 leNet5;
+            if (Files.exists(checkpointPath)) {
+                leNet5 = LeNet5.load(checkpointPath);
+                System.out.println("Loaded " + checkpointPath);
+            } else {
+                leNet5 = new LeNet5();
+            }
 //            int maxEpochs = 15;
-//            leNet5.optimizeHyperParameters(maxEpochs, trainImages, trainLabels, testImages, testLabels);
-            int epochs = 5;
-            leNet5.trainNetwork(epochs, trainImages, trainLabels);
+//            leNet5.optimizeHyperParameters(maxEpochs, train, test);
+            if (!Files.exists(checkpointPath) || leNet5.isResumable()) {
+                int epochs = 5;
+                int validationSize = 5000;
+                // The same seed every time, so a resumed run holds out the same images
+                Dataset shuffled = train.shuffled(new Random(42));
+                Dataset validation = shuffled.subset(0, validationSize);
+                Dataset training = shuffled.subset(validationSize, shuffled.size());
+//                HyperparameterSearch search = new HyperparameterSearch(training, validation);
+//                System.out.println(search.run(HyperparameterSearch.sample(27, 9, new Random(7))).get(0));
+                leNet5.setEarlyStopping(validation, 2);
+//                leNet5.setOptimizer(Optimizer.nesterov(0.9));
+//                leNet5.setLearningRateSchedule(LearningRateSchedule.cosine(epochs, 0.05));
+                leNet5.setTestSampling(test, 2000, 7);
+                leNet5.setCheckpointing(checkpointPath, 10000);
+                leNet5.trainNetwork(epochs, training.withPaddedCache());
+            }
 
             System.out.println("Testing Network");
-            double trainAccuracy = leNet5.testNetwork(trainImages, trainLabels);
-            System.out.println("Training accuracy: " + (Math.round(trainAccuracy * 10000.0) / 100.0) + "%");
+            // Measured while the last epoch trained, so there is none for a network loaded
+            // from a finished checkpoint
+            EpochMetrics lastEpoch = leNet5.lastEpochMetrics();
+            if (lastEpoch != null) {
+                double trainAccuracy = lastEpoch.training().accuracy();
+                System.out.println("Training accuracy: " + (Math.round(trainAccuracy * 10000.0) / 100.0) + "%");
+                System.out.println(lastEpoch.training().confusionMatrix());
+            }
 
-            double testAccuracy = leNet5.testNetwork(testImages, testLabels);
+            double testAccuracy = leNet5.testNetwork(test);
             System.out.println("Test accuracy: " + (Math.round(testAccuracy * 10000.0) / 100.0) + "%");
 
-            leNet5.forwardPassWithImage(trainImages.get(0));
+            leNet5.forwardPassWithImage(train.image(0));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public static List<int[][]> readImages(String filePath) throws IOException {
-        List<int[][]> allImages = new ArrayList<>();
-
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filePath))) {
-
-            int magicNumber = readInt(bis);
-            int numberOfImages = readInt(bis);
-            int numberOfRows = readInt(bis);
-            int numberOfColumns = readInt(bis);
-
-            for (int i = 0; i < numberOfImages; i++) {
-                int[][] image = new int[numberOfRows][numberOfColumns];
-                for (int row = 0; row < numberOfRows; row++) {
-                    for (int col = 0; col < numberOfColumns; col++) {
-                        image[row][col] = bis.read() & 0xFF;
-                    }
+        IdxFile file = IdxFile.openImages(Paths.get(filePath));
+        int numberOfRows = file.dimension(1);
+        int numberOfColumns = file.dimension(2);
+        ByteBuffer data = file.data();
+
+        List<int[][]> allImages = new ArrayList<>(file.count());
+        int position = 0;
+        for (int i = 0; i < file.count(); i++) {
+            int[][] image = new int[numberOfRows][numberOfColumns];
+            for (int row = 0; row < numberOfRows; row++) {
+                for (int col = 0; col < numberOfColumns; col++) {
+                    image[row][col] = data.get(position++) & 0xFF;
                 }
-                allImages.add(image);
             }
-
+            allImages.add(image);
         }
 
         return allImages;
     }
 
     public static List<Integer> readLabels(String filePath) throws IOException {
-        List<Integer> allLabels = new ArrayList<>();
-
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filePath))) {
-
-            int magicNumber = readInt(bis);
-            int numberOfItems = readInt(bis);
-
-            for (int i = 0; i < numberOfItems; i++) {
-                int label = bis.read() & 0xFF;
-                allLabels.add(label);
-            }
+        IdxFile file = IdxFile.openLabels(Paths.get(filePath));
+        ByteBuffer data = file.data();
 
+        List<Integer> allLabels = new ArrayList<>(file.count());
+        for (int i = 0; i < file.count(); i++) {
+            allLabels.add(data.get(i) & 0xFF);
         }
 
         return allLabels;
     }
 
-    private static int readInt(BufferedInputStream bis) throws IOException {
-        return (bis.read() << 24) | (bis.read() << 16) | (bis.read() << 8) | bis.read();
-    }
-
     public static void displayImage(int[][] image, String title) {
         JFrame window = new JFrame(title);
         int width = image[0].length;
@@ -110,6 +125,15 @@ public class MNISTCNN {
         return grid;
     }
 
+    public static void displayImage(BufferedImage image, String title) {
+        JFrame window = new JFrame(title);
+        window.setSize(image.getWidth() + 40, image.getHeight() + 60);
+        window.add(new PixelGrid(image));
+        window.setVisible(true);
+        window.repaint();
+        window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    }
+
     public static void displayImage(int[] image, String title) {
         JFrame window = new JFrame(title);
         int width = Math.max(image.length, 40);
@@ -126,7 +150,7 @@ public class MNISTCNN {
         PixelGrid grid = new PixelGrid(width, height);
         int c = 0;
         for(int i = 0; i<image.length; i++) {
-            grid.setPixel(image[c++],1,i);
+            grid.setPixel(image[c++],i,0);
         }
         return grid;
     }
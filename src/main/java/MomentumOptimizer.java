@@ -0,0 +1,67 @@
+final class MomentumOptimizer implements Optimizer {
+    private final double momentum;
+    private final boolean nesterov;
+    private Tensor[] velocities;
+
+    MomentumOptimizer(double momentum, boolean nesterov) {
+        if (!(momentum >= 0.0 && momentum < 1.0)) {
+            throw new IllegalArgumentException("momentum must be in [0, 1): " + momentum);
+        }
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+    }
+
+    @Override
+    public void step(Tensor[] parameters, Tensor[] gradients, double learningRate, int batchSize) {
+        if (velocities == null) {
+            velocities = Tensor.zerosLike(parameters);
+        }
+        double scale = 1.0 / batchSize;
+        for (int t = 0; t < parameters.length; t++) {
+            double[] p = parameters[t].data;
+            double[] g = gradients[t].data;
+            double[] v = velocities[t].data;
+            if (nesterov) {
+                for (int i = 0; i < p.length; i++) {
+                    double gradient = g[i] * scale;
+                    double velocity = momentum * v[i] + gradient;
+                    v[i] = velocity;
+                    p[i] -= learningRate * (gradient + momentum * velocity);
+                }
+            } else {
+                for (int i = 0; i < p.length; i++) {
+                    double velocity = momentum * v[i] + g[i] * scale;
+                    v[i] = velocity;
+                    p[i] -= learningRate * velocity;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        velocities = null;
+    }
+
+    @Override
+    public Tensor[] state() {
+        return velocities != null ? velocities : new Tensor[0];
+    }
+
+    @Override
+    public void restoreState(Tensor[] parameters, Tensor[] state) {
+        if (state.length == 0) {
+            reset();
+            return;
+        }
+        if (state.length != parameters.length || !Tensor.shapesMatch(parameters, state, 0)) {
+            throw new IllegalArgumentException("Saved state does not fit " + this);
+        }
+        velocities = state;
+    }
+
+    @Override
+    public String toString() {
+        return (nesterov ? "Nesterov(" : "Momentum(") + momentum + ")";
+    }
+}
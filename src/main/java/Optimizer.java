@@ -0,0 +1,59 @@
+/**
+ * Turns a batch's summed gradients into a parameter update. Stateful optimizers keep their
+ * per-parameter state (velocities, moment estimates) in tensors shaped like the parameters,
+ * allocated on the first step. Checkpoints save that state, so a resumed run continues with
+ * it rather than starting over.
+ */
+public interface Optimizer {
+    /**
+     * Updates parameters in place. gradients[i] is the gradient of parameters[i] summed over
+     * batchSize samples; learningRate is the rate for this step, after any schedule.
+     */
+    void step(Tensor[] parameters, Tensor[] gradients, double learningRate, int batchSize);
+
+    /** Drops the accumulated state, as at the start of a new training run. */
+    void reset();
+
+    /**
+     * The tensors that make up the accumulated state, for a checkpoint to save; empty before
+     * the first step and for optimizers without state.
+     */
+    default Tensor[] state() {
+        return new Tensor[0];
+    }
+
+    /**
+     * Continues from state as returned by state() of an optimizer like this one training
+     * parameters. An empty state is the same as reset().
+     */
+    default void restoreState(Tensor[] parameters, Tensor[] state) {
+        if (state.length != 0) {
+            throw new IllegalArgumentException(this + " keeps no state but was given " + state.length + " tensors");
+        }
+        reset();
+    }
+
+    /** Plain stochastic gradient descent, the network's default. */
+    static Optimizer sgd() {
+        return new SgdOptimizer();
+    }
+
+    /** SGD with heavy-ball momentum: v = momentum * v + g, then p -= rate * v. */
+    static Optimizer momentum(double momentum) {
+        return new MomentumOptimizer(momentum, false);
+    }
+
+    /** Nesterov momentum: the velocity is updated as for momentum(), then p -= rate * (g + momentum * v). */
+    static Optimizer nesterov(double momentum) {
+        return new MomentumOptimizer(momentum, true);
+    }
+
+    /** Adam with the usual beta1 = 0.9, beta2 = 0.999 and epsilon = 1e-8. */
+    static Optimizer adam() {
+        return adam(0.9, 0.999, 1e-8);
+    }
+
+    static Optimizer adam(double beta1, double beta2, double epsilon) {
+        return new AdamOptimizer(beta1, beta2, epsilon);
+    }
+}
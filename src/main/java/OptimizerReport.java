@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Compares how fast each optimizer reaches a target test accuracy on MNIST. Every run starts
+ * from the same seeded initialization, sees the same shuffled mini-batches and decays its
+ * learning rate on the same cosine schedule over all epochs, and after every epoch the
+ * whole test set is scored. The report prints each epoch's cumulative
+ * training time, which leaves out the scoring, and the test accuracy, then a summary of the
+ * epochs and seconds each optimizer needed to reach the target.
+ *
+ * Arguments: [targetAccuracy] [epochs] [batchSize] [trainSamples].
+ */
+public class OptimizerReport {
+    private static final double DEFAULT_TARGET_ACCURACY = 0.97;
+    private static final int DEFAULT_EPOCHS = 5;
+    private static final int DEFAULT_BATCH_SIZE = 8;
+    private static final double MIN_RATE_FACTOR = 0.01;
+    private static final long SEED = 42;
+
+    // An optimizer and the base learning rate it is run at
+    private static final class Setup {
+        final String name;
+        final Optimizer optimizer;
+        final double learningRate;
+
+        Setup(String name, Optimizer optimizer, double learningRate) {
+            this.name = name;
+            this.optimizer = optimizer;
+            this.learningRate = learningRate;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        double target = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_TARGET_ACCURACY;
+        int epochs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_EPOCHS;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+
+        Dataset all = Dataset.load(Paths.get("train-images-idx3-ubyte"), Paths.get("train-labels-idx1-ubyte"));
+        int trainSamples = args.length > 3 ? Math.min(Integer.parseInt(args[3]), all.size()) : all.size();
+        Dataset train = all.subset(0, trainSamples).withPaddedCache();
+        Dataset test = Dataset.load(Paths.get("t10k-images-idx3-ubyte"), Paths.get("t10k-labels-idx1-ubyte")).withPaddedCache();
+
+        Setup[] setups = {
+                new Setup("SGD", Optimizer.sgd(), 0.1),
+                new Setup("momentum 0.9", Optimizer.momentum(0.9), 0.01),
+                new Setup("Nesterov 0.9", Optimizer.nesterov(0.9), 0.01),
+                new Setup("Adam", Optimizer.adam(), 0.001),
+        };
+        System.out.println(train.size() + " training images, batches of " + batchSize + ", target "
+                + String.format(Locale.ROOT, "%.2f%%", 100.0 * target));
+        System.out.println("optimizer          rate   epoch   seconds   test accuracy");
+        String[] summaries = new String[setups.length];
+        for (int i = 0; i < setups.length; i++) {
+            summaries[i] = report(setups[i], target, epochs, batchSize, train, test);
+        }
+        System.out.println();
+        System.out.println("optimizer          epochs to target   seconds to target");
+        for (String summary : summaries) {
+            System.out.println(summary);
+        }
+    }
+
+    // Trains one setup for epochs epochs and returns its summary line
+    private static String report(Setup setup, double target, int epochs, int batchSize, Dataset train, Dataset test) {
+        LeNet5 network = new LeNet5(1.0, SEED);
+        network.setProgressOutput(false);
+        network.setOptimizer(setup.optimizer);
+        network.setLearningRate(setup.learningRate);
+        network.setLearningRateSchedule(LearningRateSchedule.cosine(epochs, MIN_RATE_FACTOR));
+        network.setTestSampling(test, test.size(), SEED);
+        long[] elapsedNanos = new long[1];
+        int[] epochsToTarget = {-1};
+        double[] secondsToTarget = new double[1];
+        network.setTrainingListener(metrics -> {
+            elapsedNanos[0] += metrics.elapsedNanos();
+            double seconds = elapsedNanos[0] / 1e9;
+            double accuracy = metrics.testEstimate().accuracy();
+            if (accuracy >= target && epochsToTarget[0] < 0) {
+                epochsToTarget[0] = metrics.epoch();
+                secondsToTarget[0] = seconds;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-16s %6.3f %7d %9.2f %14.2f%%",
+                    setup.name, setup.learningRate, metrics.epoch(), seconds, 100.0 * accuracy));
+        });
+        network.trainNetwork(epochs, batchSize, train, SEED);
+        if (epochsToTarget[0] < 0) {
+            return String.format(Locale.ROOT, "%-16s %18s %19s", setup.name, "not reached", "-");
+        }
+        return String.format(Locale.ROOT, "%-16s %18d %19.2f", setup.name, epochsToTarget[0], secondsToTarget[0]);
+    }
+}
@@ -1,6 +1,7 @@
-
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.Graphics;
+import java.util.Arrays;
 import javax.swing.JPanel;
 
 public class PixelGrid extends JPanel {
@@ -12,15 +13,21 @@ public class PixelGrid extends JPanel {
         grid = new BufferedImage(width*PIXEL_SIZE, height*PIXEL_SIZE, BufferedImage.TYPE_BYTE_GRAY);
     }
 
+    /** Shows an image that is already drawn, such as one from ActivationRenderer. */
+    public PixelGrid(BufferedImage image) {
+        grid = image;
+    }
+
+    // Fills the PIXEL_SIZE square straight in the raster, one row at a time
     public void setPixel(int color, int x, int y) {
-        color = 255-color;
-//        color = color == 0 ? 255 : 0;
+        byte gray = (byte) (255-color);
+        byte[] pixels = ((DataBufferByte) grid.getRaster().getDataBuffer()).getData();
+        int width = grid.getWidth();
         x = convertGridIndexToActual(x);
         y = convertGridIndexToActual(y);
         for(int i = 0; i<PIXEL_SIZE; i++) {
-            for(int j = 0; j<PIXEL_SIZE; j++) {
-                grid.setRGB((x + i)%grid.getWidth(), (y+ j) % grid.getHeight() , (int)(color << 16 | color << 8 | color));
-            }
+            int row = (y + i) * width + x;
+            Arrays.fill(pixels, row, row + PIXEL_SIZE, gray);
         }
     }
 
@@ -33,4 +40,4 @@ public class PixelGrid extends JPanel {
     public  int convertGridIndexToActual(int x) {
         return x*PIXEL_SIZE;
     }
-}
\ No newline at end of file
+}
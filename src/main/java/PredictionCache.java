@@ -0,0 +1,228 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers a LeNet5's outputs for the 28x28 images it has seen, so byte-identical requests
+ * such as retries and re-scans skip the forward pass. Images are keyed by a 64-bit hash of
+ * their 784 raw bytes, and a hit also compares the bytes, so a hash collision can only cost a
+ * miss, never a wrong answer.
+ *
+ * Every entry belongs to the model version (LeNet5.modelVersion()) read before its outputs
+ * were computed. Once the model moves on, lookups stop returning older entries and drop them,
+ * so training or reloading the model while it serves never yields stale outputs.
+ *
+ * The cache holds at most capacity images. It is split into segments by hash, each a
+ * least-recently-used map behind its own lock, so lookups on different threads rarely wait
+ * for each other; eviction is LRU within each segment.
+ */
+public final class PredictionCache {
+    private static final int IMAGE_BYTES = LeNet5.IMAGE_SIZE * LeNet5.IMAGE_SIZE;
+    private static final int MAX_SEGMENTS = 16;
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    // An image's bytes and their hash; the bytes are a private copy
+    private static final class Key {
+        final byte[] pixels;
+        final long hash;
+
+        Key(byte[] pixels, int offset) {
+            if (offset < 0 || pixels.length - offset < IMAGE_BYTES) {
+                throw new IllegalArgumentException("Need " + IMAGE_BYTES + " pixels from offset " + offset + " but have " + (pixels.length - offset));
+            }
+            this.pixels = Arrays.copyOfRange(pixels, offset, offset + IMAGE_BYTES);
+            this.hash = hash(this.pixels);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && hash == ((Key) other).hash && Arrays.equals(pixels, ((Key) other).pixels);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) hash;
+        }
+    }
+
+    // One LRU map and the model version all of its entries were computed at; evictions and
+    // invalidations are the cache's counters, shared by all its segments
+    private static final class Segment extends LinkedHashMap<Key, double[]> {
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+        final AtomicLong evictions;
+        final AtomicLong invalidations;
+        long version;
+
+        Segment(int capacity, AtomicLong evictions, AtomicLong invalidations) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        // Forgets everything from before version; false if version is itself out of date
+        boolean advanceTo(long version) {
+            if (version < this.version) {
+                return false;
+            }
+            if (version > this.version) {
+                invalidations.addAndGet(size());
+                clear();
+                this.version = version;
+            }
+            return true;
+        }
+    }
+
+    private final LeNet5 model;
+    private final int capacity;
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PredictionCache(LeNet5 model, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.model = model;
+        this.capacity = capacity;
+        // A power of two, so the segment is a mask of the hash, and at least one entry each
+        int count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, capacity));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0), evictions, invalidations);
+        }
+    }
+
+    /** Outputs for the image at pixels[offset], from the cache or else from the model. */
+    public double[] predict(byte[] pixels, int offset) {
+        long version = model.modelVersion();
+        Key key = new Key(pixels, offset);
+        double[] outputs = lookup(key, version);
+        if (outputs != null) {
+            return outputs;
+        }
+        outputs = model.predict(key.pixels, 0);
+        store(key, version, outputs);
+        return outputs;
+    }
+
+    /**
+     * The cached outputs for the image at pixels[offset] under the model's current version,
+     * or null on a miss. Read modelVersion() first and pass it to store with the outputs
+     * computed for a miss.
+     */
+    public double[] lookup(byte[] pixels, int offset) {
+        return lookup(new Key(pixels, offset), model.modelVersion());
+    }
+
+    /** Caches outputs the model computed for the image at pixels[offset] at version. */
+    public void store(byte[] pixels, int offset, long version, double[] outputs) {
+        store(new Key(pixels, offset), version, outputs);
+    }
+
+    private double[] lookup(Key key, long version) {
+        Segment segment = segment(key);
+        double[] outputs;
+        synchronized (segment) {
+            outputs = segment.advanceTo(version) ? segment.get(key) : null;
+        }
+        if (outputs == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return outputs.clone();
+    }
+
+    private void store(Key key, long version, double[] outputs) {
+        Segment segment = segment(key);
+        double[] copy = outputs.clone();
+        synchronized (segment) {
+            // Outputs from a model that has since changed are dropped, not cached
+            if (segment.advanceTo(version)) {
+                segment.put(key, copy);
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        // The high bits, as the map inside the segment indexes by the low ones
+        return segments[(int) (key.hash >>> 32) & (segments.length - 1)];
+    }
+
+    // Multiply-rotate over the image eight bytes at a time, then a full avalanche
+    private static long hash(byte[] pixels) {
+        ByteBuffer buffer = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
+        long h = PRIME_2 ^ pixels.length;
+        int i = 0;
+        for (; i + Long.BYTES <= pixels.length; i += Long.BYTES) {
+            h = Long.rotateLeft(h ^ buffer.getLong(i) * PRIME_1, 31) * PRIME_2;
+        }
+        for (; i < pixels.length; i++) {
+            h = Long.rotateLeft(h ^ (pixels[i] & 0xFF) * PRIME_1, 11) * PRIME_2;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Images cached right now, across all segments. */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Entries dropped to make room for newer ones. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** Entries dropped because the model changed after they were computed. */
+    public long invalidations() {
+        return invalidations.get();
+    }
+
+    /** hits / (hits + misses), or 0 before the first lookup. */
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class QuantizationReport {
+    private static final int DEFAULT_EPOCHS = 1;
+    private static final int DEFAULT_CALIBRATION_SIZE = 1000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EPOCHS;
+        int calibrationSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CALIBRATION_SIZE;
+
+        List<int[][]> trainImages = MNISTCNN.readImages("train-images-idx3-ubyte");
+        List<Integer> trainLabels = MNISTCNN.readLabels("train-labels-idx1-ubyte");
+        List<int[][]> testImages = MNISTCNN.readImages("t10k-images-idx3-ubyte");
+        List<Integer> testLabels = MNISTCNN.readLabels("t10k-labels-idx1-ubyte");
+
+        LeNet5 leNet5 = new LeNet5();
+        leNet5.trainNetwork(epochs, trainImages, trainLabels);
+
+        List<int[][]> calibrationImages = new ArrayList<>(trainImages);
+        Collections.shuffle(calibrationImages, new Random(42));
+        calibrationImages = calibrationImages.subList(0, Math.min(calibrationSize, calibrationImages.size()));
+        QuantizedLeNet5 quantized = QuantizedLeNet5.calibrate(leNet5, calibrationImages);
+        System.out.println("Calibrated on " + calibrationImages.size() + " training images");
+
+        leNet5.setNumThreads(1);
+        report("DOUBLE", leNet5::classify, testImages, testLabels);
+        leNet5.setPrecision(Precision.FLOAT);
+        report("FLOAT", leNet5::classify, testImages, testLabels);
+        report("INT8", quantized::classify, testImages, testLabels);
+    }
+
+    private interface Classifier {
+        int classify(int[][] image);
+    }
+
+    // Single-threaded so the rates compare the arithmetic rather than the thread pool
+    private static void report(String name, Classifier classifier, List<int[][]> images, List<Integer> labels) {
+        int numCorrect = 0;
+        double rate = 0.0;
+        for (int round = 0; round < ROUNDS; round++) {
+            numCorrect = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < images.size(); i++) {
+                if (classifier.classify(images.get(i)) == labels.get(i)) {
+                    numCorrect++;
+                }
+            }
+            rate = Math.max(rate, images.size() / ((System.nanoTime() - start) / 1e9));
+        }
+        double accuracy = (double) numCorrect / images.size();
+        System.out.println(name + ": test accuracy " + (Math.round(accuracy * 10000.0) / 100.0) + "%, "
+                + Math.round(rate) + " images/s");
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Post-training int8 quantization of a trained LeNet5, for inference only.
+ *
+ * Weights are symmetric int8 with one scale per output channel. Activations are symmetric
+ * int8 with one scale per layer, taken from the largest magnitude each layer produced on
+ * the calibration images. The input keeps its raw 0..255 pixels as unsigned bytes, which
+ * is exact: the float model sees the same values times LeNet5.PIXEL_SCALE, and C1's
+ * multipliers fold that scale in.
+ *
+ * Every convolution and dense layer multiplies int8 by int8 into an int accumulator. The
+ * accumulator is rescaled to real units and biased, and a per-layer table maps that
+ * pre-activation straight to the int8 of tanh at the layer's activation scale. Only the
+ * ten output units evaluate tanh itself. The average pools sum the four int8
+ * values of each window in int and requantize the sum straight to the pool's own scale,
+ * so no pooled value is rounded twice.
+ */
+public final class QuantizedLeNet5 {
+    private static final int QUANT_MAX = 127;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    // tanh is within half an int8 step of +-1 well before |x| = 8, and 256 entries per unit
+    // keep the table within a quarter step of computing tanh exactly
+    private static final int TANH_TABLE_RANGE = 8;
+    private static final int TANH_TABLE_RESOLUTION = 256;
+    private static final int TANH_TABLE_CENTER = TANH_TABLE_RANGE * TANH_TABLE_RESOLUTION;
+
+    private final byte[] weightsC1;
+    private final byte[] weightsC3;
+    // C5 and F6 are stored input-major so dense() runs as int axpys over the output units
+    private final byte[] weightsC5;
+    private final byte[] weightsF6;
+    private final byte[] weightsOutput;
+
+    // Accumulator-to-real multipliers: input activation scale times the channel's weight scale
+    private final float[] multipliersC1;
+    private final float[] multipliersC3;
+    private final float[] multipliersC5;
+    private final float[] multipliersF6;
+    private final float[] multipliersOutput;
+
+    private final float[] biasesC1;
+    private final float[] biasesC3;
+    private final float[] biasesC5;
+    private final float[] biasesF6;
+
+    // tanh followed by requantization to the layer's activation scale, tabulated over the
+    // pre-activation; see tanhTable
+    private final byte[] tanhTableC1;
+    private final byte[] tanhTableC3;
+    private final byte[] tanhTableC5;
+    private final byte[] tanhTableF6;
+
+    // Window sum to pooled int8: scale of the conv output / (4 * scale of the pool output)
+    private final float poolMultiplierS2;
+    private final float poolMultiplierS4;
+
+    private final ThreadLocal<QuantizedWorkspace> workspaces = ThreadLocal.withInitial(QuantizedWorkspace::new);
+
+    private QuantizedLeNet5(LeNet5 model, ActivationRanges ranges) {
+        Tensor[] parameters = model.parameters();
+        Tensor c1 = parameters[0];
+        Tensor c3 = parameters[1];
+        Tensor c5 = parameters[2];
+        Tensor f6 = parameters[3];
+        Tensor output = parameters[4];
+
+        float scaleC1 = ranges.scale(ActivationRanges.C1);
+        float scaleS2 = ranges.scale(ActivationRanges.S2);
+        float scaleC3 = ranges.scale(ActivationRanges.C3);
+        float scaleS4 = ranges.scale(ActivationRanges.S4);
+        float scaleC5 = ranges.scale(ActivationRanges.C5);
+        float scaleF6 = ranges.scale(ActivationRanges.F6);
+
+        weightsC1 = new byte[c1.size()];
+        multipliersC1 = quantizeRows(c1.data, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.PIXEL_SCALE, weightsC1);
+        weightsC3 = new byte[c3.size()];
+        multipliersC3 = quantizeRows(c3.data, filterStartsC3(), scaleS2, weightsC3);
+        byte[] rowsC5 = new byte[c5.size()];
+        multipliersC5 = quantizeRows(c5.data, LeNet5.NUM_FEATURE_MAPS_C5, scaleS4, rowsC5);
+        weightsC5 = transpose(rowsC5, LeNet5.NUM_FEATURE_MAPS_C5);
+        byte[] rowsF6 = new byte[f6.size()];
+        multipliersF6 = quantizeRows(f6.data, LeNet5.NUM_UNITS_F6, scaleC5, rowsF6);
+        weightsF6 = transpose(rowsF6, LeNet5.NUM_UNITS_F6);
+        weightsOutput = new byte[output.size()];
+        multipliersOutput = quantizeRows(output.data, LeNet5.NUM_OUTPUT_CLASSES, scaleF6, weightsOutput);
+
+        biasesC1 = toFloats(parameters[5]);
+        biasesC3 = toFloats(parameters[6]);
+        biasesC5 = toFloats(parameters[7]);
+        biasesF6 = toFloats(parameters[8]);
+
+        tanhTableC1 = tanhTable(scaleC1);
+        tanhTableC3 = tanhTable(scaleC3);
+        tanhTableC5 = tanhTable(scaleC5);
+        tanhTableF6 = tanhTable(scaleF6);
+        poolMultiplierS2 = scaleC1 / (4.0f * scaleS2);
+        poolMultiplierS4 = scaleC3 / (4.0f * scaleS4);
+    }
+
+    /**
+     * Quantizes the model's current weights, calibrating the activation scales by running
+     * the double-precision forward pass over calibrationImages.
+     */
+    public static QuantizedLeNet5 calibrate(LeNet5 model, List<int[][]> calibrationImages) {
+        if (calibrationImages.isEmpty()) {
+            throw new IllegalArgumentException("At least one calibration image is required");
+        }
+
+        ActivationRanges ranges = new ActivationRanges();
+        Workspace ws = new Workspace();
+        for (int[][] image : calibrationImages) {
+            model.forwardActivations(image, ws);
+            ranges.observe(ActivationRanges.C1, ws.c1Output);
+            ranges.observe(ActivationRanges.S2, ws.s2Output);
+            ranges.observe(ActivationRanges.C3, ws.c3Output);
+            ranges.observe(ActivationRanges.S4, ws.s4Output);
+            ranges.observe(ActivationRanges.C5, ws.c5Output);
+            ranges.observe(ActivationRanges.F6, ws.f6Output);
+        }
+        return new QuantizedLeNet5(model, ranges);
+    }
+
+    public float[] predict(int[][] image) {
+        return forwardPass(image, workspaces.get()).clone();
+    }
+
+    public int classify(int[][] image) {
+        float[] outputs = forwardPass(image, workspaces.get());
+        int index = 0;
+        for (int i = 1; i < outputs.length; i++) {
+            if (outputs[i] > outputs[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    public double testNetwork(List<int[][]> testImages, List<Integer> testLabels) {
+        int numCorrect = 0;
+        for (int i = 0; i < testImages.size(); i++) {
+            if (classify(testImages.get(i)) == testLabels.get(i)) {
+                numCorrect++;
+            }
+        }
+        return (double) numCorrect / testImages.size();
+    }
+
+    private float[] forwardPass(int[][] image, QuantizedWorkspace ws) {
+        if (image.length != LeNet5.IMAGE_SIZE || image[0].length != LeNet5.IMAGE_SIZE) {
+            throw new IllegalArgumentException("Expected a " + LeNet5.IMAGE_SIZE + "x" + LeNet5.IMAGE_SIZE + " image but got " + image.length + "x" + image[0].length);
+        }
+        for (int i = 0; i < LeNet5.IMAGE_SIZE; i++) {
+            int row = (i + LeNet5.PADDING) * LeNet5.INPUT_SIZE + LeNet5.PADDING;
+            for (int j = 0; j < LeNet5.IMAGE_SIZE; j++) {
+                ws.input[row + j] = (byte) image[i][j];
+            }
+        }
+
+        convLayerC1(ws);
+        averagePool(ws.c1Output, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, poolMultiplierS2, ws.s2Output);
+        convLayerC3(ws);
+        averagePool(ws.c3Output, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, poolMultiplierS4, ws.s4Output);
+        dense(weightsC5, multipliersC5, biasesC5, ws.s4Output, tanhTableC5, ws.c5Output, ws.accumulators);
+        dense(weightsF6, multipliersF6, biasesF6, ws.c5Output, tanhTableF6, ws.f6Output, ws.accumulators);
+
+        int inputSize = LeNet5.NUM_UNITS_F6;
+        for (int i = 0; i < LeNet5.NUM_OUTPUT_CLASSES; i++) {
+            int acc = dot(weightsOutput, i * inputSize, ws.f6Output, inputSize);
+            ws.output[i] = FloatPipeline.tanh(acc * multipliersOutput[i]);
+        }
+        return ws.output;
+    }
+
+    private void convLayerC1(QuantizedWorkspace ws) {
+        int area = LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1;
+        int filterArea = LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1;
+        int[] acc = ws.accumulators;
+
+        for (int p = 0; p < ws.input.length; p++) {
+            ws.widenedInput[p] = ws.input[p] & 0xFF;
+        }
+        Im2Col.im2col(ws.widenedInput, 1, LeNet5.INPUT_SIZE, LeNet5.FILTER_SIZE_C1, ws.colsC1);
+        for (int f = 0; f < LeNet5.NUM_FEATURE_MAPS_C1; f++) {
+            Arrays.fill(acc, 0, area, 0);
+            for (int k = 0; k < filterArea; k++) {
+                accumulate(weightsC1[f * filterArea + k], ws.colsC1, k * area, acc, area);
+            }
+            activate(acc, area, multipliersC1[f], biasesC1[f], tanhTableC1, ws.c1Output, f * area);
+        }
+    }
+
+    private void convLayerC3(QuantizedWorkspace ws) {
+        int area = LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3;
+        int filterArea = LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3;
+        int[] acc = ws.accumulators;
+
+        for (int p = 0; p < ws.s2Output.length; p++) {
+            ws.widenedInput[p] = ws.s2Output[p];
+        }
+        Im2Col.im2col(ws.widenedInput, LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.FILTER_SIZE_C3, ws.colsC3);
+        for (int f = 0; f < LeNet5.NUM_FEATURE_MAPS_C3; f++) {
+            Arrays.fill(acc, 0, area, 0);
+            for (int k = LeNet5.C3_FIRST_CONNECTION[f]; k < LeNet5.C3_FIRST_CONNECTION[f + 1]; k++) {
+                int wBase = k * filterArea;
+                int colsBase = LeNet5.C3_INPUT_MAP[k] * filterArea;
+                for (int p = 0; p < filterArea; p++) {
+                    accumulate(weightsC3[wBase + p], ws.colsC3, (colsBase + p) * area, acc, area);
+                }
+            }
+            activate(acc, area, multipliersC3[f], biasesC3[f], tanhTableC3, ws.c3Output, f * area);
+        }
+    }
+
+    // acc[p] += weight * cols[colsOffset + p]
+    private static void accumulate(int weight, int[] cols, int colsOffset, int[] acc, int length) {
+        if (weight != 0) {
+            KERNELS.axpy(weight, cols, colsOffset, acc, 0, length);
+        }
+    }
+
+    private static void activate(int[] acc, int length, float multiplier, float bias, byte[] tanhTable, byte[] out, int outOffset) {
+        for (int p = 0; p < length; p++) {
+            out[outOffset + p] = lookup(tanhTable, acc[p] * multiplier + bias);
+        }
+    }
+
+    private static byte lookup(byte[] tanhTable, float x) {
+        // The float-to-int cast saturates, so only the table bounds need clamping
+        int index = (int) (x * TANH_TABLE_RESOLUTION + (TANH_TABLE_CENTER + 0.5f));
+        return tanhTable[Math.max(0, Math.min(2 * TANH_TABLE_CENTER, index))];
+    }
+
+    private static byte[] tanhTable(float scale) {
+        byte[] table = new byte[2 * TANH_TABLE_CENTER + 1];
+        for (int i = 0; i < table.length; i++) {
+            double x = (double) (i - TANH_TABLE_CENTER) / TANH_TABLE_RESOLUTION;
+            table[i] = quantize((float) (Math.tanh(x) / scale));
+        }
+        return table;
+    }
+
+    private static void averagePool(byte[] in, int numFeatureMaps, int inputSize, float multiplier, byte[] out) {
+        int outputSize = inputSize / 2;
+        for (int f = 0; f < numFeatureMaps; f++) {
+            int inBase = f * inputSize * inputSize;
+            int outBase = f * outputSize * outputSize;
+            for (int i = 0; i < outputSize; i++) {
+                int top = inBase + 2 * i * inputSize;
+                int bottom = top + inputSize;
+                for (int j = 0; j < outputSize; j++) {
+                    int left = 2 * j;
+                    int sum = in[top + left] + in[top + left + 1] + in[bottom + left] + in[bottom + left + 1];
+                    out[outBase + i * outputSize + j] = quantize(sum * multiplier);
+                }
+            }
+        }
+    }
+
+    // weights is [input][output]; a zero activation skips its whole row
+    private static void dense(byte[] weights, float[] multipliers, float[] biases, byte[] in, byte[] tanhTable,
+                              byte[] out, int[] acc) {
+        int outputSize = out.length;
+        Arrays.fill(acc, 0, outputSize, 0);
+        for (int k = 0; k < in.length; k++) {
+            int x = in[k];
+            if (x == 0) {
+                continue;
+            }
+            KERNELS.axpy(x, weights, k * outputSize, acc, 0, outputSize);
+        }
+        for (int i = 0; i < outputSize; i++) {
+            out[i] = lookup(tanhTable, acc[i] * multipliers[i] + biases[i]);
+        }
+    }
+
+    private static int dot(byte[] weights, int offset, byte[] in, int length) {
+        int acc = 0;
+        for (int i = 0; i < length; i++) {
+            acc += weights[offset + i] * in[i];
+        }
+        return acc;
+    }
+
+    private static byte quantize(float x) {
+        int q = Math.round(x);
+        return (byte) Math.max(-QUANT_MAX, Math.min(QUANT_MAX, q));
+    }
+
+    // Quantizes each row of values to int8 with its own symmetric scale and returns
+    // inputScale * rowScale for every row
+    private static float[] quantizeRows(double[] values, int rows, float inputScale, byte[] quantized) {
+        int[] rowStarts = new int[rows + 1];
+        for (int r = 0; r <= rows; r++) {
+            rowStarts[r] = r * (values.length / rows);
+        }
+        return quantizeRows(values, rowStarts, inputScale, quantized);
+    }
+
+    // Same, with row r running from values[rowStarts[r]] up to values[rowStarts[r + 1]]
+    private static float[] quantizeRows(double[] values, int[] rowStarts, float inputScale, byte[] quantized) {
+        int rows = rowStarts.length - 1;
+        float[] multipliers = new float[rows];
+        for (int r = 0; r < rows; r++) {
+            int start = rowStarts[r];
+            int end = rowStarts[r + 1];
+            double maxAbs = 0.0;
+            for (int k = start; k < end; k++) {
+                maxAbs = Math.max(maxAbs, Math.abs(values[k]));
+            }
+            double scale = maxAbs > 0.0 ? maxAbs / QUANT_MAX : 1.0;
+            for (int k = start; k < end; k++) {
+                quantized[k] = (byte) Math.round(values[k] / scale);
+            }
+            multipliers[r] = (float) (inputScale * scale);
+        }
+        return multipliers;
+    }
+
+    // Where each C3 filter's connected weights start in the packed weightsC3, plus the end
+    private static int[] filterStartsC3() {
+        int filterArea = LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3;
+        int[] starts = new int[LeNet5.NUM_FEATURE_MAPS_C3 + 1];
+        for (int f = 0; f <= LeNet5.NUM_FEATURE_MAPS_C3; f++) {
+            starts[f] = LeNet5.C3_FIRST_CONNECTION[f] * filterArea;
+        }
+        return starts;
+    }
+
+    private static byte[] transpose(byte[] values, int rows) {
+        int cols = values.length / rows;
+        byte[] transposed = new byte[values.length];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                transposed[c * rows + r] = values[r * cols + c];
+            }
+        }
+        return transposed;
+    }
+
+    private static float[] toFloats(Tensor tensor) {
+        float[] values = new float[tensor.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) tensor.data[i];
+        }
+        return values;
+    }
+
+    private static final class ActivationRanges {
+        static final int C1 = 0;
+        static final int S2 = 1;
+        static final int C3 = 2;
+        static final int S4 = 3;
+        static final int C5 = 4;
+        static final int F6 = 5;
+
+        private final double[] maxAbs = new double[6];
+
+        void observe(int layer, Tensor activations) {
+            double max = maxAbs[layer];
+            for (int i = 0; i < activations.size(); i++) {
+                max = Math.max(max, Math.abs(activations.data[i]));
+            }
+            maxAbs[layer] = max;
+        }
+
+        float scale(int layer) {
+            return maxAbs[layer] > 0.0 ? (float) (maxAbs[layer] / QUANT_MAX) : 1.0f / QUANT_MAX;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+public class QuantizedWorkspace {
+    // Raw 0..255 pixels, read back as unsigned
+    final byte[] input = new byte[LeNet5.INPUT_SIZE * LeNet5.INPUT_SIZE];
+    final byte[] c1Output = new byte[LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1];
+    final byte[] s2Output = new byte[LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.OUTPUT_SIZE_S2 * LeNet5.OUTPUT_SIZE_S2];
+    final byte[] c3Output = new byte[LeNet5.NUM_FEATURE_MAPS_C3 * LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3];
+    final byte[] s4Output = new byte[LeNet5.NUM_FEATURE_MAPS_C3 * LeNet5.OUTPUT_SIZE_S4 * LeNet5.OUTPUT_SIZE_S4];
+    final byte[] c5Output = new byte[LeNet5.NUM_FEATURE_MAPS_C5];
+    final byte[] f6Output = new byte[LeNet5.NUM_UNITS_F6];
+    final float[] output = new float[LeNet5.NUM_OUTPUT_CLASSES];
+
+    // The current conv layer's input and im2col patches, widened to int so the
+    // multiply-accumulate loops vectorize
+    final int[] widenedInput = new int[Math.max(LeNet5.INPUT_SIZE * LeNet5.INPUT_SIZE,
+            LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.OUTPUT_SIZE_S2 * LeNet5.OUTPUT_SIZE_S2)];
+    final int[] colsC1 = new int[LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1];
+    final int[] colsC3 = new int[LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3];
+    final int[] accumulators = new int[LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1];
+}
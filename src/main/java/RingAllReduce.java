@@ -0,0 +1,299 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sums arrays across the processes of a data-parallel run, over TCP. Rank r listens at
+ * addresses[r], connects to rank r + 1 and accepts rank r - 1, closing a ring.
+ *
+ * allReduce is the bandwidth-optimal ring algorithm: the array is cut into one chunk per
+ * rank, a reduce-scatter of size - 1 steps leaves every rank holding one chunk summed over
+ * all ranks, and an all-gather of size - 1 more steps passes the sums around. Each rank
+ * sends and receives 2 (size - 1) / size of the array, however many ranks there are. Every
+ * step sends to the right on a helper thread while receiving from the left, so neither
+ * side can stall the other on a full socket buffer.
+ *
+ * All ranks must call allReduce and broadcast the same number of times, with arrays of the
+ * same length.
+ */
+public final class RingAllReduce implements AutoCloseable {
+    private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+    private static final long CONNECT_RETRY_MILLIS = 50;
+
+    private final int rank;
+    private final int size;
+    private final GradientCompression compression;
+    private final Socket right;
+    private final Socket left;
+    private final OutputStream out;
+    private final DataInputStream in;
+    private final ExecutorService sender;
+    private byte[] sendBuffer = new byte[0];
+    private byte[] receiveBuffer = new byte[0];
+    private double[] flat = new double[0];
+    // Written by the sender thread as well as the caller's
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Joins the ring as rank, once every rank is listening. Blocks for up to a minute while
+     * the other processes start.
+     */
+    public RingAllReduce(int rank, List<InetSocketAddress> addresses, GradientCompression compression) throws IOException {
+        this.size = addresses.size();
+        if (rank < 0 || rank >= size) {
+            throw new IllegalArgumentException("Rank " + rank + " of " + size);
+        }
+        this.rank = rank;
+        this.compression = compression;
+        if (size == 1) {
+            right = null;
+            left = null;
+            out = null;
+            in = null;
+            sender = null;
+            return;
+        }
+
+        Socket connected = null;
+        Socket accepted = null;
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(addresses.get(rank));
+            // Connections complete against the listen backlog, so every rank can connect
+            // before any of them accepts
+            connected = connect(addresses.get((rank + 1) % size));
+            server.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+            try {
+                accepted = server.accept();
+            } catch (SocketTimeoutException e) {
+                throw new IOException("Rank " + (rank + size - 1) % size + " never connected to rank " + rank, e);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(connected);
+            throw e;
+        }
+        right = connected;
+        left = accepted;
+        right.setTcpNoDelay(true);
+        left.setTcpNoDelay(true);
+        out = right.getOutputStream();
+        in = new DataInputStream(left.getInputStream());
+        sender = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ring-sender-" + rank);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** A ring of size ranks on this machine, rank r listening on basePort + r. */
+    public static RingAllReduce localhost(int rank, int size, int basePort, GradientCompression compression) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>(size);
+        for (int r = 0; r < size; r++) {
+            addresses.add(new InetSocketAddress("127.0.0.1", basePort + r));
+        }
+        return new RingAllReduce(rank, addresses, compression);
+    }
+
+    private static Socket connect(InetSocketAddress address) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address);
+                return socket;
+            } catch (ConnectException e) {
+                socket.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Could not reach " + address, e);
+                }
+            }
+            try {
+                Thread.sleep(CONNECT_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted connecting to " + address, e);
+            }
+        }
+    }
+
+    public int rank() {
+        return rank;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Bytes this rank has written to the ring so far. */
+    public long bytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Replaces data on every rank with its sum over all ranks. */
+    public void allReduce(double[] data) throws IOException {
+        if (size == 1) {
+            return;
+        }
+        int length = data.length;
+        // Reduce-scatter: at step s, send the partial sum of chunk rank - s and add the
+        // left neighbour's partial sum of chunk rank - s - 1 into ours
+        for (int s = 0; s < size - 1; s++) {
+            int sendChunk = Math.floorMod(rank - s, size);
+            int receiveChunk = Math.floorMod(rank - s - 1, size);
+            exchange(data, chunkStart(sendChunk, length), chunkStart(sendChunk + 1, length),
+                    chunkStart(receiveChunk, length), chunkStart(receiveChunk + 1, length), true);
+        }
+        int owned = Math.floorMod(rank + 1, size);
+        if (compression == GradientCompression.FLOAT) {
+            // The other ranks only ever see this chunk as floats, so round our own copy too
+            for (int i = chunkStart(owned, length); i < chunkStart(owned + 1, length); i++) {
+                data[i] = (float) data[i];
+            }
+        }
+        // All-gather: pass each finished chunk on around the ring
+        for (int s = 0; s < size - 1; s++) {
+            int sendChunk = Math.floorMod(rank + 1 - s, size);
+            int receiveChunk = Math.floorMod(rank - s, size);
+            exchange(data, chunkStart(sendChunk, length), chunkStart(sendChunk + 1, length),
+                    chunkStart(receiveChunk, length), chunkStart(receiveChunk + 1, length), false);
+        }
+    }
+
+    /** allReduce over the tensors as if they were one array. */
+    public void allReduce(Tensor[] tensors) throws IOException {
+        if (size == 1) {
+            return;
+        }
+        int length = 0;
+        for (Tensor t : tensors) {
+            length += t.size();
+        }
+        if (flat.length != length) {
+            flat = new double[length];
+        }
+        int position = 0;
+        for (Tensor t : tensors) {
+            System.arraycopy(t.data, 0, flat, position, t.size());
+            position += t.size();
+        }
+        allReduce(flat);
+        position = 0;
+        for (Tensor t : tensors) {
+            System.arraycopy(flat, position, t.data, 0, t.size());
+            position += t.size();
+        }
+    }
+
+    /** Copies rank 0's tensors to every other rank, uncompressed. */
+    public void broadcast(Tensor[] tensors) throws IOException {
+        if (size == 1) {
+            return;
+        }
+        for (Tensor t : tensors) {
+            if (rank != 0) {
+                receive(t.data, 0, t.size(), false, GradientCompression.NONE);
+            }
+            if (rank != size - 1) {
+                encode(t.data, 0, t.size(), GradientCompression.NONE);
+                write(t.size() * Double.BYTES);
+            }
+        }
+        out.flush();
+    }
+
+    private int chunkStart(int chunk, int length) {
+        return (int) ((long) length * chunk / size);
+    }
+
+    // Sends data[sendFrom, sendTo) to the right while receiving [receiveFrom, receiveTo)
+    // from the left, adding it in or overwriting
+    private void exchange(double[] data, int sendFrom, int sendTo, int receiveFrom, int receiveTo, boolean add) throws IOException {
+        int bytes = encode(data, sendFrom, sendTo - sendFrom, compression);
+        Future<?> send = sender.submit(() -> {
+            write(bytes);
+            out.flush();
+            return null;
+        });
+        receive(data, receiveFrom, receiveTo - receiveFrom, add, compression);
+        try {
+            send.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sending to rank " + (rank + 1) % size, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Sending to rank " + (rank + 1) % size + " failed", e.getCause());
+        }
+    }
+
+    private int encode(double[] data, int from, int count, GradientCompression encoding) {
+        int bytes = count * (encoding == GradientCompression.FLOAT ? Float.BYTES : Double.BYTES);
+        if (sendBuffer.length < bytes) {
+            sendBuffer = new byte[bytes];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sendBuffer).order(ByteOrder.LITTLE_ENDIAN);
+        if (encoding == GradientCompression.FLOAT) {
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat((float) data[from + i]);
+            }
+        } else {
+            buffer.asDoubleBuffer().put(data, from, count);
+        }
+        return bytes;
+    }
+
+    private void write(int bytes) throws IOException {
+        out.write(sendBuffer, 0, bytes);
+        bytesSent.addAndGet(bytes);
+    }
+
+    private void receive(double[] data, int from, int count, boolean add, GradientCompression encoding) throws IOException {
+        int bytes = count * (encoding == GradientCompression.FLOAT ? Float.BYTES : Double.BYTES);
+        if (receiveBuffer.length < bytes) {
+            receiveBuffer = new byte[bytes];
+        }
+        try {
+            in.readFully(receiveBuffer, 0, bytes);
+        } catch (EOFException e) {
+            throw new IOException("Rank " + (rank + size - 1) % size + " left the ring", e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(receiveBuffer, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            double value = encoding == GradientCompression.FLOAT ? buffer.getFloat() : buffer.getDouble();
+            data[from + i] = add ? data[from + i] + value : value;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (sender != null) {
+            sender.shutdownNow();
+        }
+        closeQuietly(right);
+        closeQuietly(left);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with a socket that will not close
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks RingAllReduce and trainDistributed in one process: each rank of a ring of 2, 3 and
+ * 5 runs on its own thread over loopback. For both compressions, allReduce must leave every
+ * rank with the exact sums of integer-valued arrays, including arrays shorter than the ring,
+ * and with bit-identical sums of random ones, having sent 2 (size - 1) / size of the array
+ * per rank. trainDistributed, started from a different initialization on every rank, must
+ * end with the same parameters on every replica. Any failure ends the check with an
+ * exception.
+ */
+public class RingAllReduceCheck {
+    private static final int[] RING_SIZES = {2, 3, 5};
+    private static final int[] LENGTHS = {1, 4, 1000, 44426};
+    private static final int NUM_IMAGES = 120;
+    private static final int BATCH_SIZE = 4;
+    private static final int EPOCHS = 2;
+    private static final int BASE_PORT = 29700;
+
+    private interface RankTask {
+        void run(RingAllReduce ring) throws IOException;
+    }
+
+    public static void main(String[] args) {
+        int port = BASE_PORT;
+        for (int size : RING_SIZES) {
+            for (GradientCompression compression : GradientCompression.values()) {
+                for (int length : LENGTHS) {
+                    checkSums(size, port, compression, length);
+                    // Fresh ports every round, so sockets lingering from the last one cannot collide
+                    port += size;
+                }
+            }
+            checkTraining(size, port);
+            port += size;
+        }
+        System.out.println("Ring all-reduce and distributed training agree on every rank");
+    }
+
+    private static void checkSums(int size, int basePort, GradientCompression compression, int length) {
+        double[][] exact = new double[size][length];
+        double[][] random = new double[size][length];
+        double[] exactSum = new double[length];
+        for (int rank = 0; rank < size; rank++) {
+            Random values = new Random(rank);
+            for (int i = 0; i < length; i++) {
+                exact[rank][i] = values.nextInt(2001) - 1000;
+                random[rank][i] = values.nextGaussian();
+                exactSum[i] += exact[rank][i];
+            }
+        }
+
+        long[] bytesSent = new long[size];
+        runRanks(size, basePort, compression, ring -> {
+            ring.allReduce(exact[ring.rank()]);
+            ring.allReduce(random[ring.rank()]);
+            bytesSent[ring.rank()] = ring.bytesSent();
+        });
+
+        String name = size + " ranks, " + compression + ", length " + length;
+        long totalBytes = 0;
+        for (int rank = 0; rank < size; rank++) {
+            if (!Arrays.equals(exact[rank], exactSum)) {
+                throw new IllegalStateException(name + ": rank " + rank + " has wrong sums");
+            }
+            if (!Arrays.equals(random[rank], random[0])) {
+                throw new IllegalStateException(name + ": rank " + rank + " disagrees with rank 0");
+            }
+            totalBytes += bytesSent[rank];
+        }
+        // Each phase passes every chunk size - 1 times, in both calls
+        long expectedBytes = 2L * 2 * (size - 1) * length * (compression == GradientCompression.FLOAT ? Float.BYTES : Double.BYTES);
+        if (totalBytes != expectedBytes) {
+            throw new IllegalStateException(name + ": sent " + totalBytes + " bytes, expected " + expectedBytes);
+        }
+        System.out.println(name + ": sums correct on every rank, " + totalBytes + " bytes sent");
+    }
+
+    private static void checkTraining(int size, int basePort) {
+        Dataset train = Dataset.synthetic(NUM_IMAGES, 42).withPaddedCache();
+
+        LeNet5[] replicas = new LeNet5[size];
+        for (int rank = 0; rank < size; rank++) {
+            replicas[rank] = new LeNet5(1.0, rank);
+            replicas[rank].setNumThreads(1);
+            replicas[rank].setProgressOutput(false);
+            replicas[rank].setOptimizer(Optimizer.adam());
+        }
+        Tensor[] start = replicas[0].parameters();
+        double[][] initial = new double[start.length][];
+        for (int t = 0; t < start.length; t++) {
+            initial[t] = start[t].data.clone();
+        }
+        runRanks(size, basePort, GradientCompression.NONE, ring -> {
+            replicas[ring.rank()].trainDistributed(EPOCHS, BATCH_SIZE, train, 42, ring);
+        });
+
+        Tensor[] parameters = replicas[0].parameters();
+        boolean trained = false;
+        for (int t = 0; t < parameters.length; t++) {
+            trained |= !Arrays.equals(parameters[t].data, initial[t]);
+            for (int rank = 1; rank < size; rank++) {
+                if (!Arrays.equals(replicas[rank].parameters()[t].data, parameters[t].data)) {
+                    throw new IllegalStateException(size + " ranks: replica " + rank + " parameter " + t + " differs from rank 0");
+                }
+            }
+        }
+        if (!trained) {
+            throw new IllegalStateException(size + " ranks: training left the parameters unchanged");
+        }
+        System.out.println(size + " ranks: replicas identical after " + EPOCHS + " epochs of distributed training");
+    }
+
+    // Runs task as every rank of a localhost ring at once, one thread per rank
+    private static void runRanks(int size, int basePort, GradientCompression compression, RankTask task) {
+        ExecutorService pool = Executors.newFixedThreadPool(size);
+        try {
+            List<Future<?>> ranks = new ArrayList<>(size);
+            for (int rank = 0; rank < size; rank++) {
+                int r = rank;
+                ranks.add(pool.submit(() -> {
+                    try (RingAllReduce ring = RingAllReduce.localhost(r, size, basePort, compression)) {
+                        task.run(ring);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> rank : ranks) {
+                rank.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Check interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rank failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
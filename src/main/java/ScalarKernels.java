@@ -0,0 +1,117 @@
+public final class ScalarKernels implements Kernels {
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+
+        double sum = (sum0 + sum1) + (sum2 + sum3);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy4(double alpha0, double alpha1, double alpha2, double alpha3, double[] x, int xOffset,
+                      double[] y, int y0, int y1, int y2, int y3, int length) {
+        for (int i = 0; i < length; i++) {
+            double v = x[xOffset + i];
+            y[y0 + i] += alpha0 * v;
+            y[y1 + i] += alpha1 * v;
+            y[y2 + i] += alpha2 * v;
+            y[y3 + i] += alpha3 * v;
+        }
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum0 = 0.0f;
+        float sum1 = 0.0f;
+        float sum2 = 0.0f;
+        float sum3 = 0.0f;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+
+        float sum = (sum0 + sum1) + (sum2 + sum3);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dotAccurate(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        int i = 0;
+        for (; i + 2 <= length; i += 2) {
+            sum0 += (double) a[aOffset + i] * b[bOffset + i];
+            sum1 += (double) a[aOffset + i + 1] * b[bOffset + i + 1];
+        }
+
+        double sum = sum0 + sum1;
+        for (; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy4(float alpha0, float alpha1, float alpha2, float alpha3, float[] x, int xOffset,
+                      float[] y, int y0, int y1, int y2, int y3, int length) {
+        for (int i = 0; i < length; i++) {
+            float v = x[xOffset + i];
+            y[y0 + i] += alpha0 * v;
+            y[y1 + i] += alpha1 * v;
+            y[y2 + i] += alpha2 * v;
+            y[y3 + i] += alpha3 * v;
+        }
+    }
+
+    @Override
+    public void axpy(int alpha, int[] x, int xOffset, int[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}
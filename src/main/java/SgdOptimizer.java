@@ -0,0 +1,18 @@
+final class SgdOptimizer implements Optimizer {
+    @Override
+    public void step(Tensor[] parameters, Tensor[] gradients, double learningRate, int batchSize) {
+        double rate = learningRate / batchSize;
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i].addScaled(gradients[i], -rate);
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public String toString() {
+        return "SGD";
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+public final class Tensor {
+    public final double[] data;
+    final int[] shape;
+    final int[] strides;
+
+    public Tensor(int... shape) {
+        this.shape = shape.clone();
+        this.strides = new int[shape.length];
+
+        int size = 1;
+        for (int d = shape.length - 1; d >= 0; d--) {
+            if (shape[d] < 1) {
+                throw new IllegalArgumentException("Invalid tensor shape: " + Arrays.toString(shape));
+            }
+            strides[d] = size;
+            size *= shape[d];
+        }
+
+        this.data = new double[size];
+    }
+
+    public int rank() {
+        return shape.length;
+    }
+
+    public int dim(int d) {
+        return shape[d];
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public int offset(int i) {
+        return i * strides[0];
+    }
+
+    public int offset(int i, int j) {
+        return i * strides[0] + j * strides[1];
+    }
+
+    public int offset(int i, int j, int k) {
+        return i * strides[0] + j * strides[1] + k * strides[2];
+    }
+
+    public int offset(int i, int j, int k, int l) {
+        return i * strides[0] + j * strides[1] + k * strides[2] + l * strides[3];
+    }
+
+    public double get(int i) {
+        return data[offset(i)];
+    }
+
+    public double get(int i, int j) {
+        return data[offset(i, j)];
+    }
+
+    public double get(int i, int j, int k) {
+        return data[offset(i, j, k)];
+    }
+
+    public double get(int i, int j, int k, int l) {
+        return data[offset(i, j, k, l)];
+    }
+
+    /** A new tensor of the same shape, all zeros. */
+    public Tensor zerosLike() {
+        return new Tensor(shape);
+    }
+
+    static Tensor[] zerosLike(Tensor[] tensors) {
+        Tensor[] zeros = new Tensor[tensors.length];
+        for (int i = 0; i < tensors.length; i++) {
+            zeros[i] = tensors[i].zerosLike();
+        }
+        return zeros;
+    }
+
+    // Whether tensors holds a tensor shaped like each of like, in order, from index from
+    static boolean shapesMatch(Tensor[] like, Tensor[] tensors, int from) {
+        if (tensors.length - from < like.length) {
+            return false;
+        }
+        for (int i = 0; i < like.length; i++) {
+            if (!Arrays.equals(like[i].shape, tensors[from + i].shape)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void fill(double value) {
+        Arrays.fill(data, value);
+    }
+
+    public void add(Tensor other) {
+        checkSameShape(other);
+        double[] src = other.data;
+        for (int i = 0; i < data.length; i++) {
+            data[i] += src[i];
+        }
+    }
+
+    public void addScaled(Tensor other, double scale) {
+        checkSameShape(other);
+        double[] src = other.data;
+        for (int i = 0; i < data.length; i++) {
+            data[i] += scale * src[i];
+        }
+    }
+
+    private void checkSameShape(Tensor other) {
+        if (!Arrays.equals(shape, other.shape)) {
+            throw new IllegalArgumentException("Shape mismatch: " + Arrays.toString(shape) + " vs " + Arrays.toString(other.shape));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Tensor" + Arrays.toString(shape);
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Receives metrics from trainNetwork and optimizeHyperParameters. Callbacks run on the
+ * training thread between batches, so they should return quickly.
+ */
+public interface TrainingListener {
+    void epochCompleted(EpochMetrics metrics);
+
+    /** Called after every batch; per-sample training reports batches of one. */
+    default void batchCompleted(int epoch, int size, long elapsedNanos) {
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Winograd F(2x2, 5x5) for the 5x5 valid convolutions of C1 and C3.
+ *
+ * Each 2x2 block of output is computed from the 6x6 input tile under it as
+ * A^T [(G g G^T) * (B^T d B)] A, with * elementwise: 36 multiplies per input map where the
+ * direct method needs 100. The transforms come from interpolation at 0, 1, -1, 2, -2 and
+ * infinity:
+ * <pre>
+ *   B^T = | 4  0 -5  0  1  0 |   G = |  1/4    0     0     0     0  |   A^T = | 1  1  1  1  1  0 |
+ *         | 0 -4 -4  1  1  0 |       | -1/6 -1/6  -1/6  -1/6  -1/6 |         | 0  1 -1  2 -2  1 |
+ *         | 0  4 -4 -1  1  0 |       | -1/6  1/6  -1/6   1/6  -1/6 |
+ *         | 0 -2 -1  2  1  0 |       | 1/24 1/12   1/6   1/3   2/3 |
+ *         | 0  2 -1 -2  1  0 |       | 1/24 -1/12  1/6  -1/3   2/3 |
+ *         | 0  4  0 -5  0  1 |       |   0    0     0     0     1  |
+ * </pre>
+ * Tile (ti, tj) reads input rows and columns [2ti, 2ti + 6) and [2tj, 2tj + 6) and writes
+ * output block [2ti, 2ti + 2) x [2tj, 2tj + 2), so a 5x5 convolution whose output size is
+ * even needs no padding. Transformed tiles are laid out element-major, [36][rows][tiles],
+ * so summing over input maps is one small GEMM per tile element.
+ *
+ * The gradient methods apply the transposed transforms, which makes backprop through a
+ * Winograd layer exact with respect to its own forward pass.
+ */
+public final class Winograd {
+    static final int KERNEL = 5;
+    static final int TILE = 6;
+    static final int TILE_AREA = TILE * TILE;
+    static final int OUTPUT_TILE = 2;
+
+    private Winograd() {
+    }
+
+    /** Tiles per map for a convolution with outputSize x outputSize outputs. */
+    public static int tiles(int outputSize) {
+        int tilesPerRow = outputSize / OUTPUT_TILE;
+        return tilesPerRow * tilesPerRow;
+    }
+
+    // u[uOffset + e * uStride] = (G g G^T)[e] for the 5x5 filter g at gOffset
+    public static void transformFilter(double[] g, int gOffset, double[] u, int uOffset, int uStride) {
+        for (int j = 0; j < KERNEL; j++) {
+            filter(g, gOffset + j, KERNEL, u, uOffset + j * uStride, TILE * uStride);
+        }
+        for (int i = 0; i < TILE; i++) {
+            int row = uOffset + i * TILE * uStride;
+            filter(u, row, uStride, u, row, uStride);
+        }
+    }
+
+    // v[(e * channels + c) * tiles + t] = (B^T d B)[e], d the 6x6 tile t of input map c
+    public static void transformInput(double[] input, int channels, int inputSize, double[] v) {
+        int tilesPerRow = (inputSize - KERNEL + 1) / OUTPUT_TILE;
+        int tiles = tilesPerRow * tilesPerRow;
+        int stride = channels * tiles;
+
+        for (int c = 0; c < channels; c++) {
+            for (int ti = 0; ti < tilesPerRow; ti++) {
+                for (int tj = 0; tj < tilesPerRow; tj++) {
+                    int in = (c * inputSize + ti * OUTPUT_TILE) * inputSize + tj * OUTPUT_TILE;
+                    int out = c * tiles + ti * tilesPerRow + tj;
+                    for (int j = 0; j < TILE; j++) {
+                        input(input, in + j, inputSize, v, out + j * stride, TILE * stride);
+                    }
+                    for (int i = 0; i < TILE; i++) {
+                        int row = out + i * TILE * stride;
+                        input(v, row, stride, v, row, stride);
+                    }
+                }
+            }
+        }
+    }
+
+    // output[f][2ti + a][2tj + b] = (A^T m A)[a][b] for tile (ti, tj) of filter f. Overwrites m.
+    public static void transformOutput(double[] m, int numFilters, int outputSize, double[] output) {
+        int tilesPerRow = outputSize / OUTPUT_TILE;
+        int tiles = tilesPerRow * tilesPerRow;
+        int stride = numFilters * tiles;
+
+        for (int f = 0; f < numFilters; f++) {
+            for (int ti = 0; ti < tilesPerRow; ti++) {
+                for (int tj = 0; tj < tilesPerRow; tj++) {
+                    int in = f * tiles + ti * tilesPerRow + tj;
+                    int out = (f * outputSize + ti * OUTPUT_TILE) * outputSize + tj * OUTPUT_TILE;
+                    for (int j = 0; j < TILE; j++) {
+                        output(m, in + j * stride, TILE * stride, m, in + j * stride, TILE * stride);
+                    }
+                    for (int a = 0; a < OUTPUT_TILE; a++) {
+                        output(m, in + a * TILE * stride, stride, output, out + a * outputSize, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    // dm[(e * numFilters + f) * tiles + t] = (A dY A^T)[e], dY the 2x2 block of dOutput under tile t
+    public static void transformOutputGradient(double[] dOutput, int numFilters, int outputSize, double[] dm) {
+        int tilesPerRow = outputSize / OUTPUT_TILE;
+        int tiles = tilesPerRow * tilesPerRow;
+        int stride = numFilters * tiles;
+
+        for (int f = 0; f < numFilters; f++) {
+            for (int ti = 0; ti < tilesPerRow; ti++) {
+                for (int tj = 0; tj < tilesPerRow; tj++) {
+                    int in = (f * outputSize + ti * OUTPUT_TILE) * outputSize + tj * OUTPUT_TILE;
+                    int out = f * tiles + ti * tilesPerRow + tj;
+                    for (int b = 0; b < OUTPUT_TILE; b++) {
+                        outputGradient(dOutput, in + b, outputSize, dm, out + b * stride, TILE * stride);
+                    }
+                    for (int i = 0; i < TILE; i++) {
+                        int row = out + i * TILE * stride;
+                        outputGradient(dm, row, stride, dm, row, stride);
+                    }
+                }
+            }
+        }
+    }
+
+    // dInput[c][2ti + i][2tj + j] += (B dv B^T)[i][j] for every tile (ti, tj) of map c. Overwrites dv.
+    public static void addInputGradient(double[] dv, int channels, int inputSize, double[] dInput) {
+        int tilesPerRow = (inputSize - KERNEL + 1) / OUTPUT_TILE;
+        int tiles = tilesPerRow * tilesPerRow;
+        int stride = channels * tiles;
+
+        for (int c = 0; c < channels; c++) {
+            for (int ti = 0; ti < tilesPerRow; ti++) {
+                for (int tj = 0; tj < tilesPerRow; tj++) {
+                    int in = c * tiles + ti * tilesPerRow + tj;
+                    int out = (c * inputSize + ti * OUTPUT_TILE) * inputSize + tj * OUTPUT_TILE;
+                    for (int j = 0; j < TILE; j++) {
+                        inputGradient(dv, in + j * stride, TILE * stride, dv, in + j * stride, TILE * stride);
+                    }
+                    for (int i = 0; i < TILE; i++) {
+                        int row = in + i * TILE * stride;
+                        inputGradient(dv, row, stride, dv, row, stride);
+                        int outRow = out + i * inputSize;
+                        for (int j = 0; j < TILE; j++) {
+                            dInput[outRow + j] += dv[row + j * stride];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // dg[dgOffset + 5x5] += G^T du G for the tile elements du[duOffset + e * duStride]. Overwrites du.
+    public static void addFilterGradient(double[] du, int duOffset, int duStride, double[] dg, int dgOffset) {
+        for (int j = 0; j < TILE; j++) {
+            filterGradient(du, duOffset + j * duStride, TILE * duStride, du, duOffset + j * duStride, TILE * duStride);
+        }
+        for (int i = 0; i < KERNEL; i++) {
+            int row = duOffset + i * TILE * duStride;
+            filterGradient(du, row, duStride, du, row, duStride);
+            for (int j = 0; j < KERNEL; j++) {
+                dg[dgOffset + i * KERNEL + j] += du[row + j * duStride];
+            }
+        }
+    }
+
+    // The 1-D transforms below read all of their inputs before writing, so src and dst may
+    // be the same elements.
+
+    // dst = B^T src, 6 -> 6
+    private static void input(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double d0 = src[s];
+        double d1 = src[s + ss];
+        double d2 = src[s + 2 * ss];
+        double d3 = src[s + 3 * ss];
+        double d4 = src[s + 4 * ss];
+        double d5 = src[s + 5 * ss];
+        double p = d4 - 4 * d2;
+        double q = d3 - 4 * d1;
+        double r = d4 - d2;
+        double t = 2 * (d3 - d1);
+        dst[d] = 4 * d0 - 5 * d2 + d4;
+        dst[d + ds] = p + q;
+        dst[d + 2 * ds] = p - q;
+        dst[d + 3 * ds] = r + t;
+        dst[d + 4 * ds] = r - t;
+        dst[d + 5 * ds] = 4 * d1 - 5 * d3 + d5;
+    }
+
+    // dst = G src, 5 -> 6
+    private static void filter(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double g0 = src[s];
+        double g1 = src[s + ss];
+        double g2 = src[s + 2 * ss];
+        double g3 = src[s + 3 * ss];
+        double g4 = src[s + 4 * ss];
+        double even = g0 + g2 + g4;
+        double odd = g1 + g3;
+        double even2 = g0 + 4 * g2 + 16 * g4;
+        double odd2 = 2 * g1 + 8 * g3;
+        dst[d] = g0 / 4;
+        dst[d + ds] = -(even + odd) / 6;
+        dst[d + 2 * ds] = -(even - odd) / 6;
+        dst[d + 3 * ds] = (even2 + odd2) / 24;
+        dst[d + 4 * ds] = (even2 - odd2) / 24;
+        dst[d + 5 * ds] = g4;
+    }
+
+    // dst = A^T src, 6 -> 2
+    private static void output(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double m0 = src[s];
+        double m1 = src[s + ss];
+        double m2 = src[s + 2 * ss];
+        double m3 = src[s + 3 * ss];
+        double m4 = src[s + 4 * ss];
+        double m5 = src[s + 5 * ss];
+        dst[d] = m0 + m1 + m2 + m3 + m4;
+        dst[d + ds] = m1 - m2 + 2 * (m3 - m4) + m5;
+    }
+
+    // dst = A src, 2 -> 6
+    private static void outputGradient(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double y0 = src[s];
+        double y1 = src[s + ss];
+        dst[d] = y0;
+        dst[d + ds] = y0 + y1;
+        dst[d + 2 * ds] = y0 - y1;
+        dst[d + 3 * ds] = y0 + 2 * y1;
+        dst[d + 4 * ds] = y0 - 2 * y1;
+        dst[d + 5 * ds] = y1;
+    }
+
+    // dst = B src, 6 -> 6
+    private static void inputGradient(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double v0 = src[s];
+        double v1 = src[s + ss];
+        double v2 = src[s + 2 * ss];
+        double v3 = src[s + 3 * ss];
+        double v4 = src[s + 4 * ss];
+        double v5 = src[s + 5 * ss];
+        dst[d] = 4 * v0;
+        dst[d + ds] = 4 * (v2 - v1 + v5) + 2 * (v4 - v3);
+        dst[d + 2 * ds] = -5 * v0 - 4 * (v1 + v2) - v3 - v4;
+        dst[d + 3 * ds] = v1 - v2 + 2 * (v3 - v4) - 5 * v5;
+        dst[d + 4 * ds] = v0 + v1 + v2 + v3 + v4;
+        dst[d + 5 * ds] = v5;
+    }
+
+    // dst = G^T src, 6 -> 5
+    private static void filterGradient(double[] src, int s, int ss, double[] dst, int d, int ds) {
+        double u0 = src[s];
+        double u1 = src[s + ss];
+        double u2 = src[s + 2 * ss];
+        double u3 = src[s + 3 * ss];
+        double u4 = src[s + 4 * ss];
+        double u5 = src[s + 5 * ss];
+        double sum12 = (u1 + u2) / 6;
+        double diff12 = (u2 - u1) / 6;
+        double sum34 = u3 + u4;
+        double diff34 = u3 - u4;
+        dst[d] = u0 / 4 - sum12 + sum34 / 24;
+        dst[d + ds] = diff12 + diff34 / 12;
+        dst[d + 2 * ds] = -sum12 + sum34 / 6;
+        dst[d + 3 * ds] = diff12 + diff34 / 3;
+        dst[d + 4 * ds] = -sum12 + 2 * sum34 / 3 + u5;
+    }
+}
@@ -0,0 +1,55 @@
+public class Workspace {
+    final Tensor input = new Tensor(LeNet5.INPUT_SIZE, LeNet5.INPUT_SIZE);
+    final Tensor c1Output = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, LeNet5.OUTPUT_SIZE_C1);
+    final Tensor s2Output = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.OUTPUT_SIZE_S2);
+    final Tensor c3Output = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, LeNet5.OUTPUT_SIZE_C3);
+    final Tensor s4Output = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_S4, LeNet5.OUTPUT_SIZE_S4);
+    final Tensor c5Output = new Tensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    final Tensor f6Output = new Tensor(LeNet5.NUM_UNITS_F6);
+    final Tensor output = new Tensor(LeNet5.NUM_OUTPUT_CLASSES);
+
+    final Tensor dOutput = new Tensor(LeNet5.NUM_OUTPUT_CLASSES);
+    final Tensor dF6 = new Tensor(LeNet5.NUM_UNITS_F6);
+    final Tensor dC5 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C5);
+    final Tensor dS4 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_S4, LeNet5.OUTPUT_SIZE_S4);
+    final Tensor dC3 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.OUTPUT_SIZE_C3, LeNet5.OUTPUT_SIZE_C3);
+    final Tensor dS2 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_S2, LeNet5.OUTPUT_SIZE_S2);
+    final Tensor dC1 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.OUTPUT_SIZE_C1, LeNet5.OUTPUT_SIZE_C1);
+
+    final Tensor colsC1 = new Tensor(LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1, LeNet5.OUTPUT_SIZE_C1 * LeNet5.OUTPUT_SIZE_C1);
+    final Tensor colsC3 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3, LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3);
+    final Tensor dColsC3 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3, LeNet5.OUTPUT_SIZE_C3 * LeNet5.OUTPUT_SIZE_C3);
+    final Tensor dWeightsC3Matrix = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3);
+
+    // One band of conv output rows at a time for FUSED_GEMM
+    final Tensor bandColsC1 = new Tensor(LeNet5.FILTER_SIZE_C1 * LeNet5.FILTER_SIZE_C1, LeNet5.POOLED_ROWS_PER_BAND_C1 * LeNet5.POOL_SIZE_S2 * LeNet5.OUTPUT_SIZE_C1);
+    final Tensor bandC1 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1, LeNet5.POOLED_ROWS_PER_BAND_C1 * LeNet5.POOL_SIZE_S2 * LeNet5.OUTPUT_SIZE_C1);
+    final Tensor bandColsC3 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C1 * LeNet5.FILTER_SIZE_C3 * LeNet5.FILTER_SIZE_C3, LeNet5.POOLED_ROWS_PER_BAND_C3 * LeNet5.POOL_SIZE_S4 * LeNet5.OUTPUT_SIZE_C3);
+    final Tensor bandC3 = new Tensor(LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.POOLED_ROWS_PER_BAND_C3 * LeNet5.POOL_SIZE_S4 * LeNet5.OUTPUT_SIZE_C3);
+
+    // WINOGRAD's transformed tiles, [36][maps][tiles]: the inputs, kept for the weight
+    // gradients, and the filter products, which backprop reuses for the output gradients
+    final Tensor winogradInputC1 = new Tensor(Winograd.TILE_AREA, 1, Winograd.tiles(LeNet5.OUTPUT_SIZE_C1));
+    final Tensor winogradProductC1 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C1, Winograd.tiles(LeNet5.OUTPUT_SIZE_C1));
+    final Tensor winogradWeightGradientC1 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C1, 1);
+    final Tensor winogradInputC3 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C1, Winograd.tiles(LeNet5.OUTPUT_SIZE_C3));
+    final Tensor winogradInputGradientC3 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C1, Winograd.tiles(LeNet5.OUTPUT_SIZE_C3));
+    final Tensor winogradProductC3 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C3, Winograd.tiles(LeNet5.OUTPUT_SIZE_C3));
+    final Tensor winogradWeightGradientC3 = new Tensor(Winograd.TILE_AREA, LeNet5.NUM_FEATURE_MAPS_C3, LeNet5.NUM_FEATURE_MAPS_C1);
+
+    // Loss, accuracy and confusion counts of the training samples passed through this
+    // workspace in the current epoch
+    final ClassificationMetrics trainingMetrics = new ClassificationMetrics();
+
+    // Per-layer timings to record into; only set while a TrainingListener watches training
+    LayerTimings timings;
+
+    private FloatWorkspace floatWorkspace;
+
+    FloatWorkspace floats() {
+        if (floatWorkspace == null) {
+            floatWorkspace = new FloatWorkspace();
+        }
+        return floatWorkspace;
+    }
+}
@@ -0,0 +1,207 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorKernels implements Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    // Float species with as many lanes as SPECIES, so one load widens into exactly one double
+    // vector; with 64-bit vectors that would be 32 bits, so there a load widens into two
+    private static final VectorSpecies<Float> HALF_FLOAT_SPECIES =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(Math.max(64, SPECIES.vectorBitSize() / 2)));
+    private static final int DOUBLE_VECTORS_PER_FLOAT_VECTOR = HALF_FLOAT_SPECIES.length() / SPECIES.length();
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    // Byte species with as many lanes as INT_SPECIES where that is at least 64 bits, so one load
+    // widens into a whole number of int vectors: 128-bit hardware would need a 32-bit byte
+    // vector, which does not exist, so there each 64-bit load widens into two
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, INT_SPECIES.vectorBitSize() / 4)));
+    private static final int INT_VECTORS_PER_BYTE_VECTOR = BYTE_SPECIES.length() / INT_SPECIES.length();
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.vectorBitSize() + "-bit)";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(va, vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy4(double alpha0, double alpha1, double alpha2, double alpha3, double[] x, int xOffset,
+                      double[] y, int y0, int y1, int y2, int y3, int length) {
+        DoubleVector va0 = DoubleVector.broadcast(SPECIES, alpha0);
+        DoubleVector va1 = DoubleVector.broadcast(SPECIES, alpha1);
+        DoubleVector va2 = DoubleVector.broadcast(SPECIES, alpha2);
+        DoubleVector va3 = DoubleVector.broadcast(SPECIES, alpha3);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            vx.fma(va0, DoubleVector.fromArray(SPECIES, y, y0 + i)).intoArray(y, y0 + i);
+            vx.fma(va1, DoubleVector.fromArray(SPECIES, y, y1 + i)).intoArray(y, y1 + i);
+            vx.fma(va2, DoubleVector.fromArray(SPECIES, y, y2 + i)).intoArray(y, y2 + i);
+            vx.fma(va3, DoubleVector.fromArray(SPECIES, y, y3 + i)).intoArray(y, y3 + i);
+        }
+
+        for (; i < length; i++) {
+            double v = x[xOffset + i];
+            y[y0 + i] += alpha0 * v;
+            y[y1 + i] += alpha1 * v;
+            y[y2 + i] += alpha2 * v;
+            y[y3 + i] += alpha3 * v;
+        }
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dotAccurate(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = HALF_FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += HALF_FLOAT_SPECIES.length()) {
+            FloatVector fa = FloatVector.fromArray(HALF_FLOAT_SPECIES, a, aOffset + i);
+            FloatVector fb = FloatVector.fromArray(HALF_FLOAT_SPECIES, b, bOffset + i);
+            for (int part = 0; part < DOUBLE_VECTORS_PER_FLOAT_VECTOR; part++) {
+                DoubleVector va = (DoubleVector) fa.convertShape(VectorOperators.F2D, SPECIES, part);
+                DoubleVector vb = (DoubleVector) fb.convertShape(VectorOperators.F2D, SPECIES, part);
+                acc = va.fma(vb, acc);
+            }
+        }
+
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            vx.fma(va, vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy4(float alpha0, float alpha1, float alpha2, float alpha3, float[] x, int xOffset,
+                      float[] y, int y0, int y1, int y2, int y3, int length) {
+        FloatVector va0 = FloatVector.broadcast(FLOAT_SPECIES, alpha0);
+        FloatVector va1 = FloatVector.broadcast(FLOAT_SPECIES, alpha1);
+        FloatVector va2 = FloatVector.broadcast(FLOAT_SPECIES, alpha2);
+        FloatVector va3 = FloatVector.broadcast(FLOAT_SPECIES, alpha3);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            vx.fma(va0, FloatVector.fromArray(FLOAT_SPECIES, y, y0 + i)).intoArray(y, y0 + i);
+            vx.fma(va1, FloatVector.fromArray(FLOAT_SPECIES, y, y1 + i)).intoArray(y, y1 + i);
+            vx.fma(va2, FloatVector.fromArray(FLOAT_SPECIES, y, y2 + i)).intoArray(y, y2 + i);
+            vx.fma(va3, FloatVector.fromArray(FLOAT_SPECIES, y, y3 + i)).intoArray(y, y3 + i);
+        }
+
+        for (; i < length; i++) {
+            float v = x[xOffset + i];
+            y[y0 + i] += alpha0 * v;
+            y[y1 + i] += alpha1 * v;
+            y[y2 + i] += alpha2 * v;
+            y[y3 + i] += alpha3 * v;
+        }
+    }
+
+    @Override
+    public void axpy(int alpha, int[] x, int xOffset, int[] y, int yOffset, int length) {
+        IntVector va = IntVector.broadcast(INT_SPECIES, alpha);
+        int i = 0;
+        int bound = INT_SPECIES.loopBound(length);
+        for (; i < bound; i += INT_SPECIES.length()) {
+            IntVector vx = IntVector.fromArray(INT_SPECIES, x, xOffset + i);
+            IntVector vy = IntVector.fromArray(INT_SPECIES, y, yOffset + i);
+            vx.mul(va).add(vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+        IntVector va = IntVector.broadcast(INT_SPECIES, alpha);
+        int i = 0;
+        int bound = BYTE_SPECIES.loopBound(length);
+        for (; i < bound; i += BYTE_SPECIES.length()) {
+            ByteVector bytes = ByteVector.fromArray(BYTE_SPECIES, x, xOffset + i);
+            for (int part = 0; part < INT_VECTORS_PER_BYTE_VECTOR; part++) {
+                int offset = yOffset + i + part * INT_SPECIES.length();
+                IntVector vx = (IntVector) bytes.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+                IntVector vy = IntVector.fromArray(INT_SPECIES, y, offset);
+                vx.mul(va).add(vy).intoArray(y, offset);
+            }
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+}